@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import nl.ketenid.eck.schemas.v1_0.HPgn;
+import nl.ketenid.eck.schemas.v1_0.ListedHpgn;
+import nl.ketenid.eck.schemas.v1_0.ListedStampseudonym;
+import nl.ketenid.eck.schemas.v1_0.ObjectFactory;
+import nl.ketenid.eck.schemas.v1_0.Stampseudonym;
+import nl.ketenid.eck.schemas.v1_0.SubmitEckIdBatchRequest;
+import nl.ketenid.eck.schemas.v1_0.SubmitStampseudonymBatchRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the JAXB marshalling of the batch requests, which holds the largest messages sent to the service.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchMarshallingBenchmark {
+
+    private static final String CHAIN_ID = "http://ketenid.nl/chain/test";
+
+    private static final String SECTOR_ID = "http://ketenid.nl/sector/test";
+
+    @Param({"1000", "10000", "100000"})
+    public int batchSize;
+
+    private final ObjectFactory objectFactory = new ObjectFactory();
+
+    private final OutputStream output = OutputStream.nullOutputStream();
+
+    private Marshaller marshaller;
+
+    private SubmitEckIdBatchRequest eckIdBatchRequest;
+
+    private SubmitStampseudonymBatchRequest stampseudonymBatchRequest;
+
+    @Setup
+    public void setUp() throws JAXBException {
+        marshaller = JAXBContext.newInstance(ObjectFactory.class).createMarshaller();
+
+        eckIdBatchRequest = new SubmitEckIdBatchRequest();
+        eckIdBatchRequest.setChainId(CHAIN_ID);
+        eckIdBatchRequest.setSectorId(SECTOR_ID);
+        stampseudonymBatchRequest = new SubmitStampseudonymBatchRequest();
+        for (int i = 0; i < batchSize; i++) {
+            Stampseudonym stampseudonym = new Stampseudonym();
+            stampseudonym.setValue(Fixtures.stampseudonym(i));
+            ListedStampseudonym listedStampseudonym = new ListedStampseudonym();
+            listedStampseudonym.setIndex(i);
+            listedStampseudonym.setStampseudonym(stampseudonym);
+            eckIdBatchRequest.getStampseudonymList().add(listedStampseudonym);
+
+            HPgn hpgn = new HPgn();
+            hpgn.setValue(Fixtures.hpgn(i));
+            ListedHpgn listedHpgn = new ListedHpgn();
+            listedHpgn.setIndex(i);
+            listedHpgn.setHPgn(hpgn);
+            stampseudonymBatchRequest.getHpgnList().add(listedHpgn);
+        }
+    }
+
+    @Benchmark
+    public void marshalSubmitEckIdBatchRequest() throws JAXBException {
+        marshaller.marshal(objectFactory.createSubmitEckIdBatchRequest(eckIdBatchRequest), output);
+    }
+
+    @Benchmark
+    public void marshalSubmitStampseudonymBatchRequest() throws JAXBException {
+        marshaller.marshal(objectFactory.createSubmitStampseudonymBatchRequest(stampseudonymBatchRequest), output);
+    }
+}
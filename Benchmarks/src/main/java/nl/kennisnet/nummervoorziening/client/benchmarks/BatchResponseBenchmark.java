@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.ketenid.eck.schemas.v1_0.ListedEntityFailure;
+import nl.ketenid.eck.schemas.v1_0.ListedEntitySuccess;
+import nl.ketenid.eck.schemas.v1_0.RetrieveBatchResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a retrieveBatch response into an {@link EckIDServiceBatch}. One in every hundred entries
+ * has failed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchResponseBenchmark {
+
+    private static final int FAILURE_INTERVAL = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int batchSize;
+
+    private RetrieveBatchResponse response;
+
+    @Setup
+    public void setUp() {
+        response = new RetrieveBatchResponse();
+        for (int i = 0; i < batchSize; i++) {
+            if (i % FAILURE_INTERVAL == 0) {
+                ListedEntityFailure failure = new ListedEntityFailure();
+                failure.setIndex(i);
+                failure.setErrorMessage("Invalid HPgn");
+                response.getFailed().add(failure);
+            } else {
+                ListedEntitySuccess success = new ListedEntitySuccess();
+                success.setIndex(i);
+                success.setValue(Fixtures.eckId(i));
+                response.getSuccess().add(success);
+            }
+        }
+    }
+
+    @Benchmark
+    public EckIDServiceBatch fromResponse() {
+        return EckIDServiceBatch.fromResponse(response);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which adds the allocation rate (gc.alloc.rate) and the bytes allocated
+ * per operation (gc.alloc.rate.norm) to the throughput of every benchmark. The results are also written to
+ * benchmark-results.json, to compare them with the results of a previous release. The scrypt benchmark is limited to
+ * the engines that are available on this platform.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args optionally a regular expression selecting the benchmarks to run, for example "Scrypt".
+     * @throws RunnerException if the benchmarks could not be run.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*")
+            .param("engine", ScryptBenchmark.availableEngines())
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result("benchmark-results.json")
+            .build();
+        new Runner(options).run();
+    }
+}
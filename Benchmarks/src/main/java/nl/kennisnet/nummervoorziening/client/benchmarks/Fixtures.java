@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+/**
+ * Deterministic values of the same shape as the ones exchanged with the Nummervoorziening service.
+ */
+final class Fixtures {
+
+    private static final String STAMPSEUDONYM_PREFIX = "https://ketenid.nl/sp/";
+
+    private static final String ECKID_PREFIX = "https://ketenid.nl/201703/";
+
+    /**
+     * This class should not be instantiated.
+     */
+    private Fixtures() { }
+
+    /**
+     * Gets a 64 character hexadecimal value, shaped like a hashed PGN.
+     */
+    static String hpgn(int index) {
+        return String.format("%064x", 0x9e3779b97f4a7c15L * (index + 1));
+    }
+
+    static String stampseudonym(int index) {
+        return STAMPSEUDONYM_PREFIX + hpgn(index) + hpgn(index + 1);
+    }
+
+    static String eckId(int index) {
+        return ECKID_PREFIX + hpgn(index) + hpgn(index + 1);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngine;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngines;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the first level hash of a PGN with every scrypt engine. With N = 131072 a hash takes one to two seconds, so
+ * the iterations are longer than usual and report only a few operations each.
+ *
+ * The {@link BenchmarkRunner} only runs the engines that are available on this platform; the native engine, for
+ * example, needs the native library of lambdaworks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ScryptBenchmark {
+
+    private static final String SALT = "YmVuY2htYXJrIHNhbHQ=";
+
+    private static final String PGN = "063138219";
+
+    @Param({"lambdaworks-native", "lambdaworks-java", "pooled-java", "vector-java", "bouncycastle"})
+    public String engine;
+
+    private ScryptUtil scryptUtil;
+
+    /**
+     * Gets the names of the engines that work on this platform. The vector engine is checked in the forked JVM, which
+     * is started with the vector module, so it is kept when this JVM runs without that module.
+     *
+     * @return the engine names.
+     */
+    public static String[] availableEngines() {
+        boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        List<String> names = new ArrayList<>();
+        for (ScryptEngine candidate : ScryptEngines.getCandidates()) {
+            if (ScryptEngines.isCorrect(candidate) || (!vectorModule && "vector-java".equals(candidate.getName()))) {
+                names.add(candidate.getName());
+            }
+            candidate.releaseMemory();
+        }
+        return names.toArray(new String[0]);
+    }
+
+    @Setup
+    public void setUp() {
+        scryptUtil = new ScryptUtil(SALT, null, ScryptEngines.byName(engine));
+    }
+
+    @Benchmark
+    public String generateHexHash() {
+        return scryptUtil.generateHexHash(PGN);
+    }
+}
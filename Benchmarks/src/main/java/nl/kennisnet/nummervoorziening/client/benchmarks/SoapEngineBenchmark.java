@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubServer;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures single operations sent with the JAX-WS proxies and with the streaming SOAP engine, against the stub on
+ * localhost. The stub handles the requests in the same process, so the difference between the engines is the client
+ * overhead per call; the allocation per operation reported by the GC profiler includes the allocation of the stub.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoapEngineBenchmark {
+
+    @Param({Configuration.SOAP_ENGINE_JAXWS, Configuration.SOAP_ENGINE_STREAMING})
+    public String soapEngine;
+
+    private EckIDStubServer stubServer;
+
+    private EckIDServiceUtil eckIDServiceUtil;
+
+    private final String stampseudonym = Fixtures.stampseudonym(0);
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        stubServer = new EckIDStubServer();
+        String endpointAddress = stubServer.getEndpointAddress();
+        eckIDServiceUtil = new EckIDServiceUtil(new Configuration() {
+            @Override
+            public String getEndpointAddress() {
+                return endpointAddress;
+            }
+
+            @Override
+            public String getClientInstanceOin() {
+                return "00000001234567890000";
+            }
+
+            @Override
+            public String getCertificateKeyStorePath() {
+                return null;
+            }
+
+            @Override
+            public String getCertificateKeyStorePassword() {
+                return null;
+            }
+
+            @Override
+            public String getCertificatePassword() {
+                return null;
+            }
+
+            @Override
+            public String getFirstLevelSalt() {
+                return "c3R1YiB0ZXN0IHNhbHQ=";
+            }
+
+            @Override
+            public String getFirstLevelScryptEngine() {
+                return "pooled-java";
+            }
+
+            @Override
+            public String getSoapEngine() {
+                return soapEngine;
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        stubServer.close();
+    }
+
+    @Benchmark
+    public String ping() {
+        return eckIDServiceUtil.getApplicationVersion();
+    }
+
+    @Benchmark
+    public String generateEckID() {
+        return eckIDServiceUtil.generateEckID(stampseudonym, EckIDStubService.DEFAULT_CHAIN_ID,
+            EckIDStubService.DEFAULT_SECTOR_ID);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.benchmarks;
+
+import com.sun.xml.ws.api.SOAPVersion;
+import com.sun.xml.ws.api.message.Header;
+import com.sun.xml.ws.api.message.Message;
+import com.sun.xml.ws.api.message.Messages;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.soap.MessageFactory;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+import jakarta.xml.ws.handler.MessageContext;
+import jakarta.xml.ws.handler.soap.SOAPMessageContext;
+import nl.kennisnet.nummervoorziening.client.eckid.AuthorizedSoapHeaderOinInterceptor;
+import nl.kennisnet.nummervoorziening.client.eckid.OinFromHeader;
+import nl.ketenid.eck.schemas.v1_0.HPgn;
+import nl.ketenid.eck.schemas.v1_0.ListedHpgn;
+import nl.ketenid.eck.schemas.v1_0.ObjectFactory;
+import nl.ketenid.eck.schemas.v1_0.SubmitStampseudonymBatchRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding the WS-Addressing From header to an outgoing message with the given number of hashed PGNs, and
+ * writing the message as the transport does.
+ *
+ * The handleMessage benchmark uses the deprecated handler, which works on the SAAJ tree of the message, so it includes
+ * building that tree; the createMessage benchmark measures building the tree alone, as a baseline. The outboundHeader
+ * benchmark adds the prepared header of {@link OinFromHeader} to a streaming message, as the ports of EckIDServiceUtil
+ * do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoapHeaderBenchmark {
+
+    private static final String OIN = "00000001234567890000";
+
+    @Param({"0", "1000"})
+    public int batchSize;
+
+    @SuppressWarnings("deprecation")
+    private final AuthorizedSoapHeaderOinInterceptor interceptor = new AuthorizedSoapHeaderOinInterceptor(OIN);
+
+    private final Header fromHeader = OinFromHeader.forOin(OIN);
+
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+
+    private final ObjectFactory objectFactory = new ObjectFactory();
+
+    private MessageFactory messageFactory;
+
+    private JAXBContext jaxbContext;
+
+    private Marshaller marshaller;
+
+    private SubmitStampseudonymBatchRequest request;
+
+    @Setup
+    public void setUp() throws SOAPException, JAXBException {
+        messageFactory = MessageFactory.newInstance();
+        jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
+        marshaller = jaxbContext.createMarshaller();
+
+        request = new SubmitStampseudonymBatchRequest();
+        for (int i = 0; i < batchSize; i++) {
+            HPgn hpgn = new HPgn();
+            hpgn.setValue(Fixtures.hpgn(i));
+            ListedHpgn listedHpgn = new ListedHpgn();
+            listedHpgn.setIndex(i);
+            listedHpgn.setHPgn(hpgn);
+            request.getHpgnList().add(listedHpgn);
+        }
+    }
+
+    @Benchmark
+    public SOAPMessage createMessage() throws SOAPException, JAXBException {
+        SOAPMessage message = messageFactory.createMessage();
+        marshaller.marshal(objectFactory.createSubmitStampseudonymBatchRequest(request), message.getSOAPBody());
+        return message;
+    }
+
+    @Benchmark
+    public SOAPMessage handleMessage() throws SOAPException, JAXBException, IOException {
+        SOAPMessage message = createMessage();
+        interceptor.handleMessage(new OutboundMessageContext(message));
+        message.writeTo(OutputStream.nullOutputStream());
+        return message;
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public Message outboundHeader() throws XMLStreamException {
+        Message message = Messages.create(jaxbContext, objectFactory.createSubmitStampseudonymBatchRequest(request),
+            SOAPVersion.SOAP_11);
+        message.getHeaders().add(fromHeader);
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(OutputStream.nullOutputStream(), "UTF-8");
+        message.writeTo(writer);
+        writer.close();
+        return message;
+    }
+
+    /**
+     * The context of an outgoing message, as passed to handlers.
+     */
+    private static final class OutboundMessageContext extends HashMap<String, Object> implements SOAPMessageContext {
+
+        private SOAPMessage message;
+
+        OutboundMessageContext(SOAPMessage message) {
+            this.message = message;
+            put(MESSAGE_OUTBOUND_PROPERTY, Boolean.TRUE);
+        }
+
+        @Override
+        public SOAPMessage getMessage() {
+            return message;
+        }
+
+        @Override
+        public void setMessage(SOAPMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public Object[] getHeaders(QName header, JAXBContext context, boolean allRoles) {
+            return new Object[0];
+        }
+
+        @Override
+        public Set<String> getRoles() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void setScope(String name, MessageContext.Scope scope) { }
+
+        @Override
+        public MessageContext.Scope getScope(String name) {
+            return MessageContext.Scope.HANDLER;
+        }
+    }
+}
@@ -15,17 +15,32 @@
  */
 package nl.kennisnet.nummervoorziening.client.consoleapplication;
 
+import nl.kennisnet.nummervoorziening.client.eckid.BatchJournal;
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.BulkProcessor;
 import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
 import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
 import nl.ketenid.eck.schemas.v1_0.Chain;
 import nl.ketenid.eck.schemas.v1_0.Sector;
 
 import jakarta.xml.ws.soap.SOAPFaultException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class. Contains program entry point.
@@ -34,12 +49,10 @@ public class Program {
 
     private static final String WEB_SERVICE_APPLICATION_VERSION = "2.0";
 
-    private static final int BATCH_RETRIEVE_ATTEMPTS_COUNT = 10;
-
-    private static final long RETRIEVE_ECK_ID_BATCH_TIMEOUT = 25_000;
-
     private static EckIDServiceUtil eckIDServiceUtil;
 
+    private static BatchTracker batchTracker;
+
     /**
      * This class should not be instantiated.
      */
@@ -47,13 +60,25 @@ public class Program {
 
     /**
      * The main entry point for the program. This function demonstrates how to work with Web Services via the
-     * EckID module.
+     * EckID module. With the arguments {@code --bulk <input> <output> [<chain id> <sector id>]} it processes a file
+     * of PGNs instead, see {@link BulkProcessor}; "-" reads the PGNs from stdin or writes the results to stdout.
      *
-     * @param args Command line arguments to the program. Not Used.
+     * @param args Command line arguments to the program: none, or the bulk mode arguments.
      */
     public static void main(String[] args) throws GeneralSecurityException, InterruptedException, IOException {
+        if (args.length > 0 && "--bulk".equals(args[0])) {
+            if (args.length != 3 && args.length != 5) {
+                System.err.println("Usage: --bulk <input file or -> <output file or -> [<chain id> <sector id>]");
+                System.exit(1);
+            }
+            boolean withEckIds = args.length == 5;
+            executeBulkOperation(args[1], args[2], withEckIds ? args[3] : null, withEckIds ? args[4] : null);
+            return;
+        }
+
         System.out.println("Current server information:");
         eckIDServiceUtil = EckIDServiceUtil.EckIDServiceUtilFromConfigFile();
+        batchTracker = new BatchTracker(eckIDServiceUtil);
 
         // Check if the Service is available
         if (!eckIDServiceUtil.isNummervoorzieningServiceAvailable()) {
@@ -68,6 +93,7 @@ public class Program {
             }
             System.out.println("System time:\t\t\t" + eckIDServiceUtil.getSystemTime());
             System.out.println("Available:\t\t\t" + eckIDServiceUtil.isNummervoorzieningServiceAvailable());
+            System.out.println("Scrypt engine:\t\t\t" + eckIDServiceUtil.getScryptUtil().getEngine().getName());
 
             // List number of active chains and sectors
             List<Chain> activeChains = eckIDServiceUtil.getChains();
@@ -112,6 +138,48 @@ public class Program {
             System.out.println("\nSubmitting EckID batch (with the same input):");
             executeEckIdBatchOperation(chainGuid, sectorGuid, listedStampseudonymMap);
         }
+        batchTracker.close();
+    }
+
+    /**
+     * Generates the stampseudonyms, and the EckIDs if a chain and sector are given, of all PGNs in the input file.
+     * Progress is reported on stderr, so the results can be written to stdout. When writing to a file, the run is
+     * journaled next to it, and the same command resumes an interrupted run; the journal is removed once the run
+     * is complete.
+     *
+     * @param inputFile  The file with a PGN on every line, or "-" for stdin.
+     * @param outputFile The file for the results, or "-" for stdout.
+     * @param chainGuid  A valid Chain Guid, or null.
+     * @param sectorGuid A valid Sector Guid, or null.
+     */
+    private static void executeBulkOperation(String inputFile, String outputFile, String chainGuid, String sectorGuid)
+        throws GeneralSecurityException, InterruptedException, IOException {
+
+        eckIDServiceUtil = EckIDServiceUtil.EckIDServiceUtilFromConfigFile();
+        long start = System.nanoTime();
+        Path journalFile = "-".equals(outputFile) ? null : Paths.get(outputFile + ".journal");
+        if (journalFile != null && Files.exists(journalFile)) {
+            System.err.println("Resuming from journal:\t\t" + journalFile);
+        }
+        try (BatchJournal journal = journalFile == null ? null : new BatchJournal(journalFile);
+             BatchTracker tracker = new BatchTracker(eckIDServiceUtil);
+             BufferedReader input = "-".equals(inputFile)
+                 ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                 : Files.newBufferedReader(Paths.get(inputFile), StandardCharsets.UTF_8);
+             Writer output = "-".equals(outputFile)
+                 ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                 : Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8)) {
+
+            BulkProcessor bulkProcessor = new BulkProcessor(eckIDServiceUtil, tracker);
+            bulkProcessor.setJournal(journal);
+            BulkProcessor.Summary summary = bulkProcessor.process(input, output, chainGuid, sectorGuid);
+            System.err.println("Processed lines:\t\t" + summary.getLines());
+            System.err.println("Failed lines:\t\t\t" + summary.getFailedLines());
+            System.err.println("Elapsed seconds:\t\t" + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+        if (journalFile != null) {
+            Files.delete(journalFile);
+        }
     }
 
     /**
@@ -121,8 +189,8 @@ public class Program {
     private static String executeCreateStampseudonymTest(String pgn) {
         System.out.println("Pgn:\t\t\t\t" + pgn);
 
-        // Generate scrypt hash of the given PGN
-        String hpgn = eckIDServiceUtil.getScryptUtil().generateHexHash(pgn);
+        // Generate scrypt hash of the given PGN, as fast as possible for this single PGN
+        String hpgn = eckIDServiceUtil.getScryptUtil().generateHexHash(pgn, ScryptUtil.Mode.LOW_LATENCY);
         System.out.println("HPgn:\t\t\t\t" + hpgn);
 
         // Retrieve Stampseudonym from Nummervoorziening service
@@ -171,7 +239,7 @@ public class Program {
         System.out.println("Batch identifier:\t\t" + batchIdentifier);
         System.out.println("Waiting for processing...");
 
-        EckIDServiceBatch eckIDServiceBatch = waitForProcessing(batchIdentifier);
+        EckIDServiceBatch eckIDServiceBatch = waitForProcessing(batchIdentifier, listedStampseudonymMap.size());
 
         if (null != eckIDServiceBatch) {
             System.out.println("Generated EckIDs:\t\t" + eckIDServiceBatch.getSuccess());
@@ -207,7 +275,7 @@ public class Program {
         System.out.println("Batch identifier:\t\t" + batchIdentifier);
         System.out.println("Waiting for processing...");
 
-        EckIDServiceBatch eckIDServiceBatch = waitForProcessing(batchIdentifier);
+        EckIDServiceBatch eckIDServiceBatch = waitForProcessing(batchIdentifier, listedHpgnMap.size());
 
         if (null != eckIDServiceBatch) {
             System.out.println("Generated Stampseudonyms:\t" + eckIDServiceBatch.getSuccess());
@@ -217,30 +285,28 @@ public class Program {
         }
     }
 
-    private static EckIDServiceBatch waitForProcessing(String batchIdentifier) throws InterruptedException {
-        EckIDServiceBatch eckIDServiceBatch = null;
-        for (int i = 0; i < BATCH_RETRIEVE_ATTEMPTS_COUNT; i++) {
-            Thread.sleep(RETRIEVE_ECK_ID_BATCH_TIMEOUT);
-            try {
-                eckIDServiceBatch = eckIDServiceUtil.retrieveEckIDBatch(batchIdentifier);
-                break;
-            } catch (SOAPFaultException e) {
-                System.out.println("Exception thrown by service while trying to retrieve batch: " +
-                    e.getFault().getFaultActor());
-
-                switch (e.getFault().getFaultActor()) {
-                    case "NotFinishedException":
-                        System.out.println("Batch processing not finished yet...");
-                        break;
-                    case "TemporaryBlockedException":
-                    case "ContentAlreadyRetrievedException":
-                    case "ContentRemovedException":
-                    default:
-                        System.out.println("No additional information available");
-                }
+    /**
+     * Waits until the batch is processed; the BatchTracker retrieves it again while it is not finished.
+     *
+     * @param batchIdentifier The identifier of the submitted batch.
+     * @param size            The number of entries of the batch.
+     * @return the retrieved batch, or null if it could not be retrieved.
+     */
+    private static EckIDServiceBatch waitForProcessing(String batchIdentifier, int size) throws InterruptedException {
+        try {
+            return batchTracker.track(batchIdentifier, size).get();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof SOAPFaultException)) {
+                System.out.println("Exception thrown while trying to retrieve batch: " + e.getCause());
+                return null;
             }
+            // NotFinishedException and TemporaryBlockedException are retried by the BatchTracker, other faults like
+            // ContentAlreadyRetrievedException and ContentRemovedException end the waiting
+            System.out.println("Exception thrown by service while trying to retrieve batch: " +
+                ((SOAPFaultException) e.getCause()).getFault().getFaultActor());
+            System.out.println("No additional information available");
+            return null;
         }
-        return eckIDServiceBatch;
     }
 
 }
@@ -23,13 +23,36 @@ import jakarta.xml.ws.handler.soap.SOAPMessageContext;
 import java.util.Collections;
 import java.util.Set;
 
+/**
+ * Handler which adds the From header with the Instance OIN to outbound messages.
+ *
+ * @deprecated a SOAPHandler makes the JAX-WS runtime turn every message into a SAAJ tree; set
+ * {@link OinFromHeader#forOin(String)} as outbound header of the port instead, as {@link EckIDServiceUtil} does.
+ */
+@Deprecated
 public class AuthorizedSoapHeaderOinInterceptor implements SOAPHandler<SOAPMessageContext> {
 
     // The Namespace of the WS-Addressing version
     private static final String ADDRESSING_NS = "http://www.w3.org/2005/08/addressing";
 
-    // The suffix used in the Address elements as defined by Edukoppeling
-    private static final String ANONYMOUS_OIN = ADDRESSING_NS + "/anonymous?oin=";
+    /** The address of the From header, or null to use the Instance OIN of the config.properties file. */
+    private final String fromAddress;
+
+    /**
+     * Creates a handler which adds the From header with the Instance OIN of the config.properties file.
+     */
+    public AuthorizedSoapHeaderOinInterceptor() {
+        this(null);
+    }
+
+    /**
+     * Creates a handler which adds the From header with the given Instance OIN.
+     *
+     * @param oin the Instance OIN, or null to use the Instance OIN of the config.properties file.
+     */
+    public AuthorizedSoapHeaderOinInterceptor(String oin) {
+        this.fromAddress = oin != null ? OinFromHeader.getAddress(oin) : null;
+    }
 
     @Override
     public boolean handleMessage(SOAPMessageContext context) {
@@ -45,7 +68,8 @@ public class AuthorizedSoapHeaderOinInterceptor implements SOAPHandler<SOAPMessa
                 SOAPHeaderElement soapHeaderElement = soapHeader.addHeaderElement(new QName(ADDRESSING_NS, "From"));
                 SOAPElement addressElement = soapHeaderElement.addChildElement(new QName(ADDRESSING_NS, "Address"));
 
-                String fromValue = ANONYMOUS_OIN + EckIDServiceUtil.getInstanceOin();
+                String fromValue = fromAddress != null ? fromAddress
+                    : OinFromHeader.getAddress(EckIDServiceUtil.getInstanceOin());
                 addressElement.addTextNode(fromValue);
             } catch(SOAPException e) {
                 System.err.println(e.getMessage());
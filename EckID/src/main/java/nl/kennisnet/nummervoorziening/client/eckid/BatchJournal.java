@@ -0,0 +1,414 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of a long running bulk operation, from which a restarted run resumes: the hashes of a chunk are
+ * not calculated again, a submitted batch is retrieved instead of submitted again, and a retrieved batch is not
+ * retrieved again (which the service refuses with a ContentAlreadyRetrievedException).
+ *
+ * The journal of a chunk is only used for the same input: the digest of the input of every chunk is recorded, and a
+ * restarted run with other input in a chunk is refused.
+ *
+ * Every record is a line with a checksum. A line that was written partly when the JVM died, and everything after it,
+ * is discarded on opening. Records of submitted and retrieved batches are forced to disk right away, as they are
+ * expensive to redo; hashes are forced at most once per sync interval. Only the position of every record is kept in
+ * memory, the records themselves are read from the file when they are needed.
+ */
+public class BatchJournal implements Closeable {
+
+    /** The default maximum time in milliseconds that recorded hashes may wait before they are forced to disk. */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1_000;
+
+    /**
+     * The batch operation a record is about.
+     */
+    public enum Stage {
+        /** The stampseudonyms of hashed PGNs. */
+        STAMPSEUDONYM,
+        /** The EckIDs of stampseudonyms. */
+        ECKID
+    }
+
+    private static final String RUN = "RUN";
+
+    private static final String CHUNK = "CHUNK";
+
+    private static final String HASHES = "HASHES";
+
+    private static final String SUBMITTED = "SUBMITTED";
+
+    private static final String RETRIEVED = "RETRIEVED";
+
+    private final FileChannel channel;
+
+    private final long syncIntervalMillis;
+
+    /** The position and length of the last record of every type, chunk and stage. */
+    private final Map<String, long[]> records = new HashMap<>();
+
+    private long size;
+
+    private long lastSync = System.currentTimeMillis();
+
+    private boolean unsynced;
+
+    /**
+     * Opens or creates a journal with the default sync interval.
+     *
+     * @param file the journal file.
+     * @throws IOException if the journal can not be opened or read.
+     */
+    public BatchJournal(Path file) throws IOException {
+        this(file, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens or creates a journal.
+     *
+     * @param file               the journal file.
+     * @param syncIntervalMillis the maximum time that recorded hashes may wait before they are forced to disk.
+     * @throws IOException if the journal can not be opened or read.
+     */
+    public BatchJournal(Path file, long syncIntervalMillis) throws IOException {
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.size = load();
+        if (size < channel.size()) {
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * Records the parameters of the run, or checks that they are the same as the ones of the journaled run.
+     *
+     * @param parameters a description of everything that determines the chunks and batches of the run.
+     * @throws IllegalStateException if the journal belongs to a run with other parameters.
+     */
+    public synchronized void startRun(String parameters) {
+        String[] recorded = read(RUN, 0, null);
+        if (recorded == null) {
+            append(true, RUN, "0", "", parameters);
+        } else if (!parameters.equals(recorded[3])) {
+            throw new IllegalStateException("The journal belongs to another run (" + recorded[3]
+                + "), remove it to start a new run.");
+        }
+    }
+
+    /**
+     * Records the digest of the input of a chunk, or checks that it is the same as the one of the journaled chunk. This
+     * should be done before any other record of the chunk is used or recorded.
+     *
+     * @param chunk  the sequence number of the chunk.
+     * @param inputs the inputs of the chunk, in input order.
+     * @throws IllegalStateException if the journal belongs to a run with other input in this chunk.
+     */
+    public synchronized void startChunk(int chunk, String[] inputs) {
+        String digest = digest(inputs);
+        String[] recorded = read(CHUNK, chunk, null);
+        if (recorded == null) {
+            append(false, CHUNK, String.valueOf(chunk), "", digest);
+        } else if (!digest.equals(recorded[3])) {
+            throw new IllegalStateException("The journal belongs to a run with other input in chunk " + chunk
+                + ", remove it to start a new run.");
+        }
+    }
+
+    /**
+     * Gets the recorded hashes of a chunk.
+     *
+     * @param chunk the sequence number of the chunk.
+     * @return the hashes by index within the chunk, an empty string if hashing failed, or null if not recorded.
+     */
+    public synchronized String[] getHashes(int chunk) {
+        String[] record = read(HASHES, chunk, null);
+        if (record == null) {
+            return null;
+        }
+        String[] hashes = new String[record.length - 3];
+        System.arraycopy(record, 3, hashes, 0, hashes.length);
+        return hashes;
+    }
+
+    /**
+     * Records the hashes of a chunk.
+     *
+     * @param chunk  the sequence number of the chunk.
+     * @param hashes the hashes by index within the chunk, null if hashing failed.
+     */
+    public synchronized void recordHashes(int chunk, String[] hashes) {
+        String[] fields = new String[hashes.length + 3];
+        fields[0] = HASHES;
+        fields[1] = String.valueOf(chunk);
+        fields[2] = "";
+        for (int i = 0; i < hashes.length; i++) {
+            fields[i + 3] = hashes[i] == null ? "" : hashes[i];
+        }
+        append(false, fields);
+    }
+
+    /**
+     * Gets the identifier of a submitted batch of a chunk.
+     *
+     * @param chunk the sequence number of the chunk.
+     * @param stage the batch operation.
+     * @return the batch identifier, or null if no batch is recorded.
+     */
+    public synchronized String getBatchIdentifier(int chunk, Stage stage) {
+        String[] record = read(SUBMITTED, chunk, stage);
+        return record == null ? null : record[3];
+    }
+
+    /**
+     * Records the identifier of a submitted batch of a chunk.
+     *
+     * @param chunk           the sequence number of the chunk.
+     * @param stage           the batch operation.
+     * @param batchIdentifier the identifier of the submitted batch.
+     */
+    public synchronized void recordSubmitted(int chunk, Stage stage, String batchIdentifier) {
+        append(true, SUBMITTED, String.valueOf(chunk), stage.name(), batchIdentifier);
+    }
+
+    /**
+     * Gets the retrieved results of a batch of a chunk.
+     *
+     * @param chunk the sequence number of the chunk.
+     * @param stage the batch operation.
+     * @return the retrieved batch, or null if no results are recorded.
+     */
+    public synchronized EckIDServiceBatch getRetrieved(int chunk, Stage stage) {
+        String[] record = read(RETRIEVED, chunk, stage);
+        if (record == null) {
+            return null;
+        }
+        Map<Integer, String> success = new HashMap<>();
+        Map<Integer, String> failed = new HashMap<>();
+        for (int i = 3; i < record.length; i++) {
+            int separator = record[i].indexOf(':');
+            Map<Integer, String> results = record[i].charAt(0) == '+' ? success : failed;
+            results.put(Integer.parseInt(record[i].substring(1, separator)), record[i].substring(separator + 1));
+        }
+        return new EckIDServiceBatch(success, failed);
+    }
+
+    /**
+     * Records the retrieved results of a batch of a chunk.
+     *
+     * @param chunk the sequence number of the chunk.
+     * @param stage the batch operation.
+     * @param batch the retrieved batch.
+     */
+    public synchronized void recordRetrieved(int chunk, Stage stage, EckIDServiceBatch batch) {
+        String[] fields = new String[batch.getSuccessCount() + batch.getFailedCount() + 3];
+        fields[0] = RETRIEVED;
+        fields[1] = String.valueOf(chunk);
+        fields[2] = stage.name();
+        int[] field = {3};
+        batch.forEachSuccess((index, value) -> fields[field[0]++] = "+" + index + ':' + value);
+        batch.forEachFailure((index, errorMessage) -> fields[field[0]++] = "-" + index + ':' + errorMessage);
+        append(true, fields);
+    }
+
+    /**
+     * Forces all records to disk and closes the journal.
+     *
+     * @throws IOException if the journal could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (unsynced) {
+            channel.force(false);
+        }
+        channel.close();
+    }
+
+    /**
+     * Reads all valid records and remembers their positions.
+     *
+     * @return the length of the valid part of the file.
+     */
+    private long load() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 1 << 20));
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = 0;
+        long lineStart = 0;
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String[] fields = parse(line.toString(StandardCharsets.UTF_8));
+                if (fields == null) {
+                    return lineStart;
+                }
+                records.put(key(fields[0], Integer.parseInt(fields[1]), fields[2]),
+                    new long[] {lineStart, position - lineStart});
+                line.reset();
+                lineStart = position;
+            }
+            buffer.clear();
+        }
+        return lineStart;
+    }
+
+    private String[] read(String type, int chunk, Stage stage) {
+        long[] record = records.get(key(type, chunk, stage == null ? "" : stage.name()));
+        if (record == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) record[1]);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, record[0] + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of the journal.");
+                }
+            }
+            String line = new String(buffer.array(), 0, buffer.capacity() - 1, StandardCharsets.UTF_8);
+            return parse(line);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the journal", e);
+        }
+    }
+
+    private void append(boolean force, String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            escape(field, line);
+            line.append('\t');
+        }
+        CRC32 crc = new CRC32();
+        byte[] content = line.toString().getBytes(StandardCharsets.UTF_8);
+        crc.update(content);
+        line.append(Long.toHexString(crc.getValue())).append('\n');
+
+        ByteBuffer buffer = ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8));
+        long position = size;
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            size += buffer.capacity();
+            unsynced = true;
+            long now = System.currentTimeMillis();
+            if (force || now - lastSync >= syncIntervalMillis) {
+                channel.force(false);
+                lastSync = now;
+                unsynced = false;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the journal", e);
+        }
+        records.put(key(fields[0], Integer.parseInt(fields[1]), fields[2]), new long[] {position, buffer.capacity()});
+    }
+
+    /**
+     * Splits a line into its unescaped fields.
+     *
+     * @return the fields, or null if the checksum does not match.
+     */
+    private static String[] parse(String line) {
+        int checksumStart = line.lastIndexOf('\t') + 1;
+        if (checksumStart == 0) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(line.substring(0, checksumStart).getBytes(StandardCharsets.UTF_8));
+        if (!Long.toHexString(crc.getValue()).equals(line.substring(checksumStart))) {
+            return null;
+        }
+        String[] fields = line.substring(0, checksumStart - 1).split("\t", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = unescape(fields[i]);
+        }
+        return fields.length >= 3 ? fields : null;
+    }
+
+    /**
+     * Calculates the SHA-256 digest of the inputs of a chunk.
+     *
+     * @return the digest in hex format.
+     */
+    private static String digest(String[] inputs) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (String input : inputs) {
+            messageDigest.update(input.getBytes(StandardCharsets.UTF_8));
+            messageDigest.update((byte) '\n');
+        }
+        return HexFormat.of().formatHex(messageDigest.digest());
+    }
+
+    private static String key(String type, int chunk, String stage) {
+        return type + '/' + chunk + '/' + stage;
+    }
+
+    private static void escape(String field, StringBuilder line) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\') {
+                line.append("\\\\");
+            } else if (c == '\t') {
+                line.append("\\t");
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder value = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                value.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+}
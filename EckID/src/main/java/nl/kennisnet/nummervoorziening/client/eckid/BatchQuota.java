@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Keeps track of the batches submitted today, as the service limits the number of batch submissions per day. The
+ * days are those of the service, in Dutch time. When the service reports that the limit is reached, no submissions
+ * remain until the next day, also if the limit is not configured or other clients used part of it.
+ */
+public class BatchQuota {
+
+    /** The fault actor of the fault the service returns when the daily limit is reached. */
+    public static final String LIMIT_EXCEEDED_FAULT = "LimitDailyBatchSubmissionsExceededException";
+
+    /** The time zone in which the days of the service start. */
+    public static final ZoneId SERVICE_ZONE = ZoneId.of("Europe/Amsterdam");
+
+    private final int dailyLimit;
+
+    private final Clock clock;
+
+    private LocalDate day;
+
+    private int used;
+
+    private boolean exhausted;
+
+    /**
+     * Creates a quota for the days of the service.
+     *
+     * @param dailyLimit the number of batches that can be submitted per day, or 0 if it is not known.
+     */
+    public BatchQuota(int dailyLimit) {
+        this(dailyLimit, Clock.system(SERVICE_ZONE));
+    }
+
+    /**
+     * Creates a quota.
+     *
+     * @param dailyLimit the number of batches that can be submitted per day, or 0 if it is not known.
+     * @param clock      the clock that determines the current day, in the time zone of the service.
+     */
+    public BatchQuota(int dailyLimit, Clock clock) {
+        if (dailyLimit < 0) {
+            throw new IllegalArgumentException("The daily limit should not be negative.");
+        }
+        this.dailyLimit = dailyLimit;
+        this.clock = clock;
+        this.day = LocalDate.now(clock);
+    }
+
+    /**
+     * Records a submitted batch.
+     */
+    public synchronized void recordSubmission() {
+        rollOver();
+        used++;
+    }
+
+    /**
+     * Records that the service refused a batch because the daily limit is reached.
+     */
+    public synchronized void recordLimitExceeded() {
+        rollOver();
+        exhausted = true;
+    }
+
+    /**
+     * Gets the number of batches submitted today.
+     *
+     * @return the number of used submissions.
+     */
+    public synchronized int getUsed() {
+        rollOver();
+        return used;
+    }
+
+    /**
+     * Gets the number of batches that can still be submitted today.
+     *
+     * @return the number of remaining submissions, {@link Integer#MAX_VALUE} if the limit is not known and not
+     *         reached yet.
+     */
+    public synchronized int getRemaining() {
+        rollOver();
+        if (exhausted) {
+            return 0;
+        }
+        return dailyLimit == 0 ? Integer.MAX_VALUE : Math.max(0, dailyLimit - used);
+    }
+
+    /**
+     * Gets the moment the next day starts, and submissions are available again.
+     *
+     * @return the start of the next day of the service.
+     */
+    public Instant getNextWindow() {
+        return LocalDate.now(clock).plusDays(1).atStartOfDay(clock.getZone()).toInstant();
+    }
+
+    /**
+     * Checks whether an error is the fault of the service that the daily limit is reached.
+     *
+     * @param error the error, possibly wrapped by a CompletableFuture.
+     * @return true if the limit is reached.
+     */
+    public static boolean isLimitExceeded(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof SOAPFaultException
+            && LIMIT_EXCEEDED_FAULT.equals(((SOAPFaultException) error).getFault().getFaultActor());
+    }
+
+    private void rollOver() {
+        LocalDate today = LocalDate.now(clock);
+        if (!today.equals(day)) {
+            day = today;
+            used = 0;
+            exhausted = false;
+        }
+    }
+}
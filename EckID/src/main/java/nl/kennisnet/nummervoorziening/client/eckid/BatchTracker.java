@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for any number of submitted batches with a single scheduler thread. Each batch is retrieved at the moment it
+ * is expected to be finished, based on its size and the processing times observed so far. While the service answers
+ * with a NotFinishedException or TemporaryBlockedException, the batch is retrieved again with a growing interval.
+ * Every interval is varied randomly, so batches submitted together are not retrieved at the same moment.
+ *
+ * The retrievals themselves are executed with {@link EckIDServiceUtil#retrieveEckIDBatchAsync(String)}.
+ */
+public class BatchTracker implements Closeable {
+
+    /** The default shortest time between submitting or retrieving a batch and retrieving it (again). */
+    public static final long DEFAULT_MIN_POLL_INTERVAL_MILLIS = 1_000;
+
+    /** The default longest time between two attempts to retrieve a batch. */
+    public static final long DEFAULT_MAX_POLL_INTERVAL_MILLIS = 60_000;
+
+    /** The default time after which a batch that is still not finished is given up. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /** Processing time per entry assumed until the first batch has been observed. */
+    private static final double INITIAL_MILLIS_PER_ENTRY = 10;
+
+    /** Weight of the last observed batch in the estimated processing time per entry. */
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    /** The estimate shrinks by this factor when a batch was already finished at the first attempt. */
+    private static final double SHRINK_FACTOR = 0.9;
+
+    private static final double BACKOFF_FACTOR = 1.5;
+
+    private static final double JITTER = 0.2;
+
+    private static final String NOT_FINISHED_FAULT = "NotFinishedException";
+
+    private static final String TEMPORARY_BLOCKED_FAULT = "TemporaryBlockedException";
+
+    private final EckIDServiceUtil eckIDServiceUtil;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<TrackedBatch> trackedBatches = ConcurrentHashMap.newKeySet();
+
+    private final long minPollIntervalMillis;
+
+    private final long maxPollIntervalMillis;
+
+    private final long timeoutMillis;
+
+    private double millisPerEntry = INITIAL_MILLIS_PER_ENTRY;
+
+    /**
+     * Creates a tracker with the default poll intervals and timeout.
+     *
+     * @param eckIDServiceUtil the client to retrieve the batches with.
+     */
+    public BatchTracker(EckIDServiceUtil eckIDServiceUtil) {
+        this(eckIDServiceUtil, DEFAULT_MIN_POLL_INTERVAL_MILLIS, DEFAULT_MAX_POLL_INTERVAL_MILLIS,
+            DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a tracker.
+     *
+     * @param eckIDServiceUtil      the client to retrieve the batches with.
+     * @param minPollIntervalMillis the shortest time between submitting or retrieving a batch and retrieving it.
+     * @param maxPollIntervalMillis the longest time between two attempts to retrieve a batch.
+     * @param timeoutMillis         the time after which a batch that is still not finished is given up.
+     */
+    public BatchTracker(EckIDServiceUtil eckIDServiceUtil, long minPollIntervalMillis, long maxPollIntervalMillis,
+                        long timeoutMillis) {
+        if (minPollIntervalMillis < 1 || maxPollIntervalMillis < minPollIntervalMillis) {
+            throw new IllegalArgumentException("The poll intervals should be at least 1 ms, and the maximum should "
+                + "not be less than the minimum.");
+        }
+        this.eckIDServiceUtil = eckIDServiceUtil;
+        this.minPollIntervalMillis = minPollIntervalMillis;
+        this.maxPollIntervalMillis = maxPollIntervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eckid-batch-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts waiting for a submitted batch.
+     *
+     * @param batchIdentifier the identifier of the submitted batch.
+     * @param size            the number of entries of the batch.
+     * @return future that completes with the batch, or exceptionally with the SOAPFaultException of the service, or
+     * with a TimeoutException if the batch is not finished in time.
+     */
+    public CompletableFuture<EckIDServiceBatch> track(String batchIdentifier, int size) {
+        TrackedBatch batch = new TrackedBatch(batchIdentifier, size, expectedProcessingMillis(size));
+        trackedBatches.add(batch);
+        batch.future.whenComplete((result, error) -> trackedBatches.remove(batch));
+        schedule(batch, batch.expectedMillis);
+        return batch.future;
+    }
+
+    /**
+     * Gets the number of batches that are not finished yet.
+     *
+     * @return the number of tracked batches.
+     */
+    public int getTrackedBatches() {
+        return trackedBatches.size();
+    }
+
+    /**
+     * Stops the scheduler. Batches that are still tracked complete exceptionally.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (TrackedBatch batch : trackedBatches) {
+            batch.future.completeExceptionally(new IllegalStateException("The batch tracker is closed"));
+        }
+    }
+
+    private void schedule(TrackedBatch batch, long delayMillis) {
+        double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        try {
+            scheduler.schedule(() -> retrieve(batch), Math.round(delayMillis * jitter), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            batch.future.completeExceptionally(new IllegalStateException("The batch tracker is closed", e));
+        }
+    }
+
+    private void retrieve(TrackedBatch batch) {
+        batch.attempts++;
+        CompletableFuture<EckIDServiceBatch> retrieval;
+        try {
+            retrieval = eckIDServiceUtil.retrieveEckIDBatchAsync(batch.batchIdentifier);
+        } catch (RuntimeException e) {
+            // For example a RejectedExecutionException of a closed client; the scheduler would swallow it
+            batch.future.completeExceptionally(e);
+            return;
+        }
+        retrieval.whenComplete((result, error) -> {
+            if (error == null) {
+                observe(batch);
+                batch.future.complete(result);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+            if (!isRetryable(cause)) {
+                batch.future.completeExceptionally(cause);
+            } else if (batch.elapsedMillis() >= timeoutMillis) {
+                TimeoutException timeout = new TimeoutException("Batch " + batch.batchIdentifier
+                    + " is not finished within " + timeoutMillis + " ms");
+                timeout.initCause(cause);
+                batch.future.completeExceptionally(timeout);
+            } else {
+                // The batch was expected to be finished, so it will probably be finished soon
+                batch.intervalMillis = batch.attempts == 1 ? Math.max(minPollIntervalMillis, batch.expectedMillis / 4)
+                    : Math.min(maxPollIntervalMillis, Math.round(batch.intervalMillis * BACKOFF_FACTOR));
+                schedule(batch, batch.intervalMillis);
+            }
+        });
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        if (!(error instanceof SOAPFaultException)) {
+            return false;
+        }
+        String faultActor = ((SOAPFaultException) error).getFault().getFaultActor();
+        return NOT_FINISHED_FAULT.equals(faultActor) || TEMPORARY_BLOCKED_FAULT.equals(faultActor);
+    }
+
+    private synchronized long expectedProcessingMillis(int size) {
+        return Math.max(minPollIntervalMillis, Math.min(maxPollIntervalMillis, Math.round(millisPerEntry * size)));
+    }
+
+    /**
+     * Updates the estimated processing time per entry with a finished batch.
+     */
+    private synchronized void observe(TrackedBatch batch) {
+        if (batch.attempts == 1) {
+            // Only known to be finished within the expected time; take a bit less next time, unless the minimum
+            // interval was what made the batch wait
+            if (batch.expectedMillis > minPollIntervalMillis) {
+                millisPerEntry *= SHRINK_FACTOR;
+            }
+        } else if (batch.size > 0) {
+            millisPerEntry += SMOOTHING_FACTOR * ((double) batch.elapsedMillis() / batch.size - millisPerEntry);
+        }
+    }
+
+    /**
+     * A batch that is waited for.
+     */
+    private static final class TrackedBatch {
+
+        private final CompletableFuture<EckIDServiceBatch> future = new CompletableFuture<>();
+
+        private final String batchIdentifier;
+
+        private final int size;
+
+        private final long expectedMillis;
+
+        private final long trackedAt = System.nanoTime();
+
+        /** Only changed by the retrieval of this batch, of which there is one at a time. */
+        private int attempts;
+
+        private long intervalMillis;
+
+        private TrackedBatch(String batchIdentifier, int size, long expectedMillis) {
+            this.batchIdentifier = batchIdentifier;
+            this.size = size;
+            this.expectedMillis = expectedMillis;
+        }
+
+        private long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - trackedAt);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Generates the stampseudonyms, and optionally the EckIDs, of a file of PGNs of any size as a pipeline: while a chunk
+ * of PGNs is hashed, earlier chunks are submitted as batches and retrieved. At most a fixed number of chunks is read
+ * and not written yet, so the memory use does not depend on the size of the input.
+ *
+ * The input has a PGN in the first column of every line; columns are separated by a comma or semicolon. A first line
+ * with the column name "pgn" is skipped. The output has a header line and a line per input line, in input order:
+ * the index of the input line (counted from 0, without the header), the stampseudonym, the EckID if a chain and sector
+ * are given, and the error message if the line failed. PGNs are not written to the output.
+ */
+public class BulkProcessor {
+
+    /** The default number of lines per chunk, which is submitted as a single batch. */
+    public static final int DEFAULT_CHUNK_SIZE = ChunkedBatchSubmitter.DEFAULT_CHUNK_SIZE;
+
+    /** The default number of chunks that are read and not written yet. */
+    public static final int DEFAULT_MAX_PENDING_CHUNKS = 4;
+
+    /** The number of PGNs of a chunk that are hashed by a single task. */
+    private static final int HASH_SLICE_SIZE = 64;
+
+    /** The fault actor of the fault the service returns for a batch that was retrieved before. */
+    private static final String ALREADY_RETRIEVED_FAULT = "ContentAlreadyRetrievedException";
+
+    /** The fault actor of the fault the service returns for a batch that was removed. */
+    private static final String REMOVED_FAULT = "ContentRemovedException";
+
+    private final EckIDServiceUtil eckIDServiceUtil;
+
+    private final BatchTracker batchTracker;
+
+    private final int chunkSize;
+
+    private final int maxPendingChunks;
+
+    private BatchJournal journal;
+
+    /**
+     * Creates a processor with the default chunk size and number of pending chunks.
+     *
+     * @param eckIDServiceUtil the client that hashes the PGNs and submits the batches.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     */
+    public BulkProcessor(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker) {
+        this(eckIDServiceUtil, batchTracker, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_PENDING_CHUNKS);
+    }
+
+    /**
+     * Creates a processor.
+     *
+     * @param eckIDServiceUtil the client that hashes the PGNs and submits the batches.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     * @param chunkSize        the number of lines per chunk.
+     * @param maxPendingChunks the maximum number of chunks that are read and not written yet.
+     */
+    public BulkProcessor(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker, int chunkSize,
+                         int maxPendingChunks) {
+        if (chunkSize < 1 || maxPendingChunks < 1) {
+            throw new IllegalArgumentException("The chunk size and number of pending chunks should be at least 1.");
+        }
+        this.eckIDServiceUtil = eckIDServiceUtil;
+        this.batchTracker = batchTracker;
+        this.chunkSize = chunkSize;
+        this.maxPendingChunks = maxPendingChunks;
+    }
+
+    /**
+     * Sets the journal from which a restarted run resumes. The same input should be processed again, with the same
+     * chunk size, chain and sector; a chunk with other input than the journaled one fails the run.
+     *
+     * @param journal the journal, or null to not journal the run.
+     */
+    public void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Processes all lines of the input and writes the results to the output. The output is written while the input
+     * is read, and is not closed.
+     *
+     * @param input      the PGNs.
+     * @param output     the writer for the results.
+     * @param chainGuid  A valid chain id, or null to only generate stampseudonyms.
+     * @param sectorGuid A valid sector id, or null to only generate stampseudonyms.
+     * @return the number of processed and failed lines.
+     * @throws IOException          if the input can not be read or the output can not be written.
+     * @throws InterruptedException if the thread is interrupted while waiting for the chunks.
+     * @throws IllegalStateException if the journal belongs to a run with other parameters or other input.
+     */
+    public Summary process(BufferedReader input, Writer output, String chainGuid, String sectorGuid)
+        throws IOException, InterruptedException {
+
+        boolean withEckIds = chainGuid != null && sectorGuid != null;
+        if (journal != null) {
+            journal.startRun("chunkSize=" + chunkSize + ",chain=" + (withEckIds ? chainGuid : "") + ",sector="
+                + (withEckIds ? sectorGuid : ""));
+        }
+        output.write(withEckIds ? "index,stampseudonym,eckid,error\n" : "index,stampseudonym,error\n");
+
+        ExecutorService hashExecutor = Executors.newFixedThreadPool(ScryptUtil.getMaxConcurrentHashes(), runnable -> {
+            Thread thread = new Thread(runnable, "bulk-hash");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Chunk> completedChunks = new LinkedBlockingQueue<>();
+        OrderedWriter writer = new OrderedWriter(output, withEckIds);
+        try {
+            String firstLine = input.readLine();
+            List<String> pgns = new ArrayList<>(chunkSize);
+            if (firstLine != null && !"pgn".equalsIgnoreCase(firstColumn(firstLine))) {
+                pgns.add(firstColumn(firstLine));
+            }
+
+            long nextIndex = 0;
+            int sequence = 0;
+            int pendingChunks = 0;
+            while (true) {
+                // Bound the memory use: wait until the oldest chunk is written before reading another one
+                while (pendingChunks >= maxPendingChunks) {
+                    pendingChunks -= writer.write(completedChunks.take());
+                }
+                String line;
+                while (pgns.size() < chunkSize && (line = input.readLine()) != null) {
+                    pgns.add(firstColumn(line));
+                }
+                if (pgns.isEmpty()) {
+                    break;
+                }
+
+                Chunk chunk = new Chunk(sequence++, nextIndex, pgns.toArray(new String[0]));
+                if (journal != null) {
+                    // The journaled hashes and batches of the chunk only belong to the same PGNs
+                    journal.startChunk(chunk.sequence, chunk.pgns);
+                }
+                nextIndex += pgns.size();
+                pgns.clear();
+                start(chunk, hashExecutor, chainGuid, sectorGuid, withEckIds)
+                    .whenComplete((result, error) -> completedChunks.add(chunk));
+                pendingChunks++;
+
+                for (Chunk completed; (completed = completedChunks.poll()) != null; ) {
+                    pendingChunks -= writer.write(completed);
+                }
+            }
+            while (pendingChunks > 0) {
+                pendingChunks -= writer.write(completedChunks.take());
+            }
+            output.flush();
+            return new Summary(writer.lines, writer.failedLines);
+        } finally {
+            hashExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts the pipeline of a chunk: hashing, then the stampseudonym batch, then the EckID batch.
+     */
+    private CompletableFuture<Void> start(Chunk chunk, ExecutorService hashExecutor, String chainGuid,
+                                          String sectorGuid, boolean withEckIds) {
+        CompletableFuture<Void> result = hash(chunk, hashExecutor)
+            .thenCompose(hashed -> submit(chunk, BatchJournal.Stage.STAMPSEUDONYM, chunk.hpgns, chunk.stampseudonyms,
+                eckIDServiceUtil::submitStampseudonymBatchAsync));
+        if (withEckIds) {
+            result = result.thenCompose(stampseudonyms -> submit(chunk, BatchJournal.Stage.ECKID, chunk.stampseudonyms,
+                chunk.eckIds, (size, values) -> eckIDServiceUtil.submitEckIdBatchAsync(size, values, chainGuid,
+                    sectorGuid)));
+        }
+        return result.whenComplete((ignored, error) -> {
+            if (error != null) {
+                chunk.failRemaining(ChunkedBatchSubmitter.errorMessage(error));
+            }
+        });
+    }
+
+    private CompletableFuture<Void> hash(Chunk chunk, ExecutorService hashExecutor) {
+        ScryptUtil scryptUtil = eckIDServiceUtil.getScryptUtil();
+        String[] journaledHashes = journal == null ? null : journal.getHashes(chunk.sequence);
+        if (journaledHashes != null && journaledHashes.length == chunk.pgns.length) {
+            for (int i = 0; i < journaledHashes.length; i++) {
+                if (journaledHashes[i].isEmpty()) {
+                    // Only invalid PGNs have no hash, which fail again without hashing
+                    hash(scryptUtil, chunk, i);
+                } else {
+                    chunk.hpgns[i] = journaledHashes[i];
+                    chunk.pgns[i] = null;
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        int size = chunk.pgns.length;
+        List<CompletableFuture<Void>> slices = new ArrayList<>();
+        for (int start = 0; start < size; start += HASH_SLICE_SIZE) {
+            int from = start;
+            int to = Math.min(size, start + HASH_SLICE_SIZE);
+            slices.add(CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; i++) {
+                    hash(scryptUtil, chunk, i);
+                }
+            }, hashExecutor));
+        }
+        CompletableFuture<Void> hashed = CompletableFuture.allOf(slices.toArray(new CompletableFuture[0]));
+        return journal == null ? hashed : hashed.thenRun(() -> journal.recordHashes(chunk.sequence, chunk.hpgns));
+    }
+
+    private static void hash(ScryptUtil scryptUtil, Chunk chunk, int index) {
+        try {
+            chunk.hpgns[index] = scryptUtil.generateHexHash(chunk.pgns[index]);
+        } catch (IllegalArgumentException e) {
+            chunk.errors[index] = e.getMessage();
+        }
+        chunk.pgns[index] = null;
+    }
+
+    /**
+     * Submits the inputs of the lines that did not fail yet as a batch, and stores the results and error messages.
+     * The batch has the position of every input among them as its index; the positions are mapped back to the lines
+     * of the chunk with a primitive array; the journal holds the positions as well. A batch of which the results are
+     * journaled is not submitted, a journaled submitted batch is only retrieved.
+     */
+    private CompletableFuture<Void> submit(Chunk chunk, BatchJournal.Stage stage, String[] inputs, String[] results,
+                                           BatchSubmitter submitter) {
+        int[] lines = new int[inputs.length];
+        int size = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            if (chunk.errors[i] == null) {
+                lines[size++] = i;
+            }
+        }
+        if (size == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int batchSize = size;
+        IntFunction<String> batch = position -> inputs[lines[position]];
+
+        CompletableFuture<EckIDServiceBatch> retrieval;
+        EckIDServiceBatch journaledBatch = journal == null ? null : journal.getRetrieved(chunk.sequence, stage);
+        String journaledIdentifier = journal == null ? null : journal.getBatchIdentifier(chunk.sequence, stage);
+        if (journaledBatch != null) {
+            retrieval = CompletableFuture.completedFuture(journaledBatch);
+        } else if (journaledIdentifier != null) {
+            // The results of the batch are lost if it was retrieved, but not journaled, before the restart
+            retrieval = journalRetrieved(chunk, stage, batchTracker.track(journaledIdentifier, batchSize))
+                .exceptionallyCompose(error -> isGone(error) ? submitAndTrack(chunk, stage, batchSize, batch, submitter)
+                    : CompletableFuture.failedFuture(error));
+        } else {
+            retrieval = submitAndTrack(chunk, stage, batchSize, batch, submitter);
+        }
+        return retrieval
+            .handle((retrieved, error) -> {
+                if (error != null) {
+                    String errorMessage = ChunkedBatchSubmitter.errorMessage(error);
+                    for (int position = 0; position < batchSize; position++) {
+                        chunk.errors[lines[position]] = errorMessage;
+                    }
+                } else {
+                    retrieved.forEachSuccess((position, value) -> results[lines[position]] = value);
+                    retrieved.forEachFailure((position, errorMessage) -> chunk.errors[lines[position]] = errorMessage);
+                }
+                return null;
+            });
+    }
+
+    private CompletableFuture<EckIDServiceBatch> submitAndTrack(Chunk chunk, BatchJournal.Stage stage, int size,
+                                                                IntFunction<String> batch, BatchSubmitter submitter) {
+        return journalRetrieved(chunk, stage, submitter.submit(size, batch).thenCompose(batchIdentifier -> {
+            if (journal != null) {
+                journal.recordSubmitted(chunk.sequence, stage, batchIdentifier);
+            }
+            return batchTracker.track(batchIdentifier, size);
+        }));
+    }
+
+    private CompletableFuture<EckIDServiceBatch> journalRetrieved(Chunk chunk, BatchJournal.Stage stage,
+                                                                  CompletableFuture<EckIDServiceBatch> retrieval) {
+        return journal == null ? retrieval : retrieval.thenApply(retrieved -> {
+            journal.recordRetrieved(chunk.sequence, stage, retrieved);
+            return retrieved;
+        });
+    }
+
+    private static boolean isGone(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (!(error instanceof SOAPFaultException)) {
+            return false;
+        }
+        String faultActor = ((SOAPFaultException) error).getFault().getFaultActor();
+        return ALREADY_RETRIEVED_FAULT.equals(faultActor) || REMOVED_FAULT.equals(faultActor);
+    }
+
+    private static String firstColumn(String line) {
+        int end = 0;
+        while (end < line.length() && line.charAt(end) != ',' && line.charAt(end) != ';') {
+            end++;
+        }
+        String column = line.substring(0, end).trim();
+        if (column.length() >= 2 && column.startsWith("\"") && column.endsWith("\"")) {
+            column = column.substring(1, column.length() - 1).replace("\"\"", "\"");
+        }
+        return column;
+    }
+
+    /**
+     * Submits a batch of the inputs at the positions 0 up to the size, asynchronously.
+     */
+    @FunctionalInterface
+    private interface BatchSubmitter {
+
+        CompletableFuture<String> submit(int size, IntFunction<String> inputs);
+    }
+
+    /**
+     * The number of processed and failed lines of a bulk operation.
+     */
+    public static final class Summary {
+
+        private final long lines;
+
+        private final long failedLines;
+
+        private Summary(long lines, long failedLines) {
+            this.lines = lines;
+            this.failedLines = failedLines;
+        }
+
+        /**
+         * @return the number of processed lines, without the header.
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        /**
+         * @return the number of lines with an error message.
+         */
+        public long getFailedLines() {
+            return failedLines;
+        }
+    }
+
+    /**
+     * Lines of the input that go through the pipeline together. Every stage writes to its own array, at the index of
+     * the line within the chunk.
+     */
+    private static final class Chunk {
+
+        private final int sequence;
+
+        private final long firstIndex;
+
+        private final String[] pgns;
+
+        private final String[] hpgns;
+
+        private final String[] stampseudonyms;
+
+        private final String[] eckIds;
+
+        private final String[] errors;
+
+        private Chunk(int sequence, long firstIndex, String[] pgns) {
+            this.sequence = sequence;
+            this.firstIndex = firstIndex;
+            this.pgns = pgns;
+            this.hpgns = new String[pgns.length];
+            this.stampseudonyms = new String[pgns.length];
+            this.eckIds = new String[pgns.length];
+            this.errors = new String[pgns.length];
+        }
+
+        private void failRemaining(String errorMessage) {
+            for (int i = 0; i < errors.length; i++) {
+                if (errors[i] == null) {
+                    errors[i] = errorMessage;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the completed chunks in input order, holding back chunks that completed before an earlier one.
+     */
+    private static final class OrderedWriter {
+
+        private final Writer output;
+
+        private final boolean withEckIds;
+
+        private final Map<Integer, Chunk> completedChunks = new HashMap<>();
+
+        private int nextSequence;
+
+        private long lines;
+
+        private long failedLines;
+
+        private OrderedWriter(Writer output, boolean withEckIds) {
+            this.output = output;
+            this.withEckIds = withEckIds;
+        }
+
+        /**
+         * @return the number of chunks that are written.
+         */
+        private int write(Chunk completed) throws IOException {
+            completedChunks.put(completed.sequence, completed);
+            int written = 0;
+            for (Chunk chunk; (chunk = completedChunks.remove(nextSequence)) != null; nextSequence++, written++) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < chunk.errors.length; i++) {
+                    String result = withEckIds ? chunk.eckIds[i] : chunk.stampseudonyms[i];
+                    String errorMessage = chunk.errors[i] == null && result == null
+                        ? "No result returned" : chunk.errors[i];
+                    line.setLength(0);
+                    line.append(chunk.firstIndex + i).append(',').append(nullToEmpty(chunk.stampseudonyms[i]));
+                    if (withEckIds) {
+                        line.append(',').append(nullToEmpty(chunk.eckIds[i]));
+                    }
+                    line.append(',').append(quote(errorMessage)).append('\n');
+                    output.write(line.toString());
+                    lines++;
+                    if (errorMessage != null) {
+                        failedLines++;
+                    }
+                }
+            }
+            return written;
+        }
+
+        private static String nullToEmpty(String value) {
+            return value == null ? "" : value;
+        }
+
+        private static String quote(String value) {
+            if (value == null) {
+                return "";
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
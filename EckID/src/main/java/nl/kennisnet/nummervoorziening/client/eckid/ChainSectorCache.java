@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import nl.ketenid.eck.schemas.v1_0.Chain;
+import nl.ketenid.eck.schemas.v1_0.Sector;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cache of the active chains and sectors, with lookup by id and by name. The lists are retrieved on first use and
+ * refreshed in the background after every time to live. A refreshed list only replaces the cached list when a chain
+ * or sector was added, removed or edited according to its lastEdited timestamp. When a refresh in the background fails,
+ * the cached lists are kept until the next refresh, and the error is available from {@link #getLastRefreshError()}.
+ *
+ * The returned chains and sectors are shared and should not be modified.
+ */
+public class ChainSectorCache implements Closeable {
+
+    private final EckIDServiceUtil eckIDServiceUtil;
+
+    private final long timeToLiveMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Catalog<Chain> chains;
+
+    private volatile Catalog<Sector> sectors;
+
+    private volatile RuntimeException lastRefreshError;
+
+    /**
+     * Creates a cache of the chains and sectors of the service.
+     *
+     * @param eckIDServiceUtil the client to retrieve the chains and sectors with.
+     * @param timeToLiveMillis the time between refreshes.
+     */
+    public ChainSectorCache(EckIDServiceUtil eckIDServiceUtil, long timeToLiveMillis) {
+        if (timeToLiveMillis < 1) {
+            throw new IllegalArgumentException("The time to live should be at least 1 ms.");
+        }
+        this.eckIDServiceUtil = eckIDServiceUtil;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eckid-chain-sector-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the active chains.
+     *
+     * @return the cached list of active chains.
+     */
+    public List<Chain> getChains() {
+        return chains().items;
+    }
+
+    /**
+     * Gets the active sectors.
+     *
+     * @return the cached list of active sectors.
+     */
+    public List<Sector> getSectors() {
+        return sectors().items;
+    }
+
+    /**
+     * Looks up an active chain by its id.
+     *
+     * @param id the chain id.
+     * @return the chain, or null if there is no active chain with this id.
+     */
+    public Chain getChainById(String id) {
+        return chains().byId.get(id);
+    }
+
+    /**
+     * Looks up an active chain by its name.
+     *
+     * @param name the chain name.
+     * @return the chain, or null if there is no active chain with this name.
+     */
+    public Chain getChainByName(String name) {
+        return chains().byName.get(name);
+    }
+
+    /**
+     * Looks up an active sector by its id.
+     *
+     * @param id the sector id.
+     * @return the sector, or null if there is no active sector with this id.
+     */
+    public Sector getSectorById(String id) {
+        return sectors().byId.get(id);
+    }
+
+    /**
+     * Looks up an active sector by its name.
+     *
+     * @param name the sector name.
+     * @return the sector, or null if there is no active sector with this name.
+     */
+    public Sector getSectorByName(String name) {
+        return sectors().byName.get(name);
+    }
+
+    /**
+     * Gets the error of the last refresh in the background, for monitoring whether the cached lists are still
+     * up-to-date.
+     *
+     * @return the error, or null if the last refresh succeeded.
+     */
+    public RuntimeException getLastRefreshError() {
+        return lastRefreshError;
+    }
+
+    /**
+     * Retrieves the chains and sectors now, instead of waiting for the next scheduled refresh.
+     */
+    public synchronized void refresh() {
+        boolean first = chains == null;
+        Catalog<Chain> currentChains = new Catalog<>(eckIDServiceUtil.getChains(), Chain::getId, Chain::getName,
+            Chain::getLastEdited);
+        Catalog<Sector> currentSectors = new Catalog<>(eckIDServiceUtil.getSectors(), Sector::getId, Sector::getName,
+            Sector::getLastEdited);
+        if (first || currentChains.isChangedSince(chains)) {
+            chains = currentChains;
+        }
+        if (first || currentSectors.isChangedSince(sectors)) {
+            sectors = currentSectors;
+        }
+        if (first) {
+            scheduler.scheduleWithFixedDelay(this::refreshInBackground, timeToLiveMillis, timeToLiveMillis,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops refreshing the chains and sectors.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void refreshInBackground() {
+        try {
+            refresh();
+            lastRefreshError = null;
+        } catch (RuntimeException e) {
+            // Keep the cached lists, the next refresh may succeed
+            lastRefreshError = e;
+        }
+    }
+
+    private Catalog<Chain> chains() {
+        Catalog<Chain> current = chains;
+        if (current == null) {
+            refreshIfEmpty();
+            current = chains;
+        }
+        return current;
+    }
+
+    private Catalog<Sector> sectors() {
+        Catalog<Sector> current = sectors;
+        if (current == null) {
+            refreshIfEmpty();
+            current = sectors;
+        }
+        return current;
+    }
+
+    private synchronized void refreshIfEmpty() {
+        if (chains == null) {
+            refresh();
+        }
+    }
+
+    /**
+     * An immutable list of chains or sectors, indexed by id and by name.
+     */
+    private static final class Catalog<T> {
+
+        private final List<T> items;
+
+        private final Map<String, T> byId = new HashMap<>();
+
+        private final Map<String, T> byName = new HashMap<>();
+
+        private final Map<String, XMLGregorianCalendar> lastEdited = new HashMap<>();
+
+        private Catalog(List<T> items, Function<T, String> id, Function<T, String> name,
+                        Function<T, XMLGregorianCalendar> edited) {
+            this.items = Collections.unmodifiableList(items);
+            for (T item : items) {
+                byId.put(id.apply(item), item);
+                byName.put(name.apply(item), item);
+                lastEdited.put(id.apply(item), edited.apply(item));
+            }
+        }
+
+        /**
+         * Checks whether an item was added, removed or edited since an earlier catalog.
+         */
+        private boolean isChangedSince(Catalog<T> earlier) {
+            if (lastEdited.size() != earlier.lastEdited.size()) {
+                return true;
+            }
+            for (Map.Entry<String, XMLGregorianCalendar> entry : lastEdited.entrySet()) {
+                if (!earlier.lastEdited.containsKey(entry.getKey())
+                    || !Objects.equals(entry.getValue(), earlier.lastEdited.get(entry.getKey()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
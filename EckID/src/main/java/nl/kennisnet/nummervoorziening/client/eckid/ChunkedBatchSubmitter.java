@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Processes large numbers of EckIDs or stampseudonyms as a pipeline of smaller batches. The input is split into
+ * chunks which are submitted one after another while earlier chunks are being processed by the service, with a
+ * bounded number of chunks pending at a time. The submitted chunks are waited for by a {@link BatchTracker}, and the
+ * results of all chunks are merged into one {@link EckIDServiceBatch} with the indexes of the input.
+ *
+ * A chunk which can not be submitted or retrieved does not affect the other chunks: its entries are reported as
+ * failed, with the fault actor and message of the service (or the error if the service could not be reached) as error
+ * message, and can be submitted again later.
+ */
+public class ChunkedBatchSubmitter {
+
+    /** The default number of entries per submitted batch. */
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    /** The default number of submitted batches of which the result is not retrieved yet. */
+    public static final int DEFAULT_MAX_PENDING_CHUNKS = 4;
+
+    private final EckIDServiceUtil eckIDServiceUtil;
+
+    private final BatchTracker batchTracker;
+
+    private final int chunkSize;
+
+    private final int maxPendingChunks;
+
+    /**
+     * Creates a submitter with the default chunk size and number of pending chunks.
+     *
+     * @param eckIDServiceUtil the client to submit the batches with.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     */
+    public ChunkedBatchSubmitter(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker) {
+        this(eckIDServiceUtil, batchTracker, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_PENDING_CHUNKS);
+    }
+
+    /**
+     * Creates a submitter.
+     *
+     * @param eckIDServiceUtil the client to submit the batches with.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     * @param chunkSize        the maximum number of entries per submitted batch.
+     * @param maxPendingChunks the maximum number of submitted batches of which the result is not retrieved yet.
+     */
+    public ChunkedBatchSubmitter(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker, int chunkSize,
+                                 int maxPendingChunks) {
+        if (chunkSize < 1 || maxPendingChunks < 1) {
+            throw new IllegalArgumentException("The chunk size and number of pending chunks should be at least 1.");
+        }
+        this.eckIDServiceUtil = eckIDServiceUtil;
+        this.batchTracker = batchTracker;
+        this.chunkSize = chunkSize;
+        this.maxPendingChunks = maxPendingChunks;
+    }
+
+    /**
+     * Generates the EckIDs of any number of stampseudonyms in batches.
+     *
+     * @param listedStampseudonymMap Map with Stampseudonym values as values and their indexes as keys.
+     * @param chainGuid              A valid chain id.
+     * @param sectorGuid             A valid sector id.
+     * @return the EckIDs and error messages of all entries, by index.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batches.
+     */
+    public EckIDServiceBatch processEckIdBatch(Map<Integer, String> listedStampseudonymMap, String chainGuid,
+                                               String sectorGuid) throws InterruptedException {
+        return processEckIdBatch(listedStampseudonymMap, chainGuid, sectorGuid, null);
+    }
+
+    /**
+     * Generates the EckIDs of any number of stampseudonyms in batches, and reports the error of every failed chunk.
+     *
+     * @param listedStampseudonymMap Map with Stampseudonym values as values and their indexes as keys.
+     * @param chainGuid              A valid chain id.
+     * @param sectorGuid             A valid sector id.
+     * @param failedChunks           receives the failed chunks, or null.
+     * @return the EckIDs and error messages of all entries, by index.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batches.
+     */
+    EckIDServiceBatch processEckIdBatch(Map<Integer, String> listedStampseudonymMap, String chainGuid,
+                                        String sectorGuid, FailedChunkListener failedChunks)
+        throws InterruptedException {
+
+        return process(listedStampseudonymMap,
+            chunk -> eckIDServiceUtil.submitEckIdBatch(chunk, chainGuid, sectorGuid), failedChunks);
+    }
+
+    /**
+     * Generates the stampseudonyms of any number of hashed PGNs in batches.
+     *
+     * @param listedHPgnMap Map with HPgn values as values and their indexes as keys.
+     * @return the stampseudonyms and error messages of all entries, by index.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batches.
+     */
+    public EckIDServiceBatch processStampseudonymBatch(Map<Integer, String> listedHPgnMap)
+        throws InterruptedException {
+
+        return processStampseudonymBatch(listedHPgnMap, null);
+    }
+
+    /**
+     * Generates the stampseudonyms of any number of hashed PGNs in batches, and reports the error of every failed
+     * chunk.
+     *
+     * @param listedHPgnMap Map with HPgn values as values and their indexes as keys.
+     * @param failedChunks  receives the failed chunks, or null.
+     * @return the stampseudonyms and error messages of all entries, by index.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batches.
+     */
+    EckIDServiceBatch processStampseudonymBatch(Map<Integer, String> listedHPgnMap, FailedChunkListener failedChunks)
+        throws InterruptedException {
+
+        return process(listedHPgnMap, eckIDServiceUtil::submitStampseudonymBatch, failedChunks);
+    }
+
+    private EckIDServiceBatch process(Map<Integer, String> input, Function<Map<Integer, String>, String> submitter,
+                                      FailedChunkListener failedChunks) throws InterruptedException {
+
+        List<EckIDServiceBatch> results = new ArrayList<>();
+        Iterator<Map.Entry<Integer, String>> entries = input.entrySet().iterator();
+        BlockingQueue<CompletedChunk> completedChunks = new LinkedBlockingQueue<>();
+        int pendingChunks = 0;
+
+        while (entries.hasNext() || pendingChunks > 0) {
+            // Keep the pipeline filled; the request of a chunk is only built when it is submitted
+            while (entries.hasNext() && pendingChunks < maxPendingChunks) {
+                Map<Integer, String> chunk = nextChunk(entries);
+                int[] indexes = chunk.keySet().stream().mapToInt(Integer::intValue).toArray();
+                try {
+                    batchTracker.track(submitter.apply(chunk), chunk.size()).whenComplete((result, error) ->
+                        completedChunks.add(new CompletedChunk(indexes, result, error)));
+                    pendingChunks++;
+                } catch (RuntimeException e) {
+                    // A fault of the service, or a WebServiceException if the service could not be reached
+                    results.add(failed(indexes, e, failedChunks));
+                }
+            }
+            if (pendingChunks == 0) {
+                continue;
+            }
+
+            CompletedChunk chunk = completedChunks.take();
+            pendingChunks--;
+            results.add(chunk.error == null ? chunk.result : failed(chunk.indexes, chunk.error, failedChunks));
+        }
+        return EckIDServiceBatch.merge(results);
+    }
+
+    private Map<Integer, String> nextChunk(Iterator<Map.Entry<Integer, String>> entries) {
+        Map<Integer, String> chunk = new HashMap<>();
+        while (entries.hasNext() && chunk.size() < chunkSize) {
+            Map.Entry<Integer, String> entry = entries.next();
+            chunk.put(entry.getKey(), entry.getValue());
+        }
+        return chunk;
+    }
+
+    private static EckIDServiceBatch failed(int[] indexes, Throwable error, FailedChunkListener failedChunks) {
+        if (failedChunks != null) {
+            failedChunks.failed(indexes, error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error);
+        }
+        return EckIDServiceBatch.failed(indexes, errorMessage(error));
+    }
+
+    /**
+     * Describes why entries failed: the fault actor and message of a fault of the service, or the error itself.
+     *
+     * @param error the error, possibly wrapped by a CompletableFuture.
+     * @return the error message for the failed entries.
+     */
+    static String errorMessage(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof SOAPFaultException
+            ? ((SOAPFaultException) error).getFault().getFaultActor() + ": "
+                + ((SOAPFaultException) error).getFault().getFaultString()
+            : error.toString();
+    }
+
+    /**
+     * Receives the chunks that could not be submitted or retrieved, with the error itself instead of its message.
+     */
+    @FunctionalInterface
+    interface FailedChunkListener {
+
+        /**
+         * Receives a failed chunk.
+         *
+         * @param indexes the indexes of the entries of the chunk.
+         * @param error   the error, unwrapped from a CompletionException.
+         */
+        void failed(int[] indexes, Throwable error);
+    }
+
+    /**
+     * A submitted chunk that is finished or given up. Only the indexes are kept, to mark the entries as failed if
+     * the batch could not be retrieved.
+     */
+    private static final class CompletedChunk {
+
+        private final int[] indexes;
+
+        private final EckIDServiceBatch result;
+
+        private final Throwable error;
+
+        private CompletedChunk(int[] indexes, EckIDServiceBatch result, Throwable error) {
+            this.indexes = indexes;
+            this.result = result;
+            this.error = error;
+        }
+    }
+}
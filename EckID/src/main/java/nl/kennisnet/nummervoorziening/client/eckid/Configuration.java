@@ -34,6 +34,69 @@ public interface Configuration {
     /** Salt to be used as input for the client side first level hashing algorithm. */
     String PROPERTIES_FIRST_LEVEL_SALT = "first_level.salt";
 
+    /** Optional path to the file in which calculated first level hashes are cached. */
+    String PROPERTIES_FIRST_LEVEL_CACHE_PATH = "first_level.cache.path";
+
+    /** Optional name of the scrypt engine to use, instead of the fastest engine for this platform. */
+    String PROPERTIES_FIRST_LEVEL_SCRYPT_ENGINE = "first_level.scrypt.engine";
+
+    /** Optional maximum number of operations that are executed at the same time. */
+    String PROPERTIES_CLIENT_PORT_POOL_SIZE = "client.portPoolSize";
+
+    /** The number of operations that are executed at the same time if no pool size is configured. */
+    int DEFAULT_PORT_POOL_SIZE = 16;
+
+    /** Optional time in seconds after which the cached chains and sectors are refreshed. */
+    String PROPERTIES_CLIENT_CHAIN_SECTOR_CACHE_TTL = "client.chainSectorCacheTtl";
+
+    /** The time in seconds after which the cached chains and sectors are refreshed if no time is configured. */
+    long DEFAULT_CHAIN_SECTOR_CACHE_TTL = 3600;
+
+    /** Optional maximum number of cached stampseudonyms and EckIDs; no results are cached if it is not configured. */
+    String PROPERTIES_CLIENT_RESULT_CACHE_SIZE = "client.resultCacheSize";
+
+    /** Optional number of batches that can be submitted per day. */
+    String PROPERTIES_CLIENT_DAILY_BATCH_LIMIT = "client.dailyBatchLimit";
+
+    /** Optional engine that sends the operations, {@value #SOAP_ENGINE_JAXWS} or {@value #SOAP_ENGINE_STREAMING}. */
+    String PROPERTIES_CLIENT_SOAP_ENGINE = "client.soapEngine";
+
+    /** Sends the operations with JAX-WS proxies; the default. */
+    String SOAP_ENGINE_JAXWS = "jaxws";
+
+    /** Writes and parses the messages directly with StAX, without JAXB and the JAX-WS runtime. */
+    String SOAP_ENGINE_STREAMING = "streaming";
+
+    /**
+     * Optional HTTP client of the streaming engine, {@value #HTTP_TRANSPORT_URLCONNECTION} or
+     * {@value #HTTP_TRANSPORT_HTTPCLIENT}.
+     */
+    String PROPERTIES_CLIENT_HTTP_TRANSPORT = "client.httpTransport";
+
+    /** Sends the requests with HttpURLConnection; the default. */
+    String HTTP_TRANSPORT_URLCONNECTION = "urlconnection";
+
+    /** Sends the requests with a shared java.net.http.HttpClient, over HTTP/2 when the service supports it. */
+    String HTTP_TRANSPORT_HTTPCLIENT = "httpclient";
+
+    /** Optional HTTP version of the HttpClient transport, HTTP_2 or HTTP_1_1. */
+    String PROPERTIES_CLIENT_HTTP_VERSION = "client.httpVersion";
+
+    /** Optional maximum number of requests that the HttpClient transport has in progress at the same time. */
+    String PROPERTIES_CLIENT_HTTP_MAX_CONNECTIONS = "client.httpMaxConnections";
+
+    /** Optional time in milliseconds to wait for a connection to the service. */
+    String PROPERTIES_CLIENT_CONNECT_TIMEOUT = "client.connectTimeout";
+
+    /** Optional time in milliseconds to wait for the response of the service. */
+    String PROPERTIES_CLIENT_REQUEST_TIMEOUT = "client.requestTimeout";
+
+    /** Optional maximum number of TLS sessions that are kept to resume them. */
+    String PROPERTIES_CLIENT_TLS_SESSION_CACHE_SIZE = "client.tlsSessionCacheSize";
+
+    /** Optional time in seconds that a TLS session can be resumed. */
+    String PROPERTIES_CLIENT_TLS_SESSION_TIMEOUT = "client.tlsSessionTimeout";
+
     /**
      * Gets the configured Endpoint URL Address as provided in the config.properties file.
      * @return The Endpoint URL Address
@@ -73,4 +136,119 @@ public interface Configuration {
      */
     String getFirstLevelSalt();
 
+    /**
+     * Gets the configured path of the first level hash cache file.
+     * @return the path of the cache file, or null if hashes should not be cached.
+     */
+    default String getFirstLevelCachePath() {
+        return null;
+    }
+
+    /**
+     * Gets the configured name of the scrypt engine for the first level hash.
+     * @return the name of the scrypt engine, or null to select the fastest engine for this platform.
+     */
+    default String getFirstLevelScryptEngine() {
+        return null;
+    }
+
+    /**
+     * Gets the configured number of EckIDPort proxies, which is the maximum number of operations that are executed
+     * at the same time.
+     * @return the size of the port pool.
+     */
+    default int getPortPoolSize() {
+        return DEFAULT_PORT_POOL_SIZE;
+    }
+
+    /**
+     * Gets the configured time after which the cached chains and sectors are refreshed.
+     * @return the time to live of the chain and sector cache, in seconds.
+     */
+    default long getChainSectorCacheTtl() {
+        return DEFAULT_CHAIN_SECTOR_CACHE_TTL;
+    }
+
+    /**
+     * Gets the configured maximum number of cached stampseudonyms, which is also the maximum number of cached EckIDs.
+     * @return the size of the result cache, or 0 if results are not cached.
+     */
+    default int getResultCacheSize() {
+        return 0;
+    }
+
+    /**
+     * Gets the configured number of batches that can be submitted per day.
+     * @return the daily batch limit, or 0 if it is not known.
+     */
+    default int getDailyBatchLimit() {
+        return 0;
+    }
+
+    /**
+     * Gets the configured engine that sends the operations to the service.
+     * @return {@value #SOAP_ENGINE_JAXWS} or {@value #SOAP_ENGINE_STREAMING}.
+     */
+    default String getSoapEngine() {
+        return SOAP_ENGINE_JAXWS;
+    }
+
+    /**
+     * Gets the configured HTTP client of the streaming engine.
+     * @return {@value #HTTP_TRANSPORT_URLCONNECTION} or {@value #HTTP_TRANSPORT_HTTPCLIENT}.
+     */
+    default String getHttpTransport() {
+        return HTTP_TRANSPORT_URLCONNECTION;
+    }
+
+    /**
+     * Gets the configured HTTP version of the HttpClient transport. HTTP/2 falls back to HTTP/1.1 if the service does
+     * not support it.
+     * @return HTTP_2 or HTTP_1_1.
+     */
+    default String getHttpVersion() {
+        return "HTTP_2";
+    }
+
+    /**
+     * Gets the configured maximum number of requests that the HttpClient transport has in progress at the same time,
+     * which is the maximum number of connections over HTTP/1.1.
+     * @return the maximum number of requests, or 0 to use the port pool size.
+     */
+    default int getHttpMaxConnections() {
+        return 0;
+    }
+
+    /**
+     * Gets the configured time to wait for a connection to the service.
+     * @return the connect timeout in milliseconds, or 0 to wait without a limit.
+     */
+    default int getConnectTimeout() {
+        return 0;
+    }
+
+    /**
+     * Gets the configured time to wait for the response of the service.
+     * @return the request timeout in milliseconds, or 0 to wait without a limit.
+     */
+    default int getRequestTimeout() {
+        return 0;
+    }
+
+    /**
+     * Gets the configured maximum number of TLS sessions that are kept to resume them.
+     * @return the size of the session cache, or 0 to use the default of the JDK.
+     */
+    default int getTlsSessionCacheSize() {
+        return 0;
+    }
+
+    /**
+     * Gets the configured time that a TLS session can be resumed.
+     * @return the session timeout in seconds, or 0 to use the default of the JDK.
+     */
+    default int getTlsSessionTimeout() {
+        return 0;
+    }
+
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import nl.ketenid.eck.schemas.v1_0.EckIDPort;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of initialized EckIDPort proxies. A JAX-WS proxy is not guaranteed to be thread-safe, so each port is
+ * used by one thread at a time; ports are created on demand up to the size of the pool, after that callers wait for
+ * a port to be returned.
+ */
+class EckIDPortPool {
+
+    private final BlockingQueue<EckIDPort> idlePorts;
+
+    private final Supplier<EckIDPort> portFactory;
+
+    private final AtomicInteger createdPorts = new AtomicInteger();
+
+    private final int size;
+
+    /**
+     * Creates a pool, with one port created right away.
+     *
+     * @param size        the maximum number of ports.
+     * @param portFactory creates an initialized port.
+     */
+    EckIDPortPool(int size, Supplier<EckIDPort> portFactory) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The port pool should hold at least one port.");
+        }
+        this.size = size;
+        this.portFactory = portFactory;
+        this.idlePorts = new ArrayBlockingQueue<>(size);
+        release(borrow());
+    }
+
+    /**
+     * Executes an operation with a port of the pool.
+     *
+     * @param operation the operation to execute.
+     * @param <T>       the result type of the operation.
+     * @return the result of the operation.
+     */
+    <T> T call(Function<EckIDPort, T> operation) {
+        EckIDPort port = borrow();
+        try {
+            return operation.apply(port);
+        } finally {
+            release(port);
+        }
+    }
+
+    /**
+     * Takes a port from the pool, creating one if there is no idle port and the pool is not full yet.
+     *
+     * @return a port for the exclusive use of the caller, until it is released.
+     */
+    EckIDPort borrow() {
+        EckIDPort port = idlePorts.poll();
+        if (port != null) {
+            return port;
+        }
+        for (int created = createdPorts.get(); created < size; created = createdPorts.get()) {
+            if (createdPorts.compareAndSet(created, created + 1)) {
+                try {
+                    return portFactory.get();
+                } catch (RuntimeException e) {
+                    createdPorts.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+        try {
+            return idlePorts.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a free EckIDPort", e);
+        }
+    }
+
+    /**
+     * Returns a borrowed port to the pool.
+     *
+     * @param port the port.
+     */
+    void release(EckIDPort port) {
+        idlePorts.add(port);
+    }
+
+    /**
+     * Gets the maximum number of ports.
+     *
+     * @return the size of the pool.
+     */
+    int getSize() {
+        return size;
+    }
+}
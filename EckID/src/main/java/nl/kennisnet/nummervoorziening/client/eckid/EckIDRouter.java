@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Chooses between single calls and batches for stampseudonym and EckID requests. Requests are queued and sent as
+ * single calls, up to one per port of the pool at a time. When more requests are waiting than the single calls can
+ * handle in the time a batch takes, the waiting requests are submitted as one batch instead.
+ *
+ * The switch point is tuned with the measured latencies: with single calls taking L ms, a batch taking B ms and C
+ * ports, waiting requests are batched when there are more than B * C / L of them.
+ *
+ * No batches are submitted while the daily batch quota of the client is used up, and the requests of a batch that
+ * the service refuses because of the daily limit are sent as single calls instead.
+ */
+public class EckIDRouter {
+
+    /** The default maximum number of requests in one batch. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = ChunkedBatchSubmitter.DEFAULT_CHUNK_SIZE;
+
+    /** Batch latency assumed until the first batch has been observed. */
+    public static final long DEFAULT_INITIAL_BATCH_LATENCY_MILLIS = 30_000;
+
+    /** Single call latency assumed until the first call has been observed. */
+    private static final double INITIAL_SINGLE_LATENCY_MILLIS = 200;
+
+    /** Weight of the last observed call or batch in the latency estimates. */
+    private static final double SMOOTHING_FACTOR = 0.2;
+
+    private final EckIDServiceUtil eckIDServiceUtil;
+
+    private final BatchTracker batchTracker;
+
+    private final int maxBatchSize;
+
+    private final int concurrency;
+
+    /** Waiting requests by operation, chain and sector; guarded by this. */
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+
+    private double singleLatencyMillis = INITIAL_SINGLE_LATENCY_MILLIS;
+
+    private double batchLatencyMillis;
+
+    private int singleCallsInProgress;
+
+    /** Batches that are submitted but not yet recorded in the batch quota, as that happens when the call returns. */
+    private int batchSubmissionsInProgress;
+
+    /** Set while dispatching, so an executor that runs calls in the dispatching thread does not dispatch again. */
+    private boolean dispatching;
+
+    private boolean dispatchAgain;
+
+    private long singleCalls;
+
+    private long batchedRequests;
+
+    /**
+     * Creates a router with the default maximum batch size and initial batch latency.
+     *
+     * @param eckIDServiceUtil the client to send the requests with.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     */
+    public EckIDRouter(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker) {
+        this(eckIDServiceUtil, batchTracker, DEFAULT_MAX_BATCH_SIZE, DEFAULT_INITIAL_BATCH_LATENCY_MILLIS);
+    }
+
+    /**
+     * Creates a router.
+     *
+     * @param eckIDServiceUtil          the client to send the requests with.
+     * @param batchTracker              the tracker that waits for the submitted batches.
+     * @param maxBatchSize              the maximum number of requests in one batch.
+     * @param initialBatchLatencyMillis the batch latency to assume until the first batch has been observed.
+     */
+    public EckIDRouter(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker, int maxBatchSize,
+                       long initialBatchLatencyMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("The maximum batch size should be at least 1.");
+        }
+        this.eckIDServiceUtil = eckIDServiceUtil;
+        this.batchTracker = batchTracker;
+        this.maxBatchSize = maxBatchSize;
+        this.concurrency = eckIDServiceUtil.getPortPoolSize();
+        this.batchLatencyMillis = initialBatchLatencyMillis;
+    }
+
+    /**
+     * Requests the stampseudonym of a hashed PGN.
+     *
+     * @param hpgn The scrypt hashed PGN.
+     * @return future that completes with the Stampseudonym, or exceptionally with the SOAPFaultException of a single
+     * call, or an IllegalArgumentException with the error message of a batch.
+     */
+    public CompletableFuture<String> generateStampseudonym(String hpgn) {
+        return enqueue("stampseudonym", hpgn, eckIDServiceUtil::generateStampseudonym,
+            eckIDServiceUtil::submitStampseudonymBatch);
+    }
+
+    /**
+     * Requests the EckID of a stampseudonym.
+     *
+     * @param stampseudonym The stampseudonym.
+     * @param chainGuid     A valid chain id.
+     * @param sectorGuid    A valid sector id.
+     * @return future that completes with the EckID, or exceptionally with the SOAPFaultException of a single call, or
+     * an IllegalArgumentException with the error message of a batch.
+     */
+    public CompletableFuture<String> generateEckID(String stampseudonym, String chainGuid, String sectorGuid) {
+        return enqueue("eckid|" + chainGuid + '|' + sectorGuid, stampseudonym,
+            value -> eckIDServiceUtil.generateEckID(value, chainGuid, sectorGuid),
+            batch -> eckIDServiceUtil.submitEckIdBatch(batch, chainGuid, sectorGuid));
+    }
+
+    /**
+     * Gets the number of waiting requests above which they are submitted as a batch.
+     *
+     * @return the current switch point.
+     */
+    public synchronized int getBatchThreshold() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(batchLatencyMillis * concurrency / singleLatencyMillis));
+    }
+
+    /**
+     * Gets the number of requests sent as single calls so far.
+     *
+     * @return the number of single calls.
+     */
+    public synchronized long getSingleCalls() {
+        return singleCalls;
+    }
+
+    /**
+     * Gets the number of requests sent in batches so far.
+     *
+     * @return the number of batched requests.
+     */
+    public synchronized long getBatchedRequests() {
+        return batchedRequests;
+    }
+
+    private synchronized CompletableFuture<String> enqueue(String key, String value, Function<String, String> single,
+                                                           Function<String[], String> batchSubmitter) {
+        Request request = new Request(value);
+        lanes.computeIfAbsent(key, k -> new Lane(k, single, batchSubmitter)).requests.add(request);
+        dispatch();
+        return request.future;
+    }
+
+    /**
+     * Sends waiting requests as single calls while ports are free, and as batches when too many are waiting.
+     */
+    private synchronized void dispatch() {
+        if (dispatching) {
+            dispatchAgain = true;
+            return;
+        }
+        dispatching = true;
+        try {
+            do {
+                dispatchAgain = false;
+                int threshold = getBatchThreshold();
+                for (Lane lane : lanes.values()) {
+                    while (lane.requests.size() > threshold
+                        && eckIDServiceUtil.getBatchQuota().getRemaining() > batchSubmissionsInProgress) {
+                        submitBatch(lane);
+                    }
+                    while (!lane.requests.isEmpty() && singleCallsInProgress < concurrency) {
+                        call(lane, lane.requests.poll());
+                    }
+                }
+                lanes.values().removeIf(lane -> lane.requests.isEmpty());
+            } while (dispatchAgain);
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    private void call(Lane lane, Request request) {
+        singleCallsInProgress++;
+        singleCalls++;
+        long start = System.nanoTime();
+        eckIDServiceUtil.supplyAsync(() -> lane.single.apply(request.value)).whenComplete((result, error) -> {
+            synchronized (this) {
+                singleCallsInProgress--;
+                if (error == null) {
+                    singleLatencyMillis += SMOOTHING_FACTOR * (elapsedMillis(start) - singleLatencyMillis);
+                }
+                dispatch();
+            }
+            complete(request.future, result, error);
+        });
+    }
+
+    private void submitBatch(Lane lane) {
+        List<Request> requests = new ArrayList<>(Math.min(lane.requests.size(), maxBatchSize));
+        while (!lane.requests.isEmpty() && requests.size() < maxBatchSize) {
+            requests.add(lane.requests.poll());
+        }
+        // The position of a request in the batch is its index
+        String[] batch = new String[requests.size()];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = requests.get(i).value;
+        }
+        batchedRequests += requests.size();
+        long start = System.nanoTime();
+        CompletableFuture<String> submission = eckIDServiceUtil.supplyAsync(() -> lane.batchSubmitter.apply(batch));
+        batchSubmissionsInProgress++;
+        submission.whenComplete((batchIdentifier, error) -> {
+            synchronized (this) {
+                batchSubmissionsInProgress--;
+                dispatch();
+            }
+        });
+        submission
+            .thenCompose(batchIdentifier -> batchTracker.track(batchIdentifier, requests.size()))
+            .whenComplete((result, error) -> {
+                if (BatchQuota.isLimitExceeded(error)) {
+                    requeue(lane, requests);
+                    return;
+                }
+                if (error == null) {
+                    synchronized (this) {
+                        batchLatencyMillis += SMOOTHING_FACTOR * (elapsedMillis(start) - batchLatencyMillis);
+                    }
+                }
+                for (int i = 0; i < requests.size(); i++) {
+                    CompletableFuture<String> future = requests.get(i).future;
+                    if (error != null) {
+                        complete(future, null, error);
+                    } else if (result.getValue(i) != null) {
+                        future.complete(result.getValue(i));
+                    } else {
+                        future.completeExceptionally(new IllegalArgumentException(result.getErrorMessage(i)));
+                    }
+                }
+            });
+    }
+
+    private synchronized void requeue(Lane lane, List<Request> requests) {
+        batchedRequests -= requests.size();
+        Lane target = lanes.computeIfAbsent(lane.key, key -> lane);
+        target.requests.addAll(requests);
+        dispatch();
+    }
+
+    private static void complete(CompletableFuture<String> future, String result, Throwable error) {
+        if (error == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error);
+        }
+    }
+
+    private static double elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000.0;
+    }
+
+    /**
+     * Waiting requests for one operation, chain and sector.
+     */
+    private static final class Lane {
+
+        private final Queue<Request> requests = new ArrayDeque<>();
+
+        private final String key;
+
+        private final Function<String, String> single;
+
+        private final Function<String[], String> batchSubmitter;
+
+        private Lane(String key, Function<String, String> single,
+                     Function<String[], String> batchSubmitter) {
+            this.key = key;
+            this.single = single;
+            this.batchSubmitter = batchSubmitter;
+        }
+    }
+
+    /**
+     * A waiting request.
+     */
+    private static final class Request {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private final String value;
+
+        private Request(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -15,50 +15,340 @@
  */
 package nl.kennisnet.nummervoorziening.client.eckid;
 
+import nl.ketenid.eck.schemas.v1_0.ListedEntityFailure;
+import nl.ketenid.eck.schemas.v1_0.ListedEntitySuccess;
+import nl.ketenid.eck.schemas.v1_0.RetrieveBatchResponse;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Entity with information about generated in batch operation EckIDs.
+ *
+ * The entries are stored in arrays ordered by index: the indexes as primitives, the value or error message of every
+ * entry, and a bit set of the failed entries. Equal error messages are stored once. The map getters copy the entries
+ * into a map in index order the first time they are called; {@link #forEachSuccess(EntryConsumer)} and
+ * {@link #forEachFailure(EntryConsumer)} read the arrays without boxing.
  */
 public class EckIDServiceBatch {
 
+    /**
+     * Receives the entries of a batch, without boxing the index.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        /**
+         * Receives an entry.
+         *
+         * @param index the index of the entry.
+         * @param value the generated value, or the error message of a failed entry.
+         */
+        void accept(int index, String value);
+    }
+
+    /** The indexes of all entries, in ascending order. */
+    private final int[] indexes;
+
+    /** The generated value or error message of every entry, at the position of its index. */
+    private final String[] values;
+
+    /** The positions of the failed entries. */
+    private final BitSet failures;
+
+    private final int failedCount;
+
     private Map<Integer, String> success;
 
     private Map<Integer, String> failed;
 
     /**
-     * Gets the map with indexes of passed hashed PGN as keys and EckIDs as values.
+     * Creates an empty batch.
+     */
+    public EckIDServiceBatch() {
+        this(new int[0], new String[0], new BitSet());
+    }
+
+    private EckIDServiceBatch(int[] indexes, String[] values, BitSet failures) {
+        this.indexes = indexes;
+        this.values = values;
+        this.failures = failures;
+        this.failedCount = failures.cardinality();
+    }
+
+    /**
+     * Creates a batch from maps of generated values and error messages.
+     *
+     * @param success Map with indexes as keys and generated values as values.
+     * @param failed  Map with indexes as keys and error messages as values.
+     */
+    EckIDServiceBatch(Map<Integer, String> success, Map<Integer, String> failed) {
+        this(collect(success, failed));
+    }
+
+    private EckIDServiceBatch(Entries entries) {
+        this(entries.indexes, entries.values, entries.failures);
+    }
+
+    /**
+     * Converts the response of a retrieveBatch operation.
+     *
+     * @param response the retrieveBatch response.
+     * @return the batch with the processed and failed entries of the response, by index.
+     */
+    public static EckIDServiceBatch fromResponse(RetrieveBatchResponse response) {
+        List<ListedEntitySuccess> success = response.getSuccess();
+        List<ListedEntityFailure> failed = response.getFailed();
+        Entries entries = new Entries(success.size() + failed.size());
+
+        // The service lists both in index order, so they are merged without sorting
+        int s = 0;
+        int f = 0;
+        while (s < success.size() || f < failed.size()) {
+            if (f == failed.size()
+                || s < success.size() && success.get(s).getIndex() < failed.get(f).getIndex()) {
+                entries.add(success.get(s).getIndex(), success.get(s).getValue(), false);
+                s++;
+            } else {
+                entries.add(failed.get(f).getIndex(), failed.get(f).getErrorMessage(), true);
+                f++;
+            }
+        }
+        return new EckIDServiceBatch(entries.sorted());
+    }
+
+    /**
+     * Merges batches with distinct indexes, like the chunks of a larger batch.
+     *
+     * @param batches the batches to merge.
+     * @return a batch with the entries of all batches.
+     */
+    static EckIDServiceBatch merge(Collection<EckIDServiceBatch> batches) {
+        int size = 0;
+        for (EckIDServiceBatch batch : batches) {
+            size += batch.indexes.length;
+        }
+        Entries entries = new Entries(size);
+        for (EckIDServiceBatch batch : batches) {
+            for (int position = 0; position < batch.indexes.length; position++) {
+                entries.add(batch.indexes[position], batch.values[position], batch.failures.get(position));
+            }
+        }
+        return new EckIDServiceBatch(entries.sorted());
+    }
+
+    /**
+     * Creates a batch in which all entries failed with the same error message.
+     *
+     * @param indexes      the indexes of the entries.
+     * @param errorMessage the error message.
+     * @return the failed batch.
+     */
+    static EckIDServiceBatch failed(int[] indexes, String errorMessage) {
+        Entries entries = new Entries(indexes.length);
+        for (int index : indexes) {
+            entries.add(index, errorMessage, true);
+        }
+        return new EckIDServiceBatch(entries.sorted());
+    }
+
+    /**
+     * Gets the map with indexes of passed hashed PGN as keys and EckIDs as values. The map is created on the first call
+     * and can be modified; the other getters and {@link #forEachSuccess(EntryConsumer)} do not see the changes.
      *
      * @return Map with indexes of passed hashed PGN as keys and EckIDs as values.
      */
     public Map<Integer, String> getSuccess() {
+        if (success == null) {
+            Map<Integer, String> map = new LinkedHashMap<>(capacity(getSuccessCount()));
+            forEachSuccess(map::put);
+            success = map;
+        }
         return success;
     }
 
     /**
-     * Gets the map with indexes of passed hashed PGN as keys and error messages as values.
+     * Gets the map with indexes of passed hashed PGN as keys and error messages as values. The map is created on the
+     * first call and can be modified; the other getters and {@link #forEachFailure(EntryConsumer)} do not see the
+     * changes.
      *
      * @return Map with indexes of passed hashed PGN as keys and error messages as values.
      */
     public Map<Integer, String> getFailed() {
+        if (failed == null) {
+            Map<Integer, String> map = new LinkedHashMap<>(capacity(failedCount));
+            forEachFailure(map::put);
+            failed = map;
+        }
         return failed;
     }
 
     /**
-     * Sets the map with indexes of passed hashed PGN as keys and EckIDs as values.
+     * Gets the number of generated values.
+     *
+     * @return the number of successful entries.
+     */
+    public int getSuccessCount() {
+        return indexes.length - failedCount;
+    }
+
+    /**
+     * Gets the number of error messages.
      *
-     * @param success Map with indexes of passed hashed PGN as keys and EckIDs as values.
+     * @return the number of failed entries.
      */
-    void setSuccess(Map<Integer, String> success) {
-        this.success = success;
+    public int getFailedCount() {
+        return failedCount;
     }
 
     /**
-     * Sets the map with indexes of passed hashed PGN as keys and error messages as values.
+     * Gets the generated value of an entry.
      *
-     * @param failed Map with indexes of passed hashed PGN as keys and error messages as values.
+     * @param index the index of the entry.
+     * @return the generated value, or null if the entry failed or is not in the batch.
      */
-    void setFailed(Map<Integer, String> failed) {
-        this.failed = failed;
+    public String getValue(int index) {
+        int position = position(index);
+        return position >= 0 && !failures.get(position) ? values[position] : null;
+    }
+
+    /**
+     * Gets the error message of an entry.
+     *
+     * @param index the index of the entry.
+     * @return the error message, or null if the entry succeeded or is not in the batch.
+     */
+    public String getErrorMessage(int index) {
+        int position = position(index);
+        return position >= 0 && failures.get(position) ? values[position] : null;
+    }
+
+    /**
+     * Passes the index and generated value of every successful entry to the consumer, in index order.
+     *
+     * @param consumer the consumer of the entries.
+     */
+    public void forEachSuccess(EntryConsumer consumer) {
+        for (int position = failures.nextClearBit(0); position < indexes.length;
+             position = failures.nextClearBit(position + 1)) {
+            consumer.accept(indexes[position], values[position]);
+        }
+    }
+
+    /**
+     * Passes the index and error message of every failed entry to the consumer, in index order.
+     *
+     * @param consumer the consumer of the entries.
+     */
+    public void forEachFailure(EntryConsumer consumer) {
+        for (int position = failures.nextSetBit(0); position >= 0; position = failures.nextSetBit(position + 1)) {
+            consumer.accept(indexes[position], values[position]);
+        }
+    }
+
+    /**
+     * Finds the position of an index; when the indexes are consecutive, as they usually are, without searching.
+     *
+     * @return the position, or a negative number if the index is not in the batch.
+     */
+    private int position(int index) {
+        int size = indexes.length;
+        if (size == 0) {
+            return -1;
+        }
+        if (indexes[size - 1] - indexes[0] == size - 1) {
+            int position = index - indexes[0];
+            return position >= 0 && position < size ? position : -1;
+        }
+        return Arrays.binarySearch(indexes, index);
+    }
+
+    private static int capacity(int size) {
+        return (int) Math.ceil(size / 0.75);
+    }
+
+    private static Entries collect(Map<Integer, String> success, Map<Integer, String> failed) {
+        Entries entries = new Entries(success.size() + failed.size());
+        success.forEach((index, value) -> entries.add(index, value, false));
+        failed.forEach((index, errorMessage) -> entries.add(index, errorMessage, true));
+        return entries.sorted();
+    }
+
+    /**
+     * Collects entries into the arrays of a batch, and stores equal error messages once.
+     */
+    private static final class Entries {
+
+        private int[] indexes;
+
+        private String[] values;
+
+        private BitSet failures;
+
+        private final Map<String, String> errorMessages = new HashMap<>();
+
+        private int size;
+
+        private boolean ordered = true;
+
+        private Entries(int capacity) {
+            indexes = new int[capacity];
+            values = new String[capacity];
+            failures = new BitSet(capacity);
+        }
+
+        private void add(int index, String value, boolean failed) {
+            if (size > 0 && index <= indexes[size - 1]) {
+                ordered = false;
+            }
+            indexes[size] = index;
+            if (failed) {
+                values[size] = errorMessages.computeIfAbsent(value, message -> message);
+                failures.set(size);
+            } else {
+                values[size] = value;
+            }
+            size++;
+        }
+
+        /**
+         * Orders the entries by index, if they were not added in that order.
+         */
+        private Entries sorted() {
+            if (size < indexes.length) {
+                indexes = Arrays.copyOf(indexes, size);
+                values = Arrays.copyOf(values, size);
+            }
+            if (ordered) {
+                return this;
+            }
+            // Sort the indexes together with their positions, packed in primitive longs
+            long[] order = new long[size];
+            for (int position = 0; position < size; position++) {
+                order[position] = (long) indexes[position] << 32 | position;
+            }
+            Arrays.sort(order);
+            int[] sortedIndexes = new int[size];
+            String[] sortedValues = new String[size];
+            BitSet sortedFailures = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                int position = (int) order[i];
+                sortedIndexes[i] = (int) (order[i] >> 32);
+                if (i > 0 && sortedIndexes[i] == sortedIndexes[i - 1]) {
+                    throw new IllegalStateException("Duplicate index " + sortedIndexes[i] + " in batch.");
+                }
+                sortedValues[i] = values[position];
+                sortedFailures.set(i, failures.get(position));
+            }
+            indexes = sortedIndexes;
+            values = sortedValues;
+            failures = sortedFailures;
+            return this;
+        }
     }
 }
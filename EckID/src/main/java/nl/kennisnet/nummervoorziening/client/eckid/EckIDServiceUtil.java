@@ -16,37 +16,80 @@
 package nl.kennisnet.nummervoorziening.client.eckid;
 
 import nl.kennisnet.nummervoorziening.client.eckid.impl.ConfigurationImpl;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.HPgnCache;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngines;
 import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.transport.EckIDSoapClient;
+import nl.kennisnet.nummervoorziening.client.eckid.transport.HttpClientTransport;
+import nl.kennisnet.nummervoorziening.client.eckid.transport.HttpTransport;
+import nl.kennisnet.nummervoorziening.client.eckid.transport.SoapTransport;
+import nl.kennisnet.nummervoorziening.client.eckid.transport.UrlConnectionTransport;
 import nl.ketenid.eck.schemas.v1_0.*;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
 import javax.xml.datatype.XMLGregorianCalendar;
-import jakarta.xml.ws.Binding;
+import com.sun.xml.ws.developer.JAXWSProperties;
+import com.sun.xml.ws.developer.WSBindingProvider;
 import jakarta.xml.ws.BindingProvider;
-import jakarta.xml.ws.handler.Handler;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import jakarta.xml.ws.soap.SOAPFaultException;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 /**
- * Utility class that helps to work with Web Service.
+ * Utility class that helps to work with Web Service. It can be shared by threads: every operation uses a port of a
+ * bounded pool, so up to the configured pool size operations are executed at the same time.
+ *
+ * The operations are sent by JAX-WS proxies, or with the streaming {@link EckIDSoapClient} if that SOAP engine is
+ * configured; both give the same results and throw the same SOAPFaultException for faults.
  */
-public class EckIDServiceUtil {
+public class EckIDServiceUtil implements Closeable {
+
+    private final EckIDService eckIDService;
+
+    private final EckIDPortPool eckIDPorts;
+
+    private final EckIDSoapClient soapClient;
+
+    /** The SSL context of the https connections of this client, or null for plain http. */
+    private final SSLContext sslContext;
+
+    private final Executor asyncExecutor;
+
+    /** The executor of the asynchronous operations if this client created it, otherwise null. */
+    private final ExecutorService ownedAsyncExecutor;
+
+    private final long chainSectorCacheTtlMillis;
 
-    private final EckIDPort eckIDPort;
+    private ChainSectorCache chainSectorCache;
+
+    private final ResultCache resultCache;
+
+    private final BatchQuota batchQuota;
 
     private final ScryptUtil scryptUtil;
 
-    private static Configuration configuration;
+    /** The first level hash cache opened by this client, or null if no cache file is configured. */
+    private final HPgnCache hashCache;
+
+    /** The configuration of this client; the ports of the pool are created from it on demand. */
+    private final Configuration configuration;
+
+    /** The Instance OIN of the client that was last created from the config.properties file. */
+    private static volatile String configFileInstanceOin;
 
     /**
      * Create a new EckIDServiceUtil based on a config.properties file.
@@ -63,36 +106,115 @@ public class EckIDServiceUtil {
         // execution of program can be started from any subfolder of project.
 
         // Initialize the Configuration class
-        configuration = new ConfigurationImpl(cwdPath);
-        return new EckIDServiceUtil(configuration);
+        Configuration configuration = new ConfigurationImpl(cwdPath);
+        EckIDServiceUtil eckIDServiceUtil = new EckIDServiceUtil(configuration);
+        configFileInstanceOin = configuration.getClientInstanceOin();
+        return eckIDServiceUtil;
     }
 
     /**
      * Initializes class for working with EckID Web Service. Needs to be public for usage in third party applications.
+     * The asynchronous operations are executed by daemon threads, one per port of the pool, which are stopped by
+     * {@link #close()}.
      */
     public EckIDServiceUtil(Configuration configuration) throws GeneralSecurityException {
-        EckIDServiceUtil.configuration = configuration;
+        this(configuration, Executors.newFixedThreadPool(configuration.getPortPoolSize(), runnable -> {
+            Thread thread = new Thread(runnable, "eckid-async");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Initializes class for working with EckID Web Service, with the executor for the asynchronous operations.
+     * An executor with more threads than the port pool size gains nothing, the extra threads wait for a port. The
+     * executor is not shut down by {@link #close()}.
+     *
+     * @param configuration the configuration to use.
+     * @param asyncExecutor the executor that executes the asynchronous operations.
+     */
+    public EckIDServiceUtil(Configuration configuration, Executor asyncExecutor) throws GeneralSecurityException {
+        this(configuration, asyncExecutor, false);
+    }
 
-        EckIDService eckIDService = new EckIDService();
+    private EckIDServiceUtil(Configuration configuration, Executor asyncExecutor, boolean ownsAsyncExecutor)
+        throws GeneralSecurityException {
+        this.configuration = configuration;
+        this.asyncExecutor = asyncExecutor;
+        this.ownedAsyncExecutor = ownsAsyncExecutor ? (ExecutorService) asyncExecutor : null;
+        this.chainSectorCacheTtlMillis = TimeUnit.SECONDS.toMillis(configuration.getChainSectorCacheTtl());
+        this.resultCache = configuration.getResultCacheSize() > 0
+            ? new ResultCache(configuration.getResultCacheSize()) : null;
+        this.batchQuota = new BatchQuota(configuration.getDailyBatchLimit());
+
+        String soapEngine = configuration.getSoapEngine();
+        if (!Configuration.SOAP_ENGINE_JAXWS.equals(soapEngine)
+            && !Configuration.SOAP_ENGINE_STREAMING.equals(soapEngine)) {
+            throw new IllegalArgumentException("Unknown SOAP engine " + soapEngine);
+        }
+        // The JAX-WS runtime sends its messages with HttpURLConnection
+        if (Configuration.HTTP_TRANSPORT_HTTPCLIENT.equals(configuration.getHttpTransport())
+            && !Configuration.SOAP_ENGINE_STREAMING.equals(soapEngine)) {
+            throw new IllegalArgumentException("The " + Configuration.HTTP_TRANSPORT_HTTPCLIENT
+                + " transport needs the " + Configuration.SOAP_ENGINE_STREAMING + " SOAP engine");
+        }
 
-        scryptUtil = new ScryptUtil(configuration.getFirstLevelSalt());
+        // Parsing the WSDL is expensive, so all ports are created from a single service
+        eckIDService = Configuration.SOAP_ENGINE_JAXWS.equals(soapEngine) ? new EckIDService() : null;
+
+        String scryptEngine = configuration.getFirstLevelScryptEngine();
+        hashCache = openHashCache(configuration);
+        scryptUtil = new ScryptUtil(configuration.getFirstLevelSalt(), hashCache,
+            scryptEngine == null ? ScryptEngines.getDefault() : ScryptEngines.byName(scryptEngine));
+
+        // Plain http is only used for local test services, like the stub service; those need no certificates
+        sslContext = configuration.getEndpointAddress().startsWith("http:") ? null
+            : SslContexts.forConfiguration(configuration);
+
+        soapClient = new EckIDSoapClient(new SoapTransport(createHttpTransport(configuration, sslContext),
+            configuration.getClientInstanceOin()));
+        if (eckIDService != null) {
+            eckIDPorts = new EckIDPortPool(configuration.getPortPoolSize(), this::createPort);
+        } else {
+            // The streaming client is thread-safe, the pool only bounds the number of operations at the same time
+            eckIDPorts = new EckIDPortPool(configuration.getPortPoolSize(), () -> soapClient);
+        }
+    }
 
+    /**
+     * Creates a port for the configured endpoint, with WS-Addressing and the From header.
+     *
+     * @return the initialized port.
+     */
+    private EckIDPort createPort() {
         // Explicitly enable WS-Addressing (required by the Nummervoorziening service)
-        eckIDPort = eckIDService.getEckIDSoap10(new jakarta.xml.ws.soap.AddressingFeature(true, true));
+        EckIDPort eckIDPort = eckIDService.getEckIDSoap10(new jakarta.xml.ws.soap.AddressingFeature(true, true));
 
-        BindingProvider bindingProvider = (BindingProvider) eckIDPort;
-        Binding binding = bindingProvider.getBinding();
+        WSBindingProvider bindingProvider = (WSBindingProvider) eckIDPort;
 
         // Override the default endpoint address
-        bindingProvider.getRequestContext().put(bindingProvider.ENDPOINT_ADDRESS_PROPERTY,
+        bindingProvider.getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY,
             configuration.getEndpointAddress());
 
-        // Add a Message Handler to be able to modify the Soap Headers
-        List<Handler> handlerChain = binding.getHandlerChain();
-        handlerChain.add(new AuthorizedSoapHeaderOinInterceptor());
-        binding.setHandlerChain(handlerChain);
+        // Add the From header as a prepared header, so the messages are not turned into a SAAJ tree by a handler
+        bindingProvider.setOutboundHeaders(OinFromHeader.forOin(configuration.getClientInstanceOin()));
+
+        // Use the SSL context of this client instead of the defaults of HttpsURLConnection
+        if (sslContext != null) {
+            bindingProvider.getRequestContext().put(JAXWSProperties.SSL_SOCKET_FACTORY, sslContext.getSocketFactory());
+            bindingProvider.getRequestContext().put(JAXWSProperties.HOSTNAME_VERIFIER, SslContexts.ANY_HOSTNAME);
+        }
+
+        if (configuration.getConnectTimeout() > 0) {
+            bindingProvider.getRequestContext().put(JAXWSProperties.CONNECT_TIMEOUT,
+                configuration.getConnectTimeout());
+        }
+        if (configuration.getRequestTimeout() > 0) {
+            bindingProvider.getRequestContext().put(JAXWSProperties.REQUEST_TIMEOUT,
+                configuration.getRequestTimeout());
+        }
 
-        configureSsl();
+        return eckIDPort;
     }
 
     /**
@@ -101,7 +223,7 @@ public class EckIDServiceUtil {
      * @return true if service available, false - otherwise.
      */
     public boolean isNummervoorzieningServiceAvailable() {
-        return eckIDPort.ping(new PingRequest()).isAvailable();
+        return eckIDPorts.call(port -> port.ping(new PingRequest())).isAvailable();
     }
 
     /**
@@ -110,7 +232,7 @@ public class EckIDServiceUtil {
      * @return current web service application version.
      */
     public String getApplicationVersion() {
-        return eckIDPort.ping(new PingRequest()).getApplicationVersion();
+        return eckIDPorts.call(port -> port.ping(new PingRequest())).getApplicationVersion();
     }
 
     /**
@@ -119,7 +241,39 @@ public class EckIDServiceUtil {
      * @return server's system time.
      */
     public XMLGregorianCalendar getSystemTime() {
-        return eckIDPort.ping(new PingRequest()).getSystemTime();
+        return eckIDPorts.call(port -> port.ping(new PingRequest())).getSystemTime();
+    }
+
+    /**
+     * Gets the cache of the chains and sectors, which is refreshed in the background after the configured time to
+     * live. Use it instead of {@link #getChains()} and {@link #getSectors()} to look up chains and sectors for
+     * every request.
+     *
+     * @return the chain and sector cache.
+     */
+    public synchronized ChainSectorCache getChainSectorCache() {
+        if (chainSectorCache == null) {
+            chainSectorCache = new ChainSectorCache(this, chainSectorCacheTtlMillis);
+        }
+        return chainSectorCache;
+    }
+
+    /**
+     * Gets the number of batches submitted today, and the number that can still be submitted.
+     *
+     * @return the daily batch quota.
+     */
+    public BatchQuota getBatchQuota() {
+        return batchQuota;
+    }
+
+    /**
+     * Gets the cache of retrieved stampseudonyms and EckIDs, for instance for its statistics.
+     *
+     * @return the result cache, or null if results are not cached.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
     }
 
     /**
@@ -128,7 +282,7 @@ public class EckIDServiceUtil {
      * @return list of all active chains.
      */
     public List<Chain> getChains() {
-        return eckIDPort.retrieveChains(new RetrieveChainsRequest()).getChain();
+        return eckIDPorts.call(port -> port.retrieveChains(new RetrieveChainsRequest())).getChain();
     }
 
     /**
@@ -137,7 +291,7 @@ public class EckIDServiceUtil {
      * @return list of all active sectors.
      */
     public List<Sector> getSectors() {
-        return eckIDPort.retrieveSectors(new RetrieveSectorsRequest()).getSector();
+        return eckIDPorts.call(port -> port.retrieveSectors(new RetrieveSectorsRequest())).getSector();
     }
 
     /**
@@ -147,12 +301,18 @@ public class EckIDServiceUtil {
      * @return If no validation or operational errors, a Stampseudonym.
      */
     public String generateStampseudonym(String hpgn) {
+        return resultCache == null ? retrieveStampseudonym(hpgn)
+            : resultCache.getStampseudonym(hpgn, () -> retrieveStampseudonym(hpgn));
+    }
+
+    private String retrieveStampseudonym(String hpgn) {
         RetrieveStampseudonymRequest retrieveStampseudonymRequest = new RetrieveStampseudonymRequest();
         HPgn hpgnWrapper = new HPgn();
         hpgnWrapper.setValue(hpgn);
         retrieveStampseudonymRequest.setHpgn(hpgnWrapper);
 
-        return eckIDPort.retrieveStampseudonym(retrieveStampseudonymRequest).getStampseudonym().getValue();
+        return eckIDPorts.call(port -> port.retrieveStampseudonym(retrieveStampseudonymRequest))
+            .getStampseudonym().getValue();
     }
 
     /**
@@ -164,6 +324,12 @@ public class EckIDServiceUtil {
      * @return If no validation or operational errors, an EckID.
      */
     public String generateEckID(String stampseudonym, String chainGuid, String sectorGuid) {
+        return resultCache == null ? retrieveEckID(stampseudonym, chainGuid, sectorGuid)
+            : resultCache.getEckID(stampseudonym, chainGuid, sectorGuid,
+                () -> retrieveEckID(stampseudonym, chainGuid, sectorGuid));
+    }
+
+    private String retrieveEckID(String stampseudonym, String chainGuid, String sectorGuid) {
         RetrieveEckIdRequest retrieveEckIdRequest = new RetrieveEckIdRequest();
         retrieveEckIdRequest.setChainId(chainGuid);
         retrieveEckIdRequest.setSectorId(sectorGuid);
@@ -172,7 +338,7 @@ public class EckIDServiceUtil {
         stampseudonymWrapper.setValue(stampseudonym);
         retrieveEckIdRequest.setStampseudonym(stampseudonymWrapper);
 
-        return eckIDPort.retrieveEckId(retrieveEckIdRequest).getEckId().getValue();
+        return eckIDPorts.call(port -> port.retrieveEckId(retrieveEckIdRequest)).getEckId().getValue();
     }
 
     /**
@@ -194,7 +360,12 @@ public class EckIDServiceUtil {
         replaceStampseudonymRequest.setHpgnOld(oldHpgn);
         replaceStampseudonymRequest.setEffectiveDate(effectiveDate);
 
-        return eckIDPort.replaceStampseudonym(replaceStampseudonymRequest).getStampseudonym().getValue();
+        String stampseudonym = eckIDPorts.call(port -> port.replaceStampseudonym(replaceStampseudonymRequest))
+            .getStampseudonym().getValue();
+        if (resultCache != null) {
+            resultCache.substitute(newHpgnValue, oldHpgnValue, effectiveDate);
+        }
+        return stampseudonym;
     }
 
     /**
@@ -208,20 +379,62 @@ public class EckIDServiceUtil {
     public String submitEckIdBatch(
         Map<Integer, String> listedStampseudonymMap, String chainGuid, String sectorGuid) {
 
-        SubmitEckIdBatchRequest submitEckIdBatchRequest = new SubmitEckIdBatchRequest();
-        submitEckIdBatchRequest.setChainId(chainGuid);
-        submitEckIdBatchRequest.setSectorId(sectorGuid);
-
+        SubmitEckIdBatchRequest submitEckIdBatchRequest = eckIdBatchRequest(listedStampseudonymMap.size(), chainGuid,
+            sectorGuid);
         for (Map.Entry<Integer, String> entry : listedStampseudonymMap.entrySet()) {
-            ListedStampseudonym listedStampseudonym = new ListedStampseudonym();
-            listedStampseudonym.setIndex(entry.getKey());
-            Stampseudonym stampseudonymWrapper = new Stampseudonym();
-            stampseudonymWrapper.setValue(entry.getValue());
-            listedStampseudonym.setStampseudonym(stampseudonymWrapper);
-            submitEckIdBatchRequest.getStampseudonymList().add(listedStampseudonym);
+            submitEckIdBatchRequest.getStampseudonymList().add(listedStampseudonym(entry.getKey(), entry.getValue()));
+        }
+        return submitEckIdBatch(submitEckIdBatchRequest);
+    }
+
+    /**
+     * Invokes the EckID service to start generating a batch of EckIDs, with the position of every stampseudonym in
+     * the list as its index.
+     *
+     * @param stampseudonyms The Stampseudonym values.
+     * @param chainGuid      A valid chain id.
+     * @param sectorGuid     A valid sector id.
+     * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
+     */
+    public String submitEckIdBatch(List<String> stampseudonyms, String chainGuid, String sectorGuid) {
+        SubmitEckIdBatchRequest submitEckIdBatchRequest = eckIdBatchRequest(stampseudonyms.size(), chainGuid,
+            sectorGuid);
+        int index = 0;
+        for (String stampseudonym : stampseudonyms) {
+            submitEckIdBatchRequest.getStampseudonymList().add(listedStampseudonym(index++, stampseudonym));
         }
+        return submitEckIdBatch(submitEckIdBatchRequest);
+    }
+
+    /**
+     * Invokes the EckID service to start generating a batch of EckIDs, with the position of every stampseudonym in
+     * the array as its index.
+     *
+     * @param stampseudonyms The Stampseudonym values.
+     * @param chainGuid      A valid chain id.
+     * @param sectorGuid     A valid sector id.
+     * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
+     */
+    public String submitEckIdBatch(String[] stampseudonyms, String chainGuid, String sectorGuid) {
+        return submitEckIdBatch(stampseudonyms.length, index -> stampseudonyms[index], chainGuid, sectorGuid);
+    }
 
-        return eckIDPort.submitEckIdBatch(submitEckIdBatchRequest).getBatchIdentifier().getValue();
+    /**
+     * Invokes the EckID service to start generating a batch of EckIDs for the indexes 0 up to the size.
+     *
+     * @param size           The number of stampseudonyms.
+     * @param stampseudonyms Gives the Stampseudonym value of an index.
+     * @param chainGuid      A valid chain id.
+     * @param sectorGuid     A valid sector id.
+     * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
+     */
+    public String submitEckIdBatch(int size, IntFunction<String> stampseudonyms, String chainGuid,
+                                   String sectorGuid) {
+        SubmitEckIdBatchRequest submitEckIdBatchRequest = eckIdBatchRequest(size, chainGuid, sectorGuid);
+        for (int index = 0; index < size; index++) {
+            submitEckIdBatchRequest.getStampseudonymList().add(listedStampseudonym(index, stampseudonyms.apply(index)));
+        }
+        return submitEckIdBatch(submitEckIdBatchRequest);
     }
 
     /**
@@ -231,19 +444,131 @@ public class EckIDServiceUtil {
      * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
      */
     public String submitStampseudonymBatch(Map<Integer, String> listedHPgnMap) {
+        SubmitStampseudonymBatchRequest submitStampseudonymBatchRequest =
+            stampseudonymBatchRequest(listedHPgnMap.size());
+        for (Map.Entry<Integer, String> entry : listedHPgnMap.entrySet()) {
+            submitStampseudonymBatchRequest.getHpgnList().add(listedHpgn(entry.getKey(), entry.getValue()));
+        }
+        return submitStampseudonymBatch(submitStampseudonymBatchRequest);
+    }
+
+    /**
+     * Invokes the EckID service to start generating a batch of stampseudonyms, with the position of every hashed PGN
+     * in the list as its index.
+     *
+     * @param hpgns The HPgn values.
+     * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
+     */
+    public String submitStampseudonymBatch(List<String> hpgns) {
+        SubmitStampseudonymBatchRequest submitStampseudonymBatchRequest = stampseudonymBatchRequest(hpgns.size());
+        int index = 0;
+        for (String hpgn : hpgns) {
+            submitStampseudonymBatchRequest.getHpgnList().add(listedHpgn(index++, hpgn));
+        }
+        return submitStampseudonymBatch(submitStampseudonymBatchRequest);
+    }
+
+    /**
+     * Invokes the EckID service to start generating a batch of stampseudonyms, with the position of every hashed PGN
+     * in the array as its index.
+     *
+     * @param hpgns The HPgn values.
+     * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
+     */
+    public String submitStampseudonymBatch(String[] hpgns) {
+        return submitStampseudonymBatch(hpgns.length, index -> hpgns[index]);
+    }
+
+    /**
+     * Invokes the EckID service to start generating a batch of stampseudonyms for the indexes 0 up to the size.
+     *
+     * @param size  The number of hashed PGNs.
+     * @param hpgns Gives the HPgn value of an index.
+     * @return If no validation or operational errors, identifier of the created batch for retrieving the results.
+     */
+    public String submitStampseudonymBatch(int size, IntFunction<String> hpgns) {
+        SubmitStampseudonymBatchRequest submitStampseudonymBatchRequest = stampseudonymBatchRequest(size);
+        for (int index = 0; index < size; index++) {
+            submitStampseudonymBatchRequest.getHpgnList().add(listedHpgn(index, hpgns.apply(index)));
+        }
+        return submitStampseudonymBatch(submitStampseudonymBatchRequest);
+    }
+
+    private String submitEckIdBatch(SubmitEckIdBatchRequest submitEckIdBatchRequest) {
+        return submitBatch(() -> eckIDPorts.call(port -> port.submitEckIdBatch(submitEckIdBatchRequest))
+            .getBatchIdentifier().getValue());
+    }
+
+    private String submitStampseudonymBatch(SubmitStampseudonymBatchRequest submitStampseudonymBatchRequest) {
+        return submitBatch(() -> eckIDPorts.call(port -> port.submitStampseudonymBatch(submitStampseudonymBatchRequest))
+            .getBatchIdentifier().getValue());
+    }
+
+    /**
+     * Creates a request for a batch of EckIDs, with room for all stampseudonyms in its list.
+     */
+    private static SubmitEckIdBatchRequest eckIdBatchRequest(int size, String chainGuid, String sectorGuid) {
+        SubmitEckIdBatchRequest submitEckIdBatchRequest = new SubmitEckIdBatchRequest();
+        submitEckIdBatchRequest.setChainId(chainGuid);
+        submitEckIdBatchRequest.setSectorId(sectorGuid);
+        ensureCapacity(submitEckIdBatchRequest.getStampseudonymList(), size);
+        return submitEckIdBatchRequest;
+    }
 
+    /**
+     * Creates a request for a batch of stampseudonyms, with room for all hashed PGNs in its list.
+     */
+    private static SubmitStampseudonymBatchRequest stampseudonymBatchRequest(int size) {
         SubmitStampseudonymBatchRequest submitStampseudonymBatchRequest = new SubmitStampseudonymBatchRequest();
+        ensureCapacity(submitStampseudonymBatchRequest.getHpgnList(), size);
+        return submitStampseudonymBatchRequest;
+    }
 
-        for (Map.Entry<Integer, String> entry : listedHPgnMap.entrySet()) {
-            ListedHpgn listedHpgn = new ListedHpgn();
-            listedHpgn.setIndex(entry.getKey());
-            HPgn hpgnWrapper = new HPgn();
-            hpgnWrapper.setValue(entry.getValue());
-            listedHpgn.setHPgn(hpgnWrapper);
-            submitStampseudonymBatchRequest.getHpgnList().add(listedHpgn);
+    /**
+     * Grows the list of a request to its final size at once; the generated classes create their lists on first use.
+     */
+    private static void ensureCapacity(List<?> list, int size) {
+        if (list instanceof ArrayList) {
+            ((ArrayList<?>) list).ensureCapacity(size);
         }
+    }
+
+    private static ListedStampseudonym listedStampseudonym(int index, String stampseudonym) {
+        ListedStampseudonym listedStampseudonym = new ListedStampseudonym();
+        listedStampseudonym.setIndex(index);
+        Stampseudonym stampseudonymWrapper = new Stampseudonym();
+        stampseudonymWrapper.setValue(stampseudonym);
+        listedStampseudonym.setStampseudonym(stampseudonymWrapper);
+        return listedStampseudonym;
+    }
 
-        return eckIDPort.submitStampseudonymBatch(submitStampseudonymBatchRequest).getBatchIdentifier().getValue();
+    private static ListedHpgn listedHpgn(int index, String hpgn) {
+        ListedHpgn listedHpgn = new ListedHpgn();
+        listedHpgn.setIndex(index);
+        HPgn hpgnWrapper = new HPgn();
+        hpgnWrapper.setValue(hpgn);
+        listedHpgn.setHPgn(hpgnWrapper);
+        return listedHpgn;
+    }
+
+    /**
+     * Submits a batch and records the submission, or the refusal because of the daily limit, in the batch quota.
+     *
+     * @param submission the submit operation.
+     * @return the batch identifier.
+     */
+    private String submitBatch(Supplier<String> submission) {
+        String batchIdentifier;
+        try {
+            batchIdentifier = submission.get();
+        } catch (SOAPFaultException e) {
+            if (BatchQuota.isLimitExceeded(e)) {
+                batchQuota.recordLimitExceeded();
+            }
+            throw e;
+        }
+        batchQuota.recordSubmission();
+        return batchIdentifier;
     }
 
     /**
@@ -254,66 +579,326 @@ public class EckIDServiceUtil {
     public EckIDServiceBatch retrieveEckIDBatch(String batchIdentifier) {
         RetrieveBatchRequest request = new RetrieveBatchRequest();
         BatchIdentifier batchIdentifierWrapper = new BatchIdentifier();
-        EckIDServiceBatch eckIDServiceBatch = new EckIDServiceBatch();
 
         batchIdentifierWrapper.setValue(batchIdentifier);
         request.setBatchIdentifier(batchIdentifierWrapper);
-        RetrieveBatchResponse response = eckIDPort.retrieveBatch(request);
 
-        eckIDServiceBatch.setSuccess(response.getSuccess().stream().collect(Collectors.toMap(ListedEntitySuccess::getIndex,
-            ListedEntitySuccess::getValue)));
-        eckIDServiceBatch.setFailed(response.getFailed().stream().collect(Collectors.toMap(ListedEntityFailure::getIndex,
-            ListedEntityFailure::getErrorMessage)));
+        return EckIDServiceBatch.fromResponse(eckIDPorts.call(port -> port.retrieveBatch(request)));
+    }
+
+    /**
+     * Invokes the EckID service to get the generated values of a batch, and passes every entry to a consumer. With the
+     * {@value Configuration#SOAP_ENGINE_STREAMING} SOAP engine the entries are passed on while the response is parsed
+     * and the batch is never held in memory, so the entries can be written to a file or database with a memory use
+     * that does not depend on the size of the batch. With the {@value Configuration#SOAP_ENGINE_JAXWS} SOAP engine the
+     * batch is retrieved as a whole, like {@link #retrieveEckIDBatch(String)}, and then passed on.
+     *
+     * The consumers are called by the calling thread: with the streaming engine in the order of the response, with
+     * the JAX-WS engine first all processed and then all failed entries, each in index order. If the streamed response
+     * can not be read completely, a WebServiceException is thrown after the entries read so far have been passed on.
+     * Like the other operations it counts against the port pool size; with the streaming engine the port stays taken
+     * while the consumers run.
+     *
+     * @param batchIdentifier The identifier of the batch.
+     * @param successConsumer Receives the index and generated value of every processed entry.
+     * @param failureConsumer Receives the index and error message of every failed entry.
+     * @return If no validation or operational errors, the number of entries in the batch.
+     */
+    public int retrieveEckIDBatch(String batchIdentifier, EckIDServiceBatch.EntryConsumer successConsumer,
+                                  EckIDServiceBatch.EntryConsumer failureConsumer) {
+        if (eckIDService != null) {
+            EckIDServiceBatch batch = retrieveEckIDBatch(batchIdentifier);
+            batch.forEachSuccess(successConsumer);
+            batch.forEachFailure(failureConsumer);
+            return batch.getSuccessCount() + batch.getFailedCount();
+        }
+        // The streaming client is thread-safe; the borrowed port only bounds the operations at the same time
+        return eckIDPorts.call(port -> soapClient.retrieveBatch(batchIdentifier, successConsumer, failureConsumer));
+    }
+
+    /**
+     * Asynchronous variant of {@link #isNummervoorzieningServiceAvailable()}.
+     *
+     * @return future that completes with true if service available, false - otherwise.
+     */
+    public CompletableFuture<Boolean> isNummervoorzieningServiceAvailableAsync() {
+        return CompletableFuture.supplyAsync(this::isNummervoorzieningServiceAvailable, asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getApplicationVersion()}.
+     *
+     * @return future that completes with the current web service application version.
+     */
+    public CompletableFuture<String> getApplicationVersionAsync() {
+        return CompletableFuture.supplyAsync(this::getApplicationVersion, asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getSystemTime()}.
+     *
+     * @return future that completes with the server's system time.
+     */
+    public CompletableFuture<XMLGregorianCalendar> getSystemTimeAsync() {
+        return CompletableFuture.supplyAsync(this::getSystemTime, asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getChains()}.
+     *
+     * @return future that completes with the list of all active chains.
+     */
+    public CompletableFuture<List<Chain>> getChainsAsync() {
+        return CompletableFuture.supplyAsync(this::getChains, asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getSectors()}.
+     *
+     * @return future that completes with the list of all active sectors.
+     */
+    public CompletableFuture<List<Sector>> getSectorsAsync() {
+        return CompletableFuture.supplyAsync(this::getSectors, asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #generateStampseudonym(String)}.
+     *
+     * @param hpgn The scrypt hashed PGN.
+     * @return future that completes with the Stampseudonym, or exceptionally with the SOAPFaultException.
+     */
+    public CompletableFuture<String> generateStampseudonymAsync(String hpgn) {
+        return CompletableFuture.supplyAsync(() -> generateStampseudonym(hpgn), asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #generateEckID(String, String, String)}.
+     *
+     * @param stampseudonym The stampseudonym.
+     * @param chainGuid     A valid chain id.
+     * @param sectorGuid    A valid sector id.
+     * @return future that completes with the EckID, or exceptionally with the SOAPFaultException.
+     */
+    public CompletableFuture<String> generateEckIDAsync(String stampseudonym, String chainGuid, String sectorGuid) {
+        return CompletableFuture.supplyAsync(() -> generateEckID(stampseudonym, chainGuid, sectorGuid),
+            asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #replaceStampseudonym(String, String, XMLGregorianCalendar)}.
+     *
+     * @param newHpgnValue  The scrypt hashed new PGN.
+     * @param oldHpgnValue  The scrypt hashed old PGN.
+     * @param effectiveDate The date for the substitution to become active (optional).
+     * @return future that completes with the Stampseudonym, or exceptionally with the SOAPFaultException.
+     */
+    public CompletableFuture<String> replaceStampseudonymAsync(String newHpgnValue, String oldHpgnValue,
+                                                               XMLGregorianCalendar effectiveDate) {
+        return CompletableFuture.supplyAsync(() -> replaceStampseudonym(newHpgnValue, oldHpgnValue, effectiveDate),
+            asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitEckIdBatch(Map, String, String)}.
+     *
+     * @param listedStampseudonymMap Map with Stampseudonym values as values and their indexes as keys.
+     * @param chainGuid              A valid chain id.
+     * @param sectorGuid             A valid sector id.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitEckIdBatchAsync(
+        Map<Integer, String> listedStampseudonymMap, String chainGuid, String sectorGuid) {
 
-        return eckIDServiceBatch;
+        return CompletableFuture.supplyAsync(() -> submitEckIdBatch(listedStampseudonymMap, chainGuid, sectorGuid),
+            asyncExecutor);
     }
 
     /**
-     * Configures SSL/TLS communication and disables certificate validation. It is needed in development if you are
-     * using self signed certificate, this method should not be used in production.
-     * Configure the SSL configuration to be able to connect/use the webservices for test purpose only.
+     * Asynchronous variant of {@link #submitEckIdBatch(List, String, String)}.
+     *
+     * @param stampseudonyms The Stampseudonym values.
+     * @param chainGuid      A valid chain id.
+     * @param sectorGuid     A valid sector id.
+     * @return future that completes with the identifier of the created batch.
      */
-    private void configureSsl() throws GeneralSecurityException {
+    public CompletableFuture<String> submitEckIdBatchAsync(List<String> stampseudonyms, String chainGuid,
+                                                           String sectorGuid) {
+        return CompletableFuture.supplyAsync(() -> submitEckIdBatch(stampseudonyms, chainGuid, sectorGuid),
+            asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitEckIdBatch(String[], String, String)}.
+     *
+     * @param stampseudonyms The Stampseudonym values.
+     * @param chainGuid      A valid chain id.
+     * @param sectorGuid     A valid sector id.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitEckIdBatchAsync(String[] stampseudonyms, String chainGuid,
+                                                           String sectorGuid) {
+        return CompletableFuture.supplyAsync(() -> submitEckIdBatch(stampseudonyms, chainGuid, sectorGuid),
+            asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitEckIdBatch(int, IntFunction, String, String)}. The function is called by
+     * the thread that executes the operation.
+     *
+     * @param size           The number of stampseudonyms.
+     * @param stampseudonyms Gives the Stampseudonym value of an index.
+     * @param chainGuid      A valid chain id.
+     * @param sectorGuid     A valid sector id.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitEckIdBatchAsync(int size, IntFunction<String> stampseudonyms,
+                                                           String chainGuid, String sectorGuid) {
+        return CompletableFuture.supplyAsync(() -> submitEckIdBatch(size, stampseudonyms, chainGuid, sectorGuid),
+            asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitStampseudonymBatch(Map)}.
+     *
+     * @param listedHPgnMap Map with HPgn values as values and their indexes as keys.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitStampseudonymBatchAsync(Map<Integer, String> listedHPgnMap) {
+        return CompletableFuture.supplyAsync(() -> submitStampseudonymBatch(listedHPgnMap), asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitStampseudonymBatch(List)}.
+     *
+     * @param hpgns The HPgn values.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitStampseudonymBatchAsync(List<String> hpgns) {
+        return CompletableFuture.supplyAsync(() -> submitStampseudonymBatch(hpgns), asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitStampseudonymBatch(String[])}.
+     *
+     * @param hpgns The HPgn values.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitStampseudonymBatchAsync(String[] hpgns) {
+        return CompletableFuture.supplyAsync(() -> submitStampseudonymBatch(hpgns), asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #submitStampseudonymBatch(int, IntFunction)}. The function is called by the
+     * thread that executes the operation.
+     *
+     * @param size  The number of hashed PGNs.
+     * @param hpgns Gives the HPgn value of an index.
+     * @return future that completes with the identifier of the created batch.
+     */
+    public CompletableFuture<String> submitStampseudonymBatchAsync(int size, IntFunction<String> hpgns) {
+        return CompletableFuture.supplyAsync(() -> submitStampseudonymBatch(size, hpgns), asyncExecutor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #retrieveEckIDBatch(String)}. While the batch is being processed, the future
+     * completes exceptionally with a SOAPFaultException with the fault actor NotFinishedException.
+     *
+     * @param batchIdentifier The identifier of the batch.
+     * @return future that completes with the failed and processed entries of the batch.
+     */
+    public CompletableFuture<EckIDServiceBatch> retrieveEckIDBatchAsync(String batchIdentifier) {
+        return CompletableFuture.supplyAsync(() -> retrieveEckIDBatch(batchIdentifier), asyncExecutor);
+    }
+
+    /**
+     * Executes an operation with the executor of the asynchronous operations.
+     *
+     * @param operation the operation.
+     * @param <T>       the result type of the operation.
+     * @return future that completes with the result of the operation.
+     */
+    <T> CompletableFuture<T> supplyAsync(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, asyncExecutor);
+    }
+
+    /**
+     * Creates the HTTP transport of the streaming engine.
+     *
+     * @param configuration the configuration to use.
+     * @param sslContext    the SSL context of https connections, or null for plain http.
+     * @return the configured transport.
+     */
+    private static HttpTransport createHttpTransport(Configuration configuration, SSLContext sslContext) {
+        String httpTransport = configuration.getHttpTransport();
+        if (Configuration.HTTP_TRANSPORT_URLCONNECTION.equals(httpTransport)) {
+            return new UrlConnectionTransport(configuration.getEndpointAddress(), configuration.getConnectTimeout(),
+                configuration.getRequestTimeout(), sslContext == null ? null : sslContext.getSocketFactory(),
+                sslContext == null ? null : SslContexts.ANY_HOSTNAME);
+        }
+        if (!Configuration.HTTP_TRANSPORT_HTTPCLIENT.equals(httpTransport)) {
+            throw new IllegalArgumentException("Unknown HTTP transport " + httpTransport);
+        }
+        HttpClient httpClient = HttpClientTransport.createClient(
+            HttpClient.Version.valueOf(configuration.getHttpVersion()),
+            configuration.getConnectTimeout() > 0 ? Duration.ofMillis(configuration.getConnectTimeout()) : null,
+            sslContext);
+        int maxConnections = configuration.getHttpMaxConnections() > 0 ? configuration.getHttpMaxConnections()
+            : configuration.getPortPoolSize();
+        return new HttpClientTransport(configuration.getEndpointAddress(), httpClient, maxConnections,
+            configuration.getRequestTimeout() > 0 ? Duration.ofMillis(configuration.getRequestTimeout()) : null);
+    }
+
+    /**
+     * Opens the first level hash cache, if a cache file is configured.
+     *
+     * @param configuration the configuration to use.
+     * @return the opened cache, or null if no cache file is configured.
+     */
+    private static HPgnCache openHashCache(Configuration configuration) {
+        String cachePath = configuration.getFirstLevelCachePath();
+        if (cachePath == null) {
+            return null;
+        }
         try {
-            // Let's initialize our test keystore which is supplied within this project to simplify
-            // running these tests on different machines. This should not be used in the actual implementation!!!
-
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            InputStream is = EckIDServiceUtil.class.getResourceAsStream(
-                configuration.getCertificateKeyStorePath()
-            );
-
-            // Check if file exists in Class path. If not, retry using absolute path. If still not found, throw
-            // an Exception
-            if (is == null) {
-                is = new FileInputStream(configuration.getCertificateKeyStorePath());
-            }
+            return new HPgnCache(Paths.get(cachePath), configuration.getFirstLevelSalt());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open first level hash cache " + cachePath, e);
+        }
+    }
 
-            keyStore.load(is, configuration.getCertificateKeyStorePassword().toCharArray());
-            is.close();
-            final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            kmf.init(keyStore, configuration.getCertificatePassword().toCharArray());
-
-            // Instead of using the TrustAllX509TrustManager which will trust all certificates we should limit the
-            // certificates which are accepted, to have at least some restriction.
-            // final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            // tmf.init(keyStore);
-
-            // Creates the socket factory for HttpsURLConnection which will use our keystore
-            SSLContext sc = SSLContext.getInstance("TLS");
-            sc.init(kmf.getKeyManagers(), new TrustManager[] { new TrustAllX509TrustManager() }, new java.security.SecureRandom());
-            HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-            HttpsURLConnection.setDefaultHostnameVerifier((hostname, session) -> true);
+    /**
+     * Releases the resources of this client: the threads of the asynchronous operations if the client created them,
+     * the background refresh of the chain and sector cache, the scratch memory of low latency hashes, and the first
+     * level hash cache if this client opened one. Asynchronous operations that are already submitted are still
+     * executed, but the client can not start new ones or hash PGNs afterwards.
+     *
+     * @throws IOException if the cache file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownedAsyncExecutor != null) {
+            ownedAsyncExecutor.shutdown();
         }
-        catch (FileNotFoundException e) {
-            throw new RuntimeException("File " + configuration.getCertificateKeyStorePath() + " not found in " +
-                "classpath and/or filesystem");
+        synchronized (this) {
+            if (chainSectorCache != null) {
+                chainSectorCache.close();
+            }
         }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+        scryptUtil.releaseMemory();
+        if (hashCache != null) {
+            hashCache.close();
         }
     }
 
+    /**
+     * Gets the maximum number of operations that are executed at the same time.
+     *
+     * @return the size of the port pool.
+     */
+    public int getPortPoolSize() {
+        return eckIDPorts.getSize();
+    }
+
     /**
      * Return the Scrypt util instance to use.
      *
@@ -325,11 +910,12 @@ public class EckIDServiceUtil {
 
     /**
      * Retrieves the Instance OIN of the current application. Normally, this OIN will be based on the BRIN number of
-     * the School which wants to use the Nummervoorziening application.
+     * the School which wants to use the Nummervoorziening application. Clients created with a {@link Configuration}
+     * do not change this OIN; they always send their own.
      *
-     * @return The configured Instance OIN
+     * @return The Instance OIN of the client last created by {@link #EckIDServiceUtilFromConfigFile()}
      */
     static String getInstanceOin() {
-        return configuration.getClientInstanceOin();
+        return configFileInstanceOin;
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import com.sun.xml.ws.api.SOAPVersion;
+import com.sun.xml.ws.api.message.Header;
+import com.sun.xml.ws.api.message.Headers;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The WS-Addressing From header with the Instance OIN, which the Nummervoorziening service requires on every message.
+ *
+ * The header is the same for every message of a client, so it is created once per OIN as a pre-parsed header for
+ * the JAX-WS runtime. Set as outbound header of a port, it is written into the stream of every message; unlike a
+ * SOAPHandler, it does not turn the messages into a SAAJ tree.
+ */
+public final class OinFromHeader {
+
+    // The Namespace of the WS-Addressing version
+    private static final String ADDRESSING_NS = "http://www.w3.org/2005/08/addressing";
+
+    // The suffix used in the Address elements as defined by Edukoppeling
+    private static final String ANONYMOUS_OIN = ADDRESSING_NS + "/anonymous?oin=";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    private static final Map<String, Header> HEADERS = new ConcurrentHashMap<>();
+
+    /**
+     * This class should not be instantiated.
+     */
+    private OinFromHeader() { }
+
+    /**
+     * Gets the From header for an Instance OIN. The header can be shared by ports and threads.
+     *
+     * @param oin the Instance OIN.
+     * @return the header.
+     */
+    public static Header forOin(String oin) {
+        return HEADERS.computeIfAbsent(oin, OinFromHeader::createHeader);
+    }
+
+    /**
+     * Gets the address of the From header for an Instance OIN.
+     *
+     * @param oin the Instance OIN.
+     * @return the anonymous address with the OIN.
+     */
+    public static String getAddress(String oin) {
+        return ANONYMOUS_OIN + oin;
+    }
+
+    private static Header createHeader(String oin) {
+        String address = getAddress(oin).replace("&", "&amp;").replace("<", "&lt;");
+        String header = "<From xmlns=\"" + ADDRESSING_NS + "\"><Address>" + address + "</Address></From>";
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(header));
+            reader.nextTag();
+            return Headers.create(SOAPVersion.SOAP_11, reader);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not create the From header", e);
+        }
+    }
+}
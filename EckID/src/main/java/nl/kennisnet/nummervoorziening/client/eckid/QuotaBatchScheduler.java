@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Generates stampseudonyms or EckIDs of any number of entries within the daily batch quota. The entries are packed
+ * in as few batches as possible, all (nearly) equally full. When the quota does not allow enough batches, the
+ * remaining entries are sent as throttled single calls, or wait for the next day, depending on the fallback.
+ *
+ * The limit is reached when the {@link BatchQuota} of the client says so, or when the service refuses a batch; the
+ * entries of a refused batch fall back as well, instead of failing.
+ */
+public class QuotaBatchScheduler {
+
+    /** The default maximum number of entries per batch. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = ChunkedBatchSubmitter.DEFAULT_CHUNK_SIZE;
+
+    /** The default maximum number of single calls per second when the quota is used up. */
+    public static final double DEFAULT_SINGLE_CALL_RATE = 10;
+
+    /**
+     * What happens to the entries that do not fit in the remaining batches of today.
+     */
+    public enum Fallback {
+        /** The entries are sent as single calls, at most at the single call rate. */
+        SINGLE_CALLS,
+        /** The entries are submitted as batches when the next day starts. */
+        NEXT_WINDOW
+    }
+
+    private final EckIDServiceUtil eckIDServiceUtil;
+
+    private final BatchTracker batchTracker;
+
+    private final int maxBatchSize;
+
+    private Fallback fallback = Fallback.SINGLE_CALLS;
+
+    private double singleCallRate = DEFAULT_SINGLE_CALL_RATE;
+
+    /**
+     * Creates a scheduler with the default maximum batch size.
+     *
+     * @param eckIDServiceUtil the client to submit the batches with, which keeps track of the quota.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     */
+    public QuotaBatchScheduler(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker) {
+        this(eckIDServiceUtil, batchTracker, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param eckIDServiceUtil the client to submit the batches with, which keeps track of the quota.
+     * @param batchTracker     the tracker that waits for the submitted batches.
+     * @param maxBatchSize     the maximum number of entries per batch.
+     */
+    public QuotaBatchScheduler(EckIDServiceUtil eckIDServiceUtil, BatchTracker batchTracker, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("The batch size should be at least 1.");
+        }
+        this.eckIDServiceUtil = eckIDServiceUtil;
+        this.batchTracker = batchTracker;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets what happens to the entries that do not fit in the remaining batches of today.
+     *
+     * @param fallback the fallback, by default {@link Fallback#SINGLE_CALLS}.
+     */
+    public void setFallback(Fallback fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Sets the maximum number of single calls per second when the quota is used up.
+     *
+     * @param singleCallRate the number of calls per second.
+     */
+    public void setSingleCallRate(double singleCallRate) {
+        if (singleCallRate <= 0) {
+            throw new IllegalArgumentException("The single call rate should be positive.");
+        }
+        this.singleCallRate = singleCallRate;
+    }
+
+    /**
+     * Generates the stampseudonyms of any number of hashed PGNs.
+     *
+     * @param listedHPgnMap Map with HPgn values as values and their indexes as keys.
+     * @return the stampseudonyms and error messages of all entries, by index.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batches or the next day.
+     */
+    public EckIDServiceBatch processStampseudonymBatch(Map<Integer, String> listedHPgnMap)
+        throws InterruptedException {
+
+        return process(listedHPgnMap, ChunkedBatchSubmitter::processStampseudonymBatch,
+            eckIDServiceUtil::generateStampseudonym);
+    }
+
+    /**
+     * Generates the EckIDs of any number of stampseudonyms.
+     *
+     * @param listedStampseudonymMap Map with Stampseudonym values as values and their indexes as keys.
+     * @param chainGuid              A valid chain id.
+     * @param sectorGuid             A valid sector id.
+     * @return the EckIDs and error messages of all entries, by index.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batches or the next day.
+     */
+    public EckIDServiceBatch processEckIdBatch(Map<Integer, String> listedStampseudonymMap, String chainGuid,
+                                               String sectorGuid) throws InterruptedException {
+        return process(listedStampseudonymMap,
+            (submitter, chunk, failedChunks) -> submitter.processEckIdBatch(chunk, chainGuid, sectorGuid,
+                failedChunks),
+            stampseudonym -> eckIDServiceUtil.generateEckID(stampseudonym, chainGuid, sectorGuid));
+    }
+
+    private EckIDServiceBatch process(Map<Integer, String> input, BatchOperation batchOperation,
+                                      Function<String, String> single) throws InterruptedException {
+        Map<Integer, String> success = new HashMap<>();
+        Map<Integer, String> failed = new HashMap<>();
+        TreeMap<Integer, String> pending = new TreeMap<>(input);
+        BatchQuota batchQuota = eckIDServiceUtil.getBatchQuota();
+
+        while (!pending.isEmpty()) {
+            int remaining = batchQuota.getRemaining();
+            if (remaining > 0) {
+                int neededBatches = (pending.size() + maxBatchSize - 1) / maxBatchSize;
+                int batches = Math.min(remaining, neededBatches);
+                // Spread the entries evenly when they fit, otherwise fill the remaining batches completely
+                int batchSize = batches == neededBatches ? (pending.size() + batches - 1) / batches : maxBatchSize;
+                Map<Integer, String> batched = take(pending, (long) batches * batchSize);
+
+                // The entries of chunks that the service refused because of the daily limit fall back
+                Set<Integer> refused = new HashSet<>();
+                EckIDServiceBatch result = batchOperation.process(
+                    new ChunkedBatchSubmitter(eckIDServiceUtil, batchTracker, batchSize,
+                        ChunkedBatchSubmitter.DEFAULT_MAX_PENDING_CHUNKS), batched, (indexes, error) -> {
+                        if (BatchQuota.isLimitExceeded(error)) {
+                            for (int index : indexes) {
+                                refused.add(index);
+                            }
+                        }
+                    });
+                result.forEachSuccess(success::put);
+                result.forEachFailure((index, errorMessage) -> {
+                    if (refused.contains(index)) {
+                        pending.put(index, batched.get(index));
+                    } else {
+                        failed.put(index, errorMessage);
+                    }
+                });
+            } else if (fallback == Fallback.SINGLE_CALLS) {
+                callSingly(pending, single, success, failed);
+                pending.clear();
+            } else {
+                Duration wait = Duration.between(Instant.now(), batchQuota.getNextWindow());
+                if (!wait.isNegative()) {
+                    TimeUnit.MILLISECONDS.sleep(wait.toMillis() + 1);
+                }
+            }
+        }
+
+        return new EckIDServiceBatch(success, failed);
+    }
+
+    private void callSingly(Map<Integer, String> entries, Function<String, String> single,
+                            Map<Integer, String> success, Map<Integer, String> failed) throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / singleCallRate);
+        long nextCall = System.nanoTime();
+        Map<Integer, CompletableFuture<String>> calls = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : entries.entrySet()) {
+            long wait = nextCall - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            nextCall += intervalNanos;
+            String value = entry.getValue();
+            calls.put(entry.getKey(), eckIDServiceUtil.supplyAsync(() -> single.apply(value)));
+        }
+        for (Map.Entry<Integer, CompletableFuture<String>> call : calls.entrySet()) {
+            try {
+                success.put(call.getKey(), call.getValue().get());
+            } catch (ExecutionException e) {
+                failed.put(call.getKey(), ChunkedBatchSubmitter.errorMessage(e.getCause()));
+            }
+        }
+    }
+
+    private static Map<Integer, String> take(TreeMap<Integer, String> pending, long count) {
+        Map<Integer, String> taken = new HashMap<>();
+        Iterator<Map.Entry<Integer, String>> entries = pending.entrySet().iterator();
+        while (entries.hasNext() && taken.size() < count) {
+            Map.Entry<Integer, String> entry = entries.next();
+            taken.put(entry.getKey(), entry.getValue());
+            entries.remove();
+        }
+        return taken;
+    }
+
+    /**
+     * Processes entries in batches of the chunk size of the given submitter, and reports the failed chunks.
+     */
+    @FunctionalInterface
+    private interface BatchOperation {
+
+        EckIDServiceBatch process(ChunkedBatchSubmitter submitter, Map<Integer, String> entries,
+                                  ChunkedBatchSubmitter.FailedChunkListener failedChunks) throws InterruptedException;
+    }
+}
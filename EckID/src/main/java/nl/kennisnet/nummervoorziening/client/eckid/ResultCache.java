@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the stampseudonyms of hashed PGNs and the EckIDs of stampseudonyms, evicting the least recently
+ * used entries. Both mappings only change by a substitution: {@link #substitute(String, String, XMLGregorianCalendar)}
+ * evicts the stampseudonyms that are affected, right away or at the effective date of the substitution.
+ *
+ * Substitutions submitted by other clients are not seen, so the cache should only be used by applications that
+ * submit all substitutions of their PGNs themselves.
+ */
+public class ResultCache {
+
+    private final Map<String, String> stampseudonyms;
+
+    private final Map<String, String> eckIds;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /** Incremented on every eviction by a substitution, so results retrieved before it are not cached. */
+    private long generation;
+
+    /** The first moment (in milliseconds since the epoch) a scheduled substitution becomes effective. */
+    private long nextSubstitutionAt = Long.MAX_VALUE;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the maximum number of stampseudonyms, and the maximum number of EckIDs, to keep.
+     */
+    public ResultCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache should hold at least one entry.");
+        }
+        this.stampseudonyms = new LruMap(maxEntries);
+        this.eckIds = new LruMap(maxEntries);
+    }
+
+    /**
+     * Gets the cached stampseudonym of a hashed PGN, or retrieves and caches it.
+     *
+     * @param hpgn     The scrypt hashed PGN.
+     * @param retrieve retrieves the stampseudonym if it is not cached.
+     * @return the stampseudonym.
+     */
+    public String getStampseudonym(String hpgn, Supplier<String> retrieve) {
+        return get(stampseudonyms, hpgn.toLowerCase(), retrieve);
+    }
+
+    /**
+     * Gets the cached EckID of a stampseudonym, or retrieves and caches it.
+     *
+     * @param stampseudonym The stampseudonym.
+     * @param chainGuid     A valid chain id.
+     * @param sectorGuid    A valid sector id.
+     * @param retrieve      retrieves the EckID if it is not cached.
+     * @return the EckID.
+     */
+    public String getEckID(String stampseudonym, String chainGuid, String sectorGuid, Supplier<String> retrieve) {
+        return get(eckIds, chainGuid + '|' + sectorGuid + '|' + stampseudonym, retrieve);
+    }
+
+    /**
+     * Evicts the stampseudonyms that change by a substitution: those of the new and old hashed PGN, and of all hashed
+     * PGNs with the same cached stampseudonym as the new one. The EckIDs of stampseudonyms do not change.
+     *
+     * @param newHpgn       The scrypt hashed new PGN.
+     * @param oldHpgn       The scrypt hashed old PGN.
+     * @param effectiveDate The date the substitution becomes active, or null if it is active immediately.
+     */
+    public synchronized void substitute(String newHpgn, String oldHpgn, XMLGregorianCalendar effectiveDate) {
+        long effectiveAt = effectiveDate == null ? 0 : effectiveDate.toGregorianCalendar().getTimeInMillis();
+        if (effectiveAt > System.currentTimeMillis()) {
+            // All stampseudonyms are evicted at the effective date, as the ones to evict are not known by then
+            nextSubstitutionAt = Math.min(nextSubstitutionAt, effectiveAt);
+        }
+        String replaced = stampseudonyms.get(newHpgn.toLowerCase());
+        if (replaced != null) {
+            stampseudonyms.values().removeIf(replaced::equals);
+        }
+        stampseudonyms.remove(oldHpgn.toLowerCase());
+        generation++;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        stampseudonyms.clear();
+        eckIds.clear();
+        generation++;
+    }
+
+    /**
+     * Gets the number of lookups that were answered from the cache.
+     *
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to be retrieved.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the part of the lookups that was answered from the cache.
+     *
+     * @return the hit rate from 0 to 1, or 0 if there were no lookups yet.
+     */
+    public double getHitRate() {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the number of cached stampseudonyms and EckIDs.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return stampseudonyms.size() + eckIds.size();
+    }
+
+    private String get(Map<String, String> map, String key, Supplier<String> retrieve) {
+        long retrievedGeneration;
+        synchronized (this) {
+            if (System.currentTimeMillis() >= nextSubstitutionAt) {
+                stampseudonyms.clear();
+                nextSubstitutionAt = Long.MAX_VALUE;
+                generation++;
+            }
+            String value = map.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            retrievedGeneration = generation;
+        }
+        misses.increment();
+        // Retrieved without holding the lock, so other lookups are not blocked by the service call
+        String value = retrieve.get();
+        synchronized (this) {
+            if (generation == retrievedGeneration) {
+                map.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Map in access order that removes the least recently used entry when it is full.
+     */
+    private static final class LruMap extends LinkedHashMap<String, String> {
+
+        private final int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
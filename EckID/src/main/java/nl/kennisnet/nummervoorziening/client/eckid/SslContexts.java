@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * The SSL contexts of the clients, with the client certificate of their keystore. A context is created once per
+ * keystore, passwords and TLS session options, and shared by all clients with these settings, so the keystore is read
+ * once, and a connection of any of these clients resumes the TLS sessions of earlier connections to the service
+ * instead of doing a full handshake. The contexts are passed to the HTTP clients of the EckIDServiceUtil only; the
+ * JVM-wide defaults of HttpsURLConnection are left as they are.
+ *
+ * The contexts trust every server certificate, for test purpose only. HttpURLConnection does not check the host name
+ * either with {@link #ANY_HOSTNAME}, the HttpClient transport does.
+ */
+public final class SslContexts {
+
+    /** Accepts every host name. */
+    public static final HostnameVerifier ANY_HOSTNAME = (hostname, session) -> true;
+
+    /** The contexts by keystore path, fingerprint of the passwords and session options; guarded by the class. */
+    private static final Map<String, SSLContext> CONTEXTS = new HashMap<>();
+
+    private SslContexts() {
+    }
+
+    /**
+     * Gets the SSL context for the keystore of a configuration, and creates it if it is the first client with this
+     * keystore, these passwords and these session options. The session cache is configured when the context is created.
+     *
+     * @param configuration the configuration with the keystore and the TLS session options.
+     * @return the shared context.
+     * @throws GeneralSecurityException if the keystore or the certificate can not be used.
+     */
+    public static synchronized SSLContext forConfiguration(Configuration configuration)
+        throws GeneralSecurityException {
+        String key = key(configuration);
+        SSLContext context = CONTEXTS.get(key);
+        if (context == null) {
+            context = createContext(configuration);
+            CONTEXTS.put(key, context);
+        }
+        return context;
+    }
+
+    /**
+     * Determines the key of the context of a configuration. The passwords are only part of it as a digest, so they are
+     * not kept in memory longer than the configuration does.
+     */
+    private static String key(Configuration configuration) throws GeneralSecurityException {
+        MessageDigest passwords = MessageDigest.getInstance("SHA-256");
+        String keyStorePassword = String.valueOf(configuration.getCertificateKeyStorePassword());
+        passwords.update(keyStorePassword.getBytes(StandardCharsets.UTF_8));
+        passwords.update((byte) 0);
+        passwords.update(String.valueOf(configuration.getCertificatePassword()).getBytes(StandardCharsets.UTF_8));
+        return configuration.getCertificateKeyStorePath() + '|' + HexFormat.of().formatHex(passwords.digest()) + '|'
+            + configuration.getTlsSessionCacheSize() + '|' + configuration.getTlsSessionTimeout();
+    }
+
+    private static SSLContext createContext(Configuration configuration) throws GeneralSecurityException {
+        // Let's initialize our test keystore which is supplied within this project to simplify
+        // running these tests on different machines. This should not be used in the actual implementation!!!
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream is = openKeyStore(configuration.getCertificateKeyStorePath())) {
+            keyStore.load(is, configuration.getCertificateKeyStorePassword().toCharArray());
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("File " + configuration.getCertificateKeyStorePath() + " not found in " +
+                "classpath and/or filesystem");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, configuration.getCertificatePassword().toCharArray());
+
+        // Instead of using the TrustAllX509TrustManager which will trust all certificates we should limit the
+        // certificates which are accepted, to have at least some restriction.
+        // final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        // tmf.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), new TrustManager[] { new TrustAllX509TrustManager() }, new SecureRandom());
+
+        // The sessions of the service are resumed from this cache
+        SSLSessionContext sessions = context.getClientSessionContext();
+        if (configuration.getTlsSessionCacheSize() > 0) {
+            sessions.setSessionCacheSize(configuration.getTlsSessionCacheSize());
+        }
+        if (configuration.getTlsSessionTimeout() > 0) {
+            sessions.setSessionTimeout(configuration.getTlsSessionTimeout());
+        }
+        return context;
+    }
+
+    /**
+     * Opens a keystore from the class path, or else from the file system.
+     */
+    private static InputStream openKeyStore(String path) throws FileNotFoundException {
+        InputStream is = SslContexts.class.getResourceAsStream(path);
+        return is != null ? is : new FileInputStream(path);
+    }
+}
@@ -107,6 +107,154 @@ public class ConfigurationImpl implements Configuration {
         return properties.getProperty(PROPERTIES_FIRST_LEVEL_SALT);
     }
 
+    /**
+     * Gets the configured path of the first level hash cache file.
+     * @return the path of the cache file, or null if hashes should not be cached.
+     */
+    @Override
+    public String getFirstLevelCachePath() {
+        return getOptionalProperty(PROPERTIES_FIRST_LEVEL_CACHE_PATH);
+    }
+
+    /**
+     * Gets the configured name of the scrypt engine for the first level hash.
+     * @return the name of the scrypt engine, or null to select the fastest engine for this platform.
+     */
+    @Override
+    public String getFirstLevelScryptEngine() {
+        return getOptionalProperty(PROPERTIES_FIRST_LEVEL_SCRYPT_ENGINE);
+    }
+
+    /**
+     * Gets the configured number of EckIDPort proxies, which is the maximum number of operations that are executed
+     * at the same time.
+     * @return the size of the port pool.
+     */
+    @Override
+    public int getPortPoolSize() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_PORT_POOL_SIZE);
+        return value == null ? DEFAULT_PORT_POOL_SIZE : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured time after which the cached chains and sectors are refreshed.
+     * @return the time to live of the chain and sector cache, in seconds.
+     */
+    @Override
+    public long getChainSectorCacheTtl() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_CHAIN_SECTOR_CACHE_TTL);
+        return value == null ? DEFAULT_CHAIN_SECTOR_CACHE_TTL : Long.parseLong(value);
+    }
+
+    /**
+     * Gets the configured maximum number of cached stampseudonyms, which is also the maximum number of cached EckIDs.
+     * @return the size of the result cache, or 0 if results are not cached.
+     */
+    @Override
+    public int getResultCacheSize() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_RESULT_CACHE_SIZE);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured number of batches that can be submitted per day.
+     * @return the daily batch limit, or 0 if it is not known.
+     */
+    @Override
+    public int getDailyBatchLimit() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_DAILY_BATCH_LIMIT);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured engine that sends the operations to the service.
+     * @return {@value #SOAP_ENGINE_JAXWS} or {@value #SOAP_ENGINE_STREAMING}.
+     */
+    @Override
+    public String getSoapEngine() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_SOAP_ENGINE);
+        return value == null ? SOAP_ENGINE_JAXWS : value;
+    }
+
+    /**
+     * Gets the configured HTTP client of the streaming engine.
+     * @return {@value #HTTP_TRANSPORT_URLCONNECTION} or {@value #HTTP_TRANSPORT_HTTPCLIENT}.
+     */
+    @Override
+    public String getHttpTransport() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_HTTP_TRANSPORT);
+        return value == null ? HTTP_TRANSPORT_URLCONNECTION : value;
+    }
+
+    /**
+     * Gets the configured HTTP version of the HttpClient transport.
+     * @return HTTP_2 or HTTP_1_1.
+     */
+    @Override
+    public String getHttpVersion() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_HTTP_VERSION);
+        return value == null ? "HTTP_2" : value;
+    }
+
+    /**
+     * Gets the configured maximum number of requests that the HttpClient transport has in progress at the same time.
+     * @return the maximum number of requests, or 0 to use the port pool size.
+     */
+    @Override
+    public int getHttpMaxConnections() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_HTTP_MAX_CONNECTIONS);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured time to wait for a connection to the service.
+     * @return the connect timeout in milliseconds, or 0 to wait without a limit.
+     */
+    @Override
+    public int getConnectTimeout() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_CONNECT_TIMEOUT);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured time to wait for the response of the service.
+     * @return the request timeout in milliseconds, or 0 to wait without a limit.
+     */
+    @Override
+    public int getRequestTimeout() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_REQUEST_TIMEOUT);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured maximum number of TLS sessions that are kept to resume them.
+     * @return the size of the session cache, or 0 to use the default of the JDK.
+     */
+    @Override
+    public int getTlsSessionCacheSize() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_TLS_SESSION_CACHE_SIZE);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the configured time that a TLS session can be resumed.
+     * @return the session timeout in seconds, or 0 to use the default of the JDK.
+     */
+    @Override
+    public int getTlsSessionTimeout() {
+        String value = getOptionalProperty(PROPERTIES_CLIENT_TLS_SESSION_TIMEOUT);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the trimmed value of an optional property.
+     * @return the value, or null if the property is missing or empty.
+     */
+    private String getOptionalProperty(String key) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
     /**
      * Sets the configured path to the Certificate Keystore as provided in the config.properties file.     *
      */
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import org.bouncycastle.crypto.generators.SCrypt;
+
+/**
+ * Scrypt engine using the Bouncy Castle lightweight crypto API.
+ */
+public class BouncyCastleScryptEngine implements ScryptEngine {
+
+    @Override
+    public String getName() {
+        return "bouncycastle";
+    }
+
+    @Override
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) {
+        return SCrypt.generate(passwd, salt, N, r, p, dkLen);
+    }
+}
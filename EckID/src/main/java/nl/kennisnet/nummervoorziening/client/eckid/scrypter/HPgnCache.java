@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.lambdaworks.codec.Base64.decode;
+
+/**
+ * Persistent cache of first level hashes, stored as an open addressing hash table in a memory-mapped file.
+ *
+ * The file starts with a header holding a fingerprint of the first level salt, followed by fixed size slots of 64
+ * bytes: 28 bytes of the key, a 4 byte checksum and the 32 byte hash. The key is an HMAC-SHA256 of the lower cased PGN,
+ * keyed by the decoded salt. The salt itself is never written to the file, and the fingerprint in the header is a
+ * separate digest that only detects a salt change, so the keys can not be recalculated for candidate PGNs from the file
+ * alone.
+ *
+ * Several JVMs on the same host can share the file. Lookups do not lock, a torn or half written slot is detected by
+ * its checksum and treated as a miss. Writes are serialized by a file lock. When the file was created for another
+ * salt, it is cleared in place on opening and lookups of processes still using the old salt will miss from then on.
+ * The file is never truncated or resized once it exists, as other processes may have it mapped; opening it with
+ * another capacity fails.
+ */
+public class HPgnCache implements Closeable {
+
+    /** The default number of slots: 1M slots take 64 MB and hold up to 768K hashes. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private static final int MAGIC = 0x48504743;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int CAPACITY_OFFSET = 8;
+
+    private static final int COUNT_OFFSET = 12;
+
+    private static final int FINGERPRINT_OFFSET = 16;
+
+    private static final int FINGERPRINT_SIZE = 32;
+
+    /** Separates the fingerprint of the salt in the header from any other digest of the salt. */
+    private static final byte[] FINGERPRINT_DOMAIN = "hpgn-cache-v1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String KEY_ALGORITHM = "HmacSHA256";
+
+    private static final int SLOT_SIZE = 64;
+
+    private static final int KEY_SIZE = 28;
+
+    private static final int CHECKSUM_OFFSET = KEY_SIZE;
+
+    private static final int HASH_OFFSET = 32;
+
+    private static final int HASH_SIZE = 32;
+
+    /** New hashes are no longer added when this part of the slots is in use, to keep probe sequences short. */
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    /** File locks are held per JVM, so writers within this JVM are serialized on a lock per file as well. */
+    private static final Map<Path, Object> WRITE_LOCKS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final Object writeLock;
+
+    private final byte[] saltFingerprint;
+
+    /** The decoded salt, as key of the HMAC of the slot keys. */
+    private final SecretKeySpec keySecret;
+
+    private final int capacity;
+
+    /**
+     * Opens or creates a cache file with the default capacity.
+     *
+     * @param file the cache file.
+     * @param salt the first level salt the cached hashes are calculated with.
+     * @throws IOException if the cache file can not be opened or created.
+     */
+    public HPgnCache(Path file, String salt) throws IOException {
+        this(file, salt, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens or creates a cache file. An existing file with a different salt is cleared.
+     *
+     * @param file     the cache file.
+     * @param salt     the first level salt the cached hashes are calculated with.
+     * @param capacity the number of slots, rounded up to a power of two.
+     * @throws IOException if the cache file can not be opened or created, or is not a cache file with this capacity.
+     */
+    public HPgnCache(Path file, String salt, int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The cache capacity should be between 1 and " + MAX_CAPACITY + ".");
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        byte[] decodedSalt = decode(salt.toCharArray());
+        this.saltFingerprint = sha256(FINGERPRINT_DOMAIN, decodedSalt);
+        this.keySecret = new SecretKeySpec(decodedSalt, KEY_ALGORITHM);
+
+        Path absoluteFile = file.toAbsolutePath().normalize();
+        this.writeLock = WRITE_LOCKS.computeIfAbsent(absoluteFile, path -> new Object());
+        this.channel = FileChannel.open(absoluteFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        long size = HEADER_SIZE + (long) SLOT_SIZE * this.capacity;
+
+        try {
+            synchronized (writeLock) {
+                try (FileLock ignored = channel.lock()) {
+                    prepare(size);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Looks up the cached hash for a PGN.
+     *
+     * @param pgn the PGN, it is lower cased the same way as for hashing.
+     * @return the 32 byte hash, or null if it is not cached.
+     */
+    public byte[] get(String pgn) {
+        if (!hasCurrentSalt()) {
+            return null;
+        }
+        byte[] key = key(pgn);
+        byte[] slot = new byte[SLOT_SIZE];
+        int mask = capacity - 1;
+        for (int probe = 0, index = slotIndex(key); probe < capacity; probe++, index = (index + 1) & mask) {
+            readSlot(index, slot);
+            if (isEmpty(slot)) {
+                return null;
+            }
+            if (Arrays.equals(slot, 0, KEY_SIZE, key, 0, KEY_SIZE)) {
+                return checksum(slot) == readChecksum(slot)
+                    ? Arrays.copyOfRange(slot, HASH_OFFSET, HASH_OFFSET + HASH_SIZE) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the hash for a PGN. Nothing is stored when the cache is full or the file has been taken over by a
+     * process using another salt.
+     *
+     * @param pgn  the PGN, it is lower cased the same way as for hashing.
+     * @param hash the 32 byte hash.
+     * @return true if the hash is stored.
+     * @throws IOException if the file lock can not be acquired.
+     */
+    public boolean put(String pgn, byte[] hash) throws IOException {
+        if (hash.length != HASH_SIZE) {
+            throw new IllegalArgumentException("Only hashes of " + HASH_SIZE + " bytes can be cached.");
+        }
+        byte[] key = key(pgn);
+        byte[] slot = new byte[SLOT_SIZE];
+        int mask = capacity - 1;
+
+        synchronized (writeLock) {
+            try (FileLock ignored = channel.lock()) {
+                if (!hasCurrentSalt()) {
+                    return false;
+                }
+                for (int probe = 0, index = slotIndex(key); probe < capacity; probe++, index = (index + 1) & mask) {
+                    readSlot(index, slot);
+                    boolean empty = isEmpty(slot);
+                    if (empty && buffer.getInt(COUNT_OFFSET) >= capacity * MAX_LOAD_FACTOR) {
+                        return false;
+                    }
+                    if (empty || Arrays.equals(slot, 0, KEY_SIZE, key, 0, KEY_SIZE)) {
+                        System.arraycopy(key, 0, slot, 0, KEY_SIZE);
+                        System.arraycopy(hash, 0, slot, HASH_OFFSET, HASH_SIZE);
+                        writeSlot(index, slot);
+                        if (empty) {
+                            buffer.putInt(COUNT_OFFSET, buffer.getInt(COUNT_OFFSET) + 1);
+                        }
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of cached hashes.
+     *
+     * @return the number of cached hashes.
+     */
+    public int size() {
+        return buffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * Writes all changes to disk and closes the cache file.
+     *
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Creates the table in a new file, or checks the header of an existing file and clears it if it was created for
+     * another salt. Must be called while holding the file lock.
+     */
+    private void prepare(long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        int magic = header.getInt(MAGIC_OFFSET);
+        long fileSize = channel.size();
+        if (magic == 0 && (fileSize == 0 || fileSize == size)) {
+            // A new file, or one of which the creation was interrupted before the header was written
+            if (fileSize == 0) {
+                // Extend the (sparse) file to its full size; the slots read as zero, which marks them as empty
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            writeHeader();
+            return;
+        }
+        if (magic != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("The file is not a first level hash cache.");
+        }
+        if (header.getInt(CAPACITY_OFFSET) != capacity || fileSize != size) {
+            throw new IOException("The cache file has a capacity of " + header.getInt(CAPACITY_OFFSET)
+                + " slots instead of " + capacity + ".");
+        }
+        byte[] fingerprint = new byte[FINGERPRINT_SIZE];
+        header.get(FINGERPRINT_OFFSET, fingerprint);
+        if (!Arrays.equals(fingerprint, saltFingerprint)) {
+            clear(size);
+        }
+    }
+
+    /**
+     * Clears a file of another salt in place. The new fingerprint is written first, so processes that still use the
+     * old salt miss from then on; the keys of the old slots are keyed by the old salt and never match new keys.
+     */
+    private void clear(long size) throws IOException {
+        writeHeader();
+        ByteBuffer zeros = ByteBuffer.allocate(1 << 16);
+        for (long position = HEADER_SIZE; position < size; position += zeros.capacity()) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), size - position));
+            channel.write(zeros, position);
+        }
+        channel.force(true);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(CAPACITY_OFFSET, capacity);
+        header.putInt(COUNT_OFFSET, 0);
+        header.put(FINGERPRINT_OFFSET, saltFingerprint);
+        channel.write(header, 0);
+        channel.force(true);
+    }
+
+    private boolean hasCurrentSalt() {
+        for (int i = 0; i < FINGERPRINT_SIZE; i++) {
+            if (buffer.get(FINGERPRINT_OFFSET + i) != saltFingerprint[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] key(String pgn) {
+        try {
+            Mac mac = Mac.getInstance(KEY_ALGORITHM);
+            mac.init(keySecret);
+            return mac.doFinal(pgn.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("JVM doesn't support " + KEY_ALGORITHM + "?", e);
+        }
+    }
+
+    private int slotIndex(byte[] key) {
+        return ByteBuffer.wrap(key).getInt() & (capacity - 1);
+    }
+
+    private void readSlot(int index, byte[] slot) {
+        buffer.get(HEADER_SIZE + index * SLOT_SIZE, slot);
+    }
+
+    private void writeSlot(int index, byte[] slot) {
+        ByteBuffer.wrap(slot).putInt(CHECKSUM_OFFSET, checksum(slot));
+        int offset = HEADER_SIZE + index * SLOT_SIZE;
+        // Write the hash before the key, so concurrent readers find a complete slot in the common case
+        buffer.put(offset + KEY_SIZE, slot, KEY_SIZE, SLOT_SIZE - KEY_SIZE);
+        buffer.put(offset, slot, 0, KEY_SIZE);
+    }
+
+    private static boolean isEmpty(byte[] slot) {
+        for (int i = 0; i < KEY_SIZE; i++) {
+            if (slot[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(byte[] slot) {
+        CRC32 crc = new CRC32();
+        crc.update(slot, 0, KEY_SIZE);
+        crc.update(slot, HASH_OFFSET, HASH_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private static int readChecksum(byte[] slot) {
+        return ByteBuffer.wrap(slot).getInt(CHECKSUM_OFFSET);
+    }
+
+    private static byte[] sha256(byte[] domain, byte[] input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(domain);
+            return digest.digest(input);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM doesn't support SHA-256?", e);
+        }
+    }
+}
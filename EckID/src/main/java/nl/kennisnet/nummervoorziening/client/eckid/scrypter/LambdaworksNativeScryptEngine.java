@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import com.lambdaworks.crypto.SCrypt;
+
+/**
+ * Scrypt engine using the native libscrypt bundled with the lambdaworks scrypt library. It is only usable on
+ * platforms for which the library could load the native code.
+ */
+public class LambdaworksNativeScryptEngine implements ScryptEngine {
+
+    @Override
+    public String getName() {
+        return "lambdaworks-native";
+    }
+
+    @Override
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) {
+        byte[] derived;
+        try {
+            derived = SCrypt.scryptN(passwd, salt, N, r, p, dkLen);
+        } catch (UnsatisfiedLinkError e) {
+            throw new IllegalStateException("The native scrypt library is not available on this platform", e);
+        }
+        if (derived == null) {
+            throw new IllegalStateException("The native scrypt library failed to derive the key");
+        }
+        return derived;
+    }
+}
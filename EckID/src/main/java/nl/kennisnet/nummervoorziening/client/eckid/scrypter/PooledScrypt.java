@@ -0,0 +1,409 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Pure Java scrypt implementation (RFC 7914) which keeps its scratch memory in reusable arenas.
+ *
+ * Every hash needs a V array of 128 * r * N bytes (128 MB for the first level hash parameters). Instead of allocating
+ * it for every hash, finished hashes return their arena to a bounded pool, from which the next hash on any thread
+ * takes it again. Once the pool is warm, a hash allocates nothing but its result.
+ *
+ * The p lanes of a hash can also run in parallel, each with an arena of its own, which lowers the latency of a single
+ * hash at the cost of p times the scratch memory.
+ *
+ * The pooled arenas stay allocated until {@link #releaseMemory()} is called.
+ */
+public class PooledScrypt implements ScryptEngine {
+
+    private static final int HMAC_BLOCK_SIZE = 64;
+
+    private static final int HMAC_OUTPUT_SIZE = 32;
+
+    private final BlockingQueue<Arena> arenas;
+
+    /**
+     * Creates a scrypt implementation that keeps at most the given number of arenas between hashes. More hashes may
+     * run at the same time, the arenas they need beyond this number are left to the garbage collector afterwards.
+     *
+     * @param maxPooledArenas the maximum number of arenas to keep.
+     */
+    public PooledScrypt(int maxPooledArenas) {
+        this.arenas = new ArrayBlockingQueue<>(Math.max(1, maxPooledArenas));
+    }
+
+    @Override
+    public String getName() {
+        return "pooled-java";
+    }
+
+    @Override
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) {
+        validateParameters(N, r, p);
+        Arena arena = borrowArena(N, r, p);
+        try {
+            byte[] derived = new byte[dkLen];
+            arena.pbkdf2(passwd, salt, salt.length, arena.b, 128 * r * p);
+            for (int i = 0; i < p; i++) {
+                arena.smix(arena.b, i * 128 * r, N, r);
+            }
+            arena.pbkdf2(passwd, arena.b, 128 * r * p, derived, dkLen);
+            return derived;
+        } finally {
+            arenas.offer(arena);
+        }
+    }
+
+    /**
+     * Drops the pooled arenas. Hashes that are running keep their arena, and return it to the pool when they finish.
+     */
+    @Override
+    public void releaseMemory() {
+        arenas.clear();
+    }
+
+    @Override
+    public boolean supportsParallelLanes() {
+        return true;
+    }
+
+    @Override
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, Executor laneExecutor) {
+        validateParameters(N, r, p);
+        Arena arena = borrowArena(N, r, p);
+        try {
+            byte[] derived = new byte[dkLen];
+            byte[] b = arena.b;
+            arena.pbkdf2(passwd, salt, salt.length, b, 128 * r * p);
+
+            // The lanes work on disjoint parts of b; the first lane runs on the calling thread
+            CompletableFuture<?>[] lanes = new CompletableFuture<?>[p - 1];
+            for (int i = 1; i < p; i++) {
+                int offset = i * 128 * r;
+                lanes[i - 1] = CompletableFuture.runAsync(() -> smixInOwnArena(b, offset, N, r), laneExecutor);
+            }
+            arena.smix(b, 0, N, r);
+            try {
+                CompletableFuture.allOf(lanes).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+
+            arena.pbkdf2(passwd, b, 128 * r * p, derived, dkLen);
+            return derived;
+        } finally {
+            arenas.offer(arena);
+        }
+    }
+
+    private static void validateParameters(int N, int r, int p) {
+        if (N < 2 || (N & (N - 1)) != 0) {
+            throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        }
+        if (r < 1 || p < 1 || (long) N * r > Integer.MAX_VALUE / 32 || (long) r * p > Integer.MAX_VALUE / 128) {
+            throw new IllegalArgumentException("Parameter r or p is too large");
+        }
+    }
+
+    /**
+     * Runs a single lane with an arena taken from the pool.
+     */
+    private void smixInOwnArena(byte[] b, int offset, int N, int r) {
+        Arena arena = borrowArena(N, r, 1);
+        try {
+            arena.smix(b, offset, N, r);
+        } finally {
+            arenas.offer(arena);
+        }
+    }
+
+    /**
+     * Puts the words of every 64 byte block in the order used by {@link #blockMix}, before ROMix starts. The words stay
+     * in this order during ROMix, so only the first word of a block may be read in between.
+     *
+     * @param x       the blocks, in little endian word order.
+     * @param length  the number of words.
+     * @param scratch 16 words of scratch memory.
+     */
+    protected void toWorkingOrder(int[] x, int length, int[] scratch) {
+    }
+
+    /**
+     * Restores the little endian word order of every 64 byte block after ROMix.
+     *
+     * @param x       the blocks, in the order used by {@link #blockMix}.
+     * @param length  the number of words.
+     * @param scratch 16 words of scratch memory.
+     */
+    protected void toStandardOrder(int[] x, int length, int[] scratch) {
+    }
+
+    /**
+     * The scrypt BlockMix function with Salsa20/8 as hash function, from input to output.
+     *
+     * @param input  the 2 * r blocks to mix.
+     * @param output the 2 * r mixed blocks.
+     * @param state  16 words of scratch memory.
+     * @param r      the block size parameter.
+     */
+    protected void blockMix(int[] input, int[] output, int[] state, int r) {
+        System.arraycopy(input, (2 * r - 1) * 16, state, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            int inputOffset = i * 16;
+            for (int k = 0; k < 16; k++) {
+                state[k] ^= input[inputOffset + k];
+            }
+            salsa20_8(state);
+            // Even blocks go to the first half of the output, odd blocks to the second half
+            System.arraycopy(state, 0, output, ((i >> 1) + (i & 1) * r) * 16, 16);
+        }
+    }
+
+    /**
+     * XORs a range of source words into the first words of target.
+     *
+     * @param target       the words to update.
+     * @param source       the words to XOR into target.
+     * @param sourceOffset the first source word.
+     * @param length       the number of words.
+     */
+    protected void xor(int[] target, int[] source, int sourceOffset, int length) {
+        for (int k = 0; k < length; k++) {
+            target[k] ^= source[sourceOffset + k];
+        }
+    }
+
+    /**
+     * Takes an arena from the pool, or creates one when the pool is empty, and makes sure it is large enough.
+     */
+    private Arena borrowArena(int N, int r, int p) {
+        Arena arena = arenas.poll();
+        if (arena == null) {
+            arena = new Arena();
+        }
+        arena.ensureCapacity(N, r, p);
+        return arena;
+    }
+
+    /**
+     * The scratch memory of one hash operation, together with the digest used for PBKDF2-HMAC-SHA256.
+     */
+    private final class Arena {
+
+        private final MessageDigest sha256;
+
+        private final byte[] innerPad = new byte[HMAC_BLOCK_SIZE];
+
+        private final byte[] outerPad = new byte[HMAC_BLOCK_SIZE];
+
+        private final byte[] blockCounter = new byte[4];
+
+        private final byte[] digestBlock = new byte[HMAC_OUTPUT_SIZE];
+
+        private final int[] salsa = new int[16];
+
+        private byte[] b = new byte[0];
+
+        private int[] x = new int[0];
+
+        private int[] y = new int[0];
+
+        private int[] v = new int[0];
+
+        Arena() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("JVM doesn't support SHA-256?", e);
+            }
+        }
+
+        void ensureCapacity(int N, int r, int p) {
+            if (b.length < 128 * r * p) {
+                b = new byte[128 * r * p];
+            }
+            if (x.length < 32 * r) {
+                x = new int[32 * r];
+                y = new int[32 * r];
+            }
+            if (v.length < 32 * r * N) {
+                // Release the old array before allocating the larger one
+                v = null;
+                v = new int[32 * r * N];
+            }
+        }
+
+        /**
+         * PBKDF2-HMAC-SHA256 with a single iteration, as used by scrypt.
+         */
+        void pbkdf2(byte[] passwd, byte[] salt, int saltLength, byte[] output, int outputLength) {
+            initHmac(passwd);
+            int blocks = (outputLength + HMAC_OUTPUT_SIZE - 1) / HMAC_OUTPUT_SIZE;
+            for (int i = 1; i <= blocks; i++) {
+                blockCounter[0] = (byte) (i >>> 24);
+                blockCounter[1] = (byte) (i >>> 16);
+                blockCounter[2] = (byte) (i >>> 8);
+                blockCounter[3] = (byte) i;
+
+                int offset = (i - 1) * HMAC_OUTPUT_SIZE;
+                int length = Math.min(HMAC_OUTPUT_SIZE, outputLength - offset);
+                if (length == HMAC_OUTPUT_SIZE) {
+                    hmac(salt, saltLength, output, offset);
+                } else {
+                    hmac(salt, saltLength, digestBlock, 0);
+                    System.arraycopy(digestBlock, 0, output, offset, length);
+                }
+            }
+        }
+
+        private void initHmac(byte[] key) {
+            int keyLength = key.length;
+            if (keyLength > HMAC_BLOCK_SIZE) {
+                sha256.update(key);
+                digest(innerPad, 0);
+                keyLength = HMAC_OUTPUT_SIZE;
+            } else {
+                System.arraycopy(key, 0, innerPad, 0, keyLength);
+            }
+            for (int i = 0; i < HMAC_BLOCK_SIZE; i++) {
+                byte keyByte = i < keyLength ? innerPad[i] : 0;
+                innerPad[i] = (byte) (keyByte ^ 0x36);
+                outerPad[i] = (byte) (keyByte ^ 0x5c);
+            }
+        }
+
+        private void hmac(byte[] message, int messageLength, byte[] output, int offset) {
+            sha256.update(innerPad);
+            sha256.update(message, 0, messageLength);
+            sha256.update(blockCounter);
+            digest(output, offset);
+            sha256.update(outerPad);
+            sha256.update(output, offset, HMAC_OUTPUT_SIZE);
+            digest(output, offset);
+        }
+
+        private void digest(byte[] output, int offset) {
+            try {
+                sha256.digest(output, offset, HMAC_OUTPUT_SIZE);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * The scrypt ROMix function, applied in place to the block of 128 * r bytes at the given offset of b.
+         */
+        void smix(byte[] b, int offset, int N, int r) {
+            int blockInts = 32 * r;
+            int[] xs = x;
+            int[] ys = y;
+            for (int k = 0; k < blockInts; k++) {
+                int i = offset + k * 4;
+                xs[k] = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+            }
+            toWorkingOrder(xs, blockInts, salsa);
+
+            for (int i = 0; i < N; i++) {
+                System.arraycopy(xs, 0, v, i * blockInts, blockInts);
+                blockMix(xs, ys, salsa, r);
+                int[] swap = xs;
+                xs = ys;
+                ys = swap;
+            }
+
+            int lastBlock = (2 * r - 1) * 16;
+            for (int i = 0; i < N; i++) {
+                int j = xs[lastBlock] & (N - 1);
+                xor(xs, v, j * blockInts, blockInts);
+                blockMix(xs, ys, salsa, r);
+                int[] swap = xs;
+                xs = ys;
+                ys = swap;
+            }
+
+            toStandardOrder(xs, blockInts, salsa);
+            for (int k = 0; k < blockInts; k++) {
+                int value = xs[k];
+                int i = offset + k * 4;
+                b[i] = (byte) value;
+                b[i + 1] = (byte) (value >>> 8);
+                b[i + 2] = (byte) (value >>> 16);
+                b[i + 3] = (byte) (value >>> 24);
+            }
+        }
+    }
+
+    /**
+     * The Salsa20/8 core, applied in place.
+     *
+     * @param b the 16 words to transform.
+     */
+    static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+}
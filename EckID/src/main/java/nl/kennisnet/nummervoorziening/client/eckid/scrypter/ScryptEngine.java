@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An implementation of the scrypt key derivation function (RFC 7914).
+ *
+ * Implementations must be thread safe. Use {@link ScryptEngines} to find the fastest engine which works correctly on
+ * the current platform.
+ */
+public interface ScryptEngine {
+
+    /**
+     * Gets the name of the engine, for reporting which engine is in use.
+     *
+     * @return the name of the engine.
+     */
+    String getName();
+
+    /**
+     * Calculates the scrypt hash.
+     *
+     * @param passwd the password.
+     * @param salt   the salt.
+     * @param N      CPU cost parameter, a power of 2.
+     * @param r      Memory cost parameter.
+     * @param p      Parallelization parameter.
+     * @param dkLen  Intended length of the derived key.
+     * @return the derived key.
+     */
+    byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen);
+
+    /**
+     * Tells whether the engine can run the p lanes of a single hash in parallel.
+     *
+     * @return true if {@link #scrypt(byte[], byte[], int, int, int, int, Executor)} runs the lanes in parallel.
+     */
+    default boolean supportsParallelLanes() {
+        return false;
+    }
+
+    /**
+     * Calculates the scrypt hash, running the p lanes in parallel on the supplied executor if the engine supports
+     * this. Engines without support for parallel lanes calculate the hash on the calling thread.
+     *
+     * @param passwd       the password.
+     * @param salt         the salt.
+     * @param N            CPU cost parameter, a power of 2.
+     * @param r            Memory cost parameter.
+     * @param p            Parallelization parameter.
+     * @param dkLen        Intended length of the derived key.
+     * @param laneExecutor the executor to run the lanes on.
+     * @return the derived key.
+     */
+    default byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, Executor laneExecutor) {
+        return scrypt(passwd, salt, N, r, p, dkLen);
+    }
+
+    /**
+     * Releases the scratch memory the engine keeps between hashes. The engine stays usable; later hashes allocate
+     * their scratch memory again.
+     */
+    default void releaseMemory() {
+    }
+}
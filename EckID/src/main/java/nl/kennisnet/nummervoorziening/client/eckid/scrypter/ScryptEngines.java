@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import jakarta.xml.bind.DatatypeConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Selects the scrypt engine to use. Every candidate engine is first checked against the test vectors of RFC 7914,
+ * after which the fastest correct engine is selected: every engine is warmed up, and then timed by its best of a few
+ * rounds. The selection of the default engine runs once per JVM, on
+ * first use.
+ */
+public final class ScryptEngines {
+
+    /** Test vectors of RFC 7914, section 12. The first vector is left out, it has an empty password. */
+    private static final TestVector[] TEST_VECTORS = {
+        new TestVector("password", "NaCl", 1024, 8, 16,
+            "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"),
+        new TestVector("pleaseletmein", "SodiumChloride", 16384, 8, 1,
+            "7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+                + "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887")
+    };
+
+    /** The test vector which is timed to compare the engines: it uses the same r as the first level hash. */
+    private static final TestVector BENCHMARK_VECTOR = TEST_VECTORS[1];
+
+    /**
+     * Untimed rounds before the timed rounds, so the engines that depend on the JIT compiler (pooled, vector) are
+     * compared once they are compiled, like the native engine is from the start.
+     */
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int BENCHMARK_ROUNDS = 3;
+
+    /**
+     * This class should not be instantiated.
+     */
+    private ScryptEngines() { }
+
+    /**
+     * Creates all engines that can be selected.
+     *
+     * @return the candidate engines.
+     */
+    public static List<ScryptEngine> getCandidates() {
+        return Arrays.asList(
+            new LambdaworksNativeScryptEngine(),
+            new LambdaworksJavaScryptEngine(),
+            new PooledScrypt(ScryptUtil.getMaxConcurrentHashes()),
+            new VectorScryptEngine(ScryptUtil.getMaxConcurrentHashes()),
+            new BouncyCastleScryptEngine());
+    }
+
+    /**
+     * Gets the fastest correct engine of all candidates. The engines are checked and timed once, on the first call.
+     *
+     * @return the default engine.
+     */
+    public static ScryptEngine getDefault() {
+        return DefaultSelection.ENGINE;
+    }
+
+    /**
+     * Gets a description of the selection of the default engine, listing the measured time per candidate.
+     *
+     * @return the selection report.
+     */
+    public static String getSelectionReport() {
+        return DefaultSelection.REPORT.toString();
+    }
+
+    /**
+     * Gets the candidate engine with the given name.
+     *
+     * @param name the name of the engine.
+     * @return the engine.
+     * @throws IllegalArgumentException if there is no such engine, or if it does not work correctly.
+     */
+    public static ScryptEngine byName(String name) {
+        for (ScryptEngine engine : getCandidates()) {
+            if (engine.getName().equals(name)) {
+                if (!isCorrect(engine)) {
+                    throw new IllegalArgumentException("Scrypt engine " + name + " does not work correctly on this " +
+                        "platform.");
+                }
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scrypt engine " + name + ".");
+    }
+
+    /**
+     * Selects the fastest correct engine from the candidates.
+     *
+     * @param candidates the engines to choose from.
+     * @return the fastest correct engine.
+     * @throws IllegalStateException if none of the engines works correctly.
+     */
+    public static ScryptEngine select(List<ScryptEngine> candidates) {
+        return select(candidates, new StringBuilder());
+    }
+
+    /**
+     * Checks the engine against the test vectors.
+     *
+     * @param engine the engine to check.
+     * @return true if the engine derives the expected keys.
+     */
+    public static boolean isCorrect(ScryptEngine engine) {
+        try {
+            for (TestVector vector : TEST_VECTORS) {
+                if (!Arrays.equals(vector.expected, vector.derive(engine))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static ScryptEngine select(List<ScryptEngine> candidates, StringBuilder report) {
+        ScryptEngine fastest = null;
+        long fastestNanos = Long.MAX_VALUE;
+        List<String> results = new ArrayList<>();
+
+        for (ScryptEngine engine : candidates) {
+            if (!isCorrect(engine)) {
+                results.add(engine.getName() + " (unavailable)");
+                continue;
+            }
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                BENCHMARK_VECTOR.derive(engine);
+            }
+            long nanos = Long.MAX_VALUE;
+            for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+                long start = System.nanoTime();
+                BENCHMARK_VECTOR.derive(engine);
+                nanos = Math.min(nanos, System.nanoTime() - start);
+            }
+            results.add(String.format("%s (%.1f ms)", engine.getName(), nanos / 1_000_000.0));
+            if (nanos < fastestNanos) {
+                fastest = engine;
+                fastestNanos = nanos;
+            }
+        }
+
+        if (fastest == null) {
+            throw new IllegalStateException("None of the scrypt engines works correctly: " + results);
+        }
+        // The arenas the other engines pooled while they were checked and timed are not needed anymore
+        for (ScryptEngine engine : candidates) {
+            if (engine != fastest) {
+                engine.releaseMemory();
+            }
+        }
+        report.append(fastest.getName()).append(" selected from ").append(String.join(", ", results));
+        return fastest;
+    }
+
+    /**
+     * Holds the default engine, selected when this class is first used.
+     */
+    private static final class DefaultSelection {
+
+        private static final StringBuilder REPORT = new StringBuilder();
+
+        private static final ScryptEngine ENGINE = select(getCandidates(), REPORT);
+    }
+
+    /**
+     * A known scrypt input and its expected output.
+     */
+    private static final class TestVector {
+
+        private final byte[] passwd;
+
+        private final byte[] salt;
+
+        private final int N;
+
+        private final int r;
+
+        private final int p;
+
+        private final byte[] expected;
+
+        TestVector(String passwd, String salt, int N, int r, int p, String expectedHex) {
+            this.passwd = passwd.getBytes(StandardCharsets.US_ASCII);
+            this.salt = salt.getBytes(StandardCharsets.US_ASCII);
+            this.N = N;
+            this.r = r;
+            this.p = p;
+            this.expected = DatatypeConverter.parseHexBinary(expectedHex);
+        }
+
+        byte[] derive(ScryptEngine engine) {
+            return engine.scrypt(passwd, salt, N, r, p, expected.length);
+        }
+    }
+}
@@ -15,11 +15,22 @@
  */
 package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
 
-import com.lambdaworks.crypto.SCrypt;
 import jakarta.xml.bind.DatatypeConverter;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.lambdaworks.codec.Base64.decode;
 
@@ -29,9 +40,73 @@ import static com.lambdaworks.codec.Base64.decode;
 public class ScryptUtil {
 
     /**
-     * The first level salt to use for this ScryptUtil instance.
+     * How a single hash is calculated.
      */
-    private String firstLevelSalt = null;
+    public enum Mode {
+        /** The p lanes of the hash run one after another on the calling thread; best for bulk hashing. */
+        THROUGHPUT,
+        /** The p lanes of the hash run in parallel, which cuts the time of a single hash; best for interactive use. */
+        LOW_LATENCY
+    }
+
+    /**
+     * Scratch memory needed by a single hash operation: the ROMix V array of 128 * r * N bytes, which dominates the
+     * much smaller B and XY buffers.
+     */
+    static final long SCRATCH_BYTES_PER_HASH = 128L * Constants.r * Constants.N;
+
+    /**
+     * Only this part of the free heap is handed out to concurrent hash operations, so the rest of the application
+     * keeps room to work while a bulk operation is running.
+     */
+    private static final double HEAP_SHARE_FOR_HASHING = 0.5;
+
+    /**
+     * Runs the lanes of low latency hashes. Threads are created on demand and end after a minute of idleness.
+     */
+    private static final ExecutorService LANE_EXECUTOR = Executors.newCachedThreadPool(new HashThreadFactory());
+
+    /**
+     * Releases the scratch memory of the lanes of low latency hashes once no such hash ran for
+     * {@link #LANE_MEMORY_IDLE_MILLIS}.
+     */
+    private static final ScheduledExecutorService LANE_MEMORY_RELEASER =
+        Executors.newSingleThreadScheduledExecutor(new HashThreadFactory());
+
+    /**
+     * How long the scratch memory of the lanes stays allocated after the last low latency hash, so a series of
+     * interactive hashes reuses it.
+     */
+    private static final long LANE_MEMORY_IDLE_MILLIS = 60_000;
+
+    /**
+     * The decoded first level salt to use for this ScryptUtil instance.
+     */
+    private byte[] firstLevelSalt = null;
+
+    /**
+     * Optional persistent cache of previously calculated hashes.
+     */
+    private final HPgnCache hashCache;
+
+    /**
+     * The scrypt implementation that calculates the hashes.
+     */
+    private final ScryptEngine engine;
+
+    /**
+     * The engine that runs the lanes of low latency hashes, created on the first such hash; guarded by this.
+     */
+    private ScryptEngine laneEngine;
+
+    /** The number of low latency hashes running; guarded by this. */
+    private int laneHashesInProgress;
+
+    /** The time of the end of the last low latency hash, from {@link System#nanoTime()}; guarded by this. */
+    private long laneEngineLastUsed;
+
+    /** The scheduled release of the scratch memory of the lanes, or null; guarded by this. */
+    private ScheduledFuture<?> laneMemoryRelease;
 
     /**
      * Create a new ScryptUtil helper with the supplied salt.
@@ -39,7 +114,31 @@ public class ScryptUtil {
      * @param salt the salt to use.
      */
     public ScryptUtil(String salt) {
+        this(salt, null);
+    }
+
+    /**
+     * Create a new ScryptUtil helper with the supplied salt, which looks up hashes in the supplied cache before
+     * calculating them. The hashes are calculated by the fastest scrypt engine for this platform.
+     *
+     * @param salt      the salt to use.
+     * @param hashCache the cache to use, or null to always calculate the hashes.
+     */
+    public ScryptUtil(String salt, HPgnCache hashCache) {
+        this(salt, hashCache, ScryptEngines.getDefault());
+    }
+
+    /**
+     * Create a new ScryptUtil helper with the supplied salt, cache and scrypt engine.
+     *
+     * @param salt      the salt to use.
+     * @param hashCache the cache to use, or null to always calculate the hashes.
+     * @param engine    the scrypt engine that calculates the hashes.
+     */
+    public ScryptUtil(String salt, HPgnCache hashCache, ScryptEngine engine) {
         setSalt(salt);
+        this.hashCache = hashCache;
+        this.engine = engine;
     }
 
     /**
@@ -50,17 +149,211 @@ public class ScryptUtil {
      * @return hashed string in hex format.
      */
     public String generateHexHash(String input) {
+        return generateHexHash(input, Mode.THROUGHPUT);
+    }
+
+    /**
+     * Converts input text into hex hash, using the given mode. In {@link Mode#LOW_LATENCY} mode the lanes of the hash
+     * run in parallel when there are enough processors and enough free heap for the scratch memory of all lanes;
+     * otherwise the hash is calculated as in {@link Mode#THROUGHPUT} mode. Both modes give the same hash. The scratch
+     * memory of the lanes is kept for the next low latency hash, and released after a minute without one or by
+     * {@link #releaseMemory()}.
+     *
+     * @param input text for hashing.
+     * @param mode  how to calculate the hash.
+     * @return hashed string in hex format.
+     */
+    public String generateHexHash(String input, Mode mode) {
+        validateInput(input);
+        byte[] derived = hashCache != null ? hashCache.get(input) : null;
+        if (derived == null) {
+            if (mode == Mode.LOW_LATENCY && canRunLanesInParallel()) {
+                ScryptEngine lanes = startLaneHash();
+                try {
+                    derived = lanes.scrypt(normalize(input), firstLevelSalt, Constants.N, Constants.r, Constants.p, 32,
+                        LANE_EXECUTOR);
+                } finally {
+                    endLaneHash();
+                }
+            } else {
+                derived = scrypt(engine, firstLevelSalt, input, Constants.N, Constants.r, Constants.p);
+            }
+            cacheHash(input, derived);
+        }
+        return DatatypeConverter.printHexBinary(derived).toLowerCase();
+    }
+
+    /**
+     * Converts all inputs into hex hashes, hashing them in parallel. The number of hashes running at the same time is
+     * limited by the number of available processors and by the free heap (see {@link #getMaxConcurrentHashes()}), as
+     * every hash operation needs about 128 MB of scratch memory. The scratch memory the engine pooled for the bulk
+     * operation is released afterwards.
+     *
+     * @param inputs texts for hashing.
+     * @return hashed strings in hex format, in the iteration order of the supplied inputs.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the hashes.
+     */
+    public List<String> generateHexHashes(Collection<String> inputs) throws InterruptedException {
+        // Validate everything up front, instead of failing halfway through a long running bulk operation
+        inputs.forEach(ScryptUtil::validateInput);
+
+        List<String> hashes = new ArrayList<>(inputs.size());
+        int parallelism = Math.min(inputs.size(), getMaxConcurrentHashes());
+        if (parallelism <= 1) {
+            for (String input : inputs) {
+                hashes.add(generateHexHash(input));
+            }
+            return hashes;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new HashThreadFactory());
+        try {
+            List<Future<String>> futures = new ArrayList<>(inputs.size());
+            for (String input : inputs) {
+                futures.add(executor.submit(() -> generateHexHash(input)));
+            }
+            for (Future<String> future : futures) {
+                hashes.add(future.get());
+            }
+            return hashes;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Hashing failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            engine.releaseMemory();
+        }
+    }
+
+    /**
+     * Releases the scratch memory of the lanes of low latency hashes now, instead of after a minute without such a
+     * hash. The ScryptUtil stays usable.
+     */
+    public synchronized void releaseMemory() {
+        if (laneMemoryRelease != null) {
+            laneMemoryRelease.cancel(false);
+            laneMemoryRelease = null;
+        }
+        if (laneEngine != null) {
+            laneEngine.releaseMemory();
+        }
+    }
+
+    /**
+     * Gets the scrypt engine that calculates the hashes.
+     *
+     * @return the scrypt engine.
+     */
+    public ScryptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Gets the engine for the lanes of a low latency hash: the engine itself if it runs lanes in parallel, and
+     * otherwise a pooled engine that is created once.
+     *
+     * @return the engine to run the lanes with.
+     */
+    private synchronized ScryptEngine startLaneHash() {
+        if (laneEngine == null) {
+            laneEngine = engine.supportsParallelLanes() ? engine : new PooledScrypt(Constants.p);
+        }
+        laneHashesInProgress++;
+        return laneEngine;
+    }
+
+    /**
+     * Records the end of a low latency hash, and schedules the release of the scratch memory of the lanes.
+     */
+    private synchronized void endLaneHash() {
+        laneHashesInProgress--;
+        laneEngineLastUsed = System.nanoTime();
+        if (laneMemoryRelease == null) {
+            laneMemoryRelease = LANE_MEMORY_RELEASER.schedule(this::releaseIdleLaneMemory, LANE_MEMORY_IDLE_MILLIS,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Releases the scratch memory of the lanes if no low latency hash ran for a while, or checks again later.
+     */
+    private synchronized void releaseIdleLaneMemory() {
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - laneEngineLastUsed);
+        if (laneHashesInProgress > 0 || idleMillis < LANE_MEMORY_IDLE_MILLIS) {
+            long delayMillis = laneHashesInProgress > 0 ? LANE_MEMORY_IDLE_MILLIS
+                : LANE_MEMORY_IDLE_MILLIS - idleMillis;
+            laneMemoryRelease = LANE_MEMORY_RELEASER.schedule(this::releaseIdleLaneMemory, delayMillis,
+                TimeUnit.MILLISECONDS);
+            return;
+        }
+        laneMemoryRelease = null;
+        laneEngine.releaseMemory();
+    }
+
+    /**
+     * Determines how many hash operations may run at the same time: at most one per available processor, and no more
+     * than fit in half of the currently free heap.
+     *
+     * @return the maximum number of concurrent hash operations, at least 1.
+     */
+    public static int getMaxConcurrentHashes() {
+        return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), getScratchBuffersInHeap()));
+    }
+
+    /**
+     * Checks whether running the lanes of a hash in parallel helps: there should be more than one processor, and
+     * room in the heap for the scratch memory of all p lanes.
+     *
+     * @return true if the lanes of a hash can run in parallel.
+     */
+    private static boolean canRunLanesInParallel() {
+        return Runtime.getRuntime().availableProcessors() > 1 && getScratchBuffersInHeap() >= Constants.p;
+    }
+
+    /**
+     * Determines how many scratch buffers of a hash fit in half of the currently free heap.
+     *
+     * @return the number of scratch buffers.
+     */
+    private static long getScratchBuffersInHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return (long) (freeHeap * HEAP_SHARE_FOR_HASHING) / SCRATCH_BYTES_PER_HASH;
+    }
+
+    /**
+     * Checks that the input is suitable for hashing.
+     *
+     * @param input text for hashing.
+     */
+    private static void validateInput(String input) {
         // The input should contain at least one characters
-        if (input != null && input.trim().length() > 1) {
-            byte[] derived = scrypt(firstLevelSalt, input, Constants.N, Constants.r, Constants.p);
-            return DatatypeConverter.printHexBinary(derived).toLowerCase();
-        } else {
+        if (input == null || input.trim().length() <= 1) {
             throw new IllegalArgumentException("The supplied input doesn't contain at least one character.");
         }
     }
 
     /**
-     * Set the firstLevelsalt to the supplied value.
+     * Stores a calculated hash in the cache, if one is configured.
+     *
+     * @param input   the hashed text.
+     * @param derived the calculated hash.
+     * @throws IllegalStateException if the cache file can not be locked for writing.
+     */
+    private void cacheHash(String input, byte[] derived) {
+        if (hashCache != null) {
+            try {
+                hashCache.put(input, derived);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not cache the hash", e);
+            }
+        }
+    }
+
+    /**
+     * Set the firstLevelsalt to the supplied value. The salt is decoded once here, instead of for every hash.
      *
      * @param salt the salt to set
      */
@@ -68,13 +361,14 @@ public class ScryptUtil {
         if (salt == null || salt.trim().length() < 1) {
             throw new IllegalArgumentException("The first level salt is not set properly.");
         }
-        firstLevelSalt = salt;
+        firstLevelSalt = decode(salt.toCharArray());
     }
 
     /**
      * Returns a scrypted hash based on the supplied arguments.
 
-     * @param saltString the salt
+     * @param engine the scrypt engine to use
+     * @param salt the decoded salt
      * @param passwd the password
      * @param N CPU cost parameter.
      * @param r Memory cost parameter.
@@ -82,13 +376,33 @@ public class ScryptUtil {
      *
      * @return scrypted hash.
      */
-    private static byte[] scrypt(String saltString, String passwd, int N, int r, int p) {
-        try {
-            char[] saltChar = saltString.toCharArray();
-            byte[] salt = decode(saltChar);
-            return SCrypt.scrypt(passwd.toLowerCase().getBytes(StandardCharsets.UTF_8), salt, N, r, p, 32);
-        } catch (GeneralSecurityException e) {
-            throw new IllegalStateException("JVM doesn't support SHA1PRNG or HMAC_SHA256?", e);
+    private static byte[] scrypt(ScryptEngine engine, byte[] salt, String passwd, int N, int r, int p) {
+        return engine.scrypt(normalize(passwd), salt, N, r, p, 32);
+    }
+
+    /**
+     * Converts the input to the bytes that are hashed. The input is lower cased to prevent mismatches.
+     *
+     * @param input the input text.
+     * @return the bytes to hash.
+     */
+    private static byte[] normalize(String input) {
+        return input.toLowerCase().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates the daemon worker threads used for hashing and releasing scratch memory, so an abandoned bulk operation
+     * never keeps the JVM alive.
+     */
+    private static class HashThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "scrypt-hash-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the scrypt inner loops. This is the only class referring to the incubating Vector API, so
+ * {@link VectorScryptEngine} can be loaded on JVMs without it.
+ *
+ * Salsa20/8 keeps the 16 words of a block in four vectors holding its diagonals: (x0, x5, x10, x15), (x4, x9, x14,
+ * x3), (x8, x13, x2, x7) and (x12, x1, x6, x11). A column round then applies to the four vectors as a whole, and
+ * rotating the lanes of three vectors lines up the rows for the row round.
+ */
+final class VectorSalsa {
+
+    /**
+     * A quarter of a block. All loops use this species: C2 does not compile Vector API calls into vector instructions
+     * when it has seen other species at the same call sites in the library.
+     */
+    private static final VectorSpecies<Integer> QUARTER = IntVector.SPECIES_128;
+
+    /** The word of a block in little endian order stored at each position in diagonal order. */
+    private static final int[] DIAGONAL_ORDER = {0, 5, 10, 15, 4, 9, 14, 3, 8, 13, 2, 7, 12, 1, 6, 11};
+
+    private static final VectorShuffle<Integer> ROTATE_1 = VectorShuffle.fromValues(QUARTER, 1, 2, 3, 0);
+
+    private static final VectorShuffle<Integer> ROTATE_2 = VectorShuffle.fromValues(QUARTER, 2, 3, 0, 1);
+
+    private static final VectorShuffle<Integer> ROTATE_3 = VectorShuffle.fromValues(QUARTER, 3, 0, 1, 2);
+
+    /**
+     * This class should not be instantiated.
+     */
+    private VectorSalsa() { }
+
+    static void toDiagonalOrder(int[] x, int length, int[] scratch) {
+        for (int offset = 0; offset < length; offset += 16) {
+            System.arraycopy(x, offset, scratch, 0, 16);
+            for (int i = 0; i < 16; i++) {
+                x[offset + i] = scratch[DIAGONAL_ORDER[i]];
+            }
+        }
+    }
+
+    static void toStandardOrder(int[] x, int length, int[] scratch) {
+        for (int offset = 0; offset < length; offset += 16) {
+            System.arraycopy(x, offset, scratch, 0, 16);
+            for (int i = 0; i < 16; i++) {
+                x[offset + DIAGONAL_ORDER[i]] = scratch[i];
+            }
+        }
+    }
+
+    /**
+     * The scrypt BlockMix function on blocks in diagonal order.
+     */
+    static void blockMix(int[] input, int[] output, int[] state, int r) {
+        System.arraycopy(input, (2 * r - 1) * 16, state, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            xor(state, input, i * 16, 16);
+            salsa20_8(state);
+            // Even blocks go to the first half of the output, odd blocks to the second half
+            System.arraycopy(state, 0, output, ((i >> 1) + (i & 1) * r) * 16, 16);
+        }
+    }
+
+    /**
+     * The Salsa20/8 core on a block in diagonal order, applied in place.
+     */
+    static void salsa20_8(int[] state) {
+        IntVector x0 = IntVector.fromArray(QUARTER, state, 0);
+        IntVector x1 = IntVector.fromArray(QUARTER, state, 4);
+        IntVector x2 = IntVector.fromArray(QUARTER, state, 8);
+        IntVector x3 = IntVector.fromArray(QUARTER, state, 12);
+
+        for (int round = 0; round < 8; round += 2) {
+            // Columns
+            x1 = x1.lanewise(VectorOperators.XOR, x0.add(x3).lanewise(VectorOperators.ROL, 7));
+            x2 = x2.lanewise(VectorOperators.XOR, x1.add(x0).lanewise(VectorOperators.ROL, 9));
+            x3 = x3.lanewise(VectorOperators.XOR, x2.add(x1).lanewise(VectorOperators.ROL, 13));
+            x0 = x0.lanewise(VectorOperators.XOR, x3.add(x2).lanewise(VectorOperators.ROL, 18));
+
+            x1 = x1.rearrange(ROTATE_3);
+            x2 = x2.rearrange(ROTATE_2);
+            x3 = x3.rearrange(ROTATE_1);
+
+            // Rows
+            x3 = x3.lanewise(VectorOperators.XOR, x0.add(x1).lanewise(VectorOperators.ROL, 7));
+            x2 = x2.lanewise(VectorOperators.XOR, x3.add(x0).lanewise(VectorOperators.ROL, 9));
+            x1 = x1.lanewise(VectorOperators.XOR, x2.add(x3).lanewise(VectorOperators.ROL, 13));
+            x0 = x0.lanewise(VectorOperators.XOR, x1.add(x2).lanewise(VectorOperators.ROL, 18));
+
+            x1 = x1.rearrange(ROTATE_1);
+            x2 = x2.rearrange(ROTATE_2);
+            x3 = x3.rearrange(ROTATE_3);
+        }
+
+        x0.add(IntVector.fromArray(QUARTER, state, 0)).intoArray(state, 0);
+        x1.add(IntVector.fromArray(QUARTER, state, 4)).intoArray(state, 4);
+        x2.add(IntVector.fromArray(QUARTER, state, 8)).intoArray(state, 8);
+        x3.add(IntVector.fromArray(QUARTER, state, 12)).intoArray(state, 12);
+    }
+
+    static void xor(int[] target, int[] source, int sourceOffset, int length) {
+        int bound = QUARTER.loopBound(length);
+        int k = 0;
+        for (; k < bound; k += QUARTER.length()) {
+            IntVector.fromArray(QUARTER, target, k)
+                .lanewise(VectorOperators.XOR, IntVector.fromArray(QUARTER, source, sourceOffset + k))
+                .intoArray(target, k);
+        }
+        for (; k < length; k++) {
+            target[k] ^= source[sourceOffset + k];
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.scrypter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Pooled scrypt engine which runs BlockMix and the XOR loops of ROMix on the incubating Vector API. Salsa20/8 works
+ * on four 128 bit vectors, with the words of each block kept in diagonal order for the whole of ROMix so that both
+ * the column and the row rounds only need lane rotations.
+ *
+ * The engine is only usable when the JVM is started with {@code --add-modules jdk.incubator.vector}.
+ */
+public class VectorScryptEngine extends PooledScrypt {
+
+    private static final boolean VECTOR_API_AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * Creates a vector scrypt engine that keeps at most the given number of arenas between hashes.
+     *
+     * @param maxPooledArenas the maximum number of arenas to keep.
+     */
+    public VectorScryptEngine(int maxPooledArenas) {
+        super(maxPooledArenas);
+    }
+
+    @Override
+    public String getName() {
+        return "vector-java";
+    }
+
+    @Override
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) {
+        checkAvailable();
+        return super.scrypt(passwd, salt, N, r, p, dkLen);
+    }
+
+    @Override
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, Executor laneExecutor) {
+        checkAvailable();
+        return super.scrypt(passwd, salt, N, r, p, dkLen, laneExecutor);
+    }
+
+    @Override
+    protected void toWorkingOrder(int[] x, int length, int[] scratch) {
+        VectorSalsa.toDiagonalOrder(x, length, scratch);
+    }
+
+    @Override
+    protected void toStandardOrder(int[] x, int length, int[] scratch) {
+        VectorSalsa.toStandardOrder(x, length, scratch);
+    }
+
+    @Override
+    protected void blockMix(int[] input, int[] output, int[] state, int r) {
+        VectorSalsa.blockMix(input, output, state, r);
+    }
+
+    @Override
+    protected void xor(int[] target, int[] source, int sourceOffset, int length) {
+        VectorSalsa.xor(target, source, sourceOffset, length);
+    }
+
+    private static void checkAvailable() {
+        if (!VECTOR_API_AVAILABLE) {
+            throw new IllegalStateException("The Vector API is not available, start the JVM with --add-modules " +
+                "jdk.incubator.vector");
+        }
+    }
+}
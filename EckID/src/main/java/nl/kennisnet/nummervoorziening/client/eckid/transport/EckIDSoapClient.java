@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.transport;
+
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.ketenid.eck.schemas.v1_0.*;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import jakarta.xml.ws.WebServiceException;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static nl.kennisnet.nummervoorziening.client.eckid.transport.SoapTransport.SERVICE_NS;
+
+/**
+ * Executes the operations of the Nummervoorziening service with a {@link SoapTransport}, writing and parsing the
+ * messages directly instead of through JAXB and the JAX-WS runtime. It implements {@link EckIDPort}, so it can take
+ * the place of a JAX-WS proxy; unlike a proxy, one client can be shared by threads.
+ */
+public class EckIDSoapClient implements EckIDPort {
+
+    private static final DatatypeFactory DATATYPE_FACTORY = createDatatypeFactory();
+
+    private final SoapTransport transport;
+
+    /**
+     * Creates a client.
+     *
+     * @param transport the transport to send the requests with.
+     */
+    public EckIDSoapClient(SoapTransport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public PingResponse ping(PingRequest pingRequest) {
+        return transport.call("ping", writer -> writeEmptyRequest(writer, "pingRequest"), reader -> {
+            PingResponse response = new PingResponse();
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "available":
+                        String available = reader.getElementText().trim();
+                        response.setAvailable("true".equals(available) || "1".equals(available));
+                        break;
+                    case "applicationVersion":
+                        response.setApplicationVersion(reader.getElementText());
+                        break;
+                    case "systemTime":
+                        response.setSystemTime(parseDateTime(reader.getElementText()));
+                        break;
+                    default:
+                        SoapTransport.skipElement(reader);
+                }
+            }
+            return response;
+        });
+    }
+
+    @Override
+    public RetrieveStampseudonymResponse retrieveStampseudonym(RetrieveStampseudonymRequest request) {
+        return transport.call("retrieveStampseudonym", writer -> {
+            startRequest(writer, "retrieveStampseudonymRequest");
+            writeElement(writer, "hpgn", request.getHpgn() == null ? null : request.getHpgn().getValue());
+            writer.writeEndElement();
+        }, reader -> {
+            Stampseudonym stampseudonym = new Stampseudonym();
+            stampseudonym.setValue(readValue(reader, "stampseudonym"));
+            RetrieveStampseudonymResponse response = new RetrieveStampseudonymResponse();
+            response.setStampseudonym(stampseudonym);
+            return response;
+        });
+    }
+
+    @Override
+    public RetrieveEckIdResponse retrieveEckId(RetrieveEckIdRequest request) {
+        return transport.call("retrieveEckId", writer -> {
+            startRequest(writer, "retrieveEckIdRequest");
+            writeElement(writer, "stampseudonym",
+                request.getStampseudonym() == null ? null : request.getStampseudonym().getValue());
+            writeElement(writer, "chainId", request.getChainId());
+            writeElement(writer, "sectorId", request.getSectorId());
+            writer.writeEndElement();
+        }, reader -> {
+            EckId eckId = new EckId();
+            eckId.setValue(readValue(reader, "eckId"));
+            RetrieveEckIdResponse response = new RetrieveEckIdResponse();
+            response.setEckId(eckId);
+            return response;
+        });
+    }
+
+    @Override
+    public SubmitBatchResponse submitEckIdBatch(SubmitEckIdBatchRequest request) {
+        return transport.call("submitEckIdBatch", writer -> {
+            startRequest(writer, "submitEckIdBatchRequest");
+            List<ListedStampseudonym> stampseudonymList = request.getStampseudonymList();
+            for (int i = 0, size = stampseudonymList.size(); i < size; i++) {
+                ListedStampseudonym entry = stampseudonymList.get(i);
+                writer.writeStartElement("", "stampseudonymList", SERVICE_NS);
+                writeElement(writer, "index", Integer.toString(entry.getIndex()));
+                writeElement(writer, "stampseudonym",
+                    entry.getStampseudonym() == null ? null : entry.getStampseudonym().getValue());
+                writer.writeEndElement();
+            }
+            writeElement(writer, "chainId", request.getChainId());
+            writeElement(writer, "sectorId", request.getSectorId());
+            writer.writeEndElement();
+        }, EckIDSoapClient::readSubmitBatchResponse);
+    }
+
+    @Override
+    public SubmitBatchResponse submitStampseudonymBatch(SubmitStampseudonymBatchRequest request) {
+        return transport.call("submitStampseudonymBatch", writer -> {
+            startRequest(writer, "submitStampseudonymBatchRequest");
+            List<ListedHpgn> hpgnList = request.getHpgnList();
+            for (int i = 0, size = hpgnList.size(); i < size; i++) {
+                ListedHpgn entry = hpgnList.get(i);
+                writer.writeStartElement("", "hpgnList", SERVICE_NS);
+                writeElement(writer, "index", Integer.toString(entry.getIndex()));
+                writeElement(writer, "hPgn", entry.getHPgn() == null ? null : entry.getHPgn().getValue());
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        }, EckIDSoapClient::readSubmitBatchResponse);
+    }
+
+    @Override
+    public RetrieveBatchResponse retrieveBatch(RetrieveBatchRequest request) {
+        RetrieveBatchResponse response = new RetrieveBatchResponse();
+        List<ListedEntitySuccess> success = response.getSuccess();
+        List<ListedEntityFailure> failed = response.getFailed();
+        retrieveBatch(request.getBatchIdentifier() == null ? null : request.getBatchIdentifier().getValue(),
+            (index, value) -> {
+                ListedEntitySuccess entry = new ListedEntitySuccess();
+                entry.setIndex(index);
+                entry.setValue(value);
+                success.add(entry);
+            }, (index, errorMessage) -> {
+                ListedEntityFailure entry = new ListedEntityFailure();
+                entry.setIndex(index);
+                entry.setErrorMessage(errorMessage);
+                failed.add(entry);
+            });
+        return response;
+    }
+
+    /**
+     * Retrieves the result of a batch, and passes every entry to a consumer while the response is being read. Only
+     * the entry that is being parsed is held in memory, so the memory use does not grow with the size of the batch.
+     *
+     * The consumers are called in the order of the response. If reading the response fails halfway, the entries
+     * read so far have already been passed on.
+     *
+     * @param batchIdentifier The identifier of the batch.
+     * @param successConsumer Receives the index and generated value of every processed entry.
+     * @param failureConsumer Receives the index and error message of every failed entry.
+     * @return the number of entries in the batch.
+     */
+    public int retrieveBatch(String batchIdentifier, EckIDServiceBatch.EntryConsumer successConsumer,
+                             EckIDServiceBatch.EntryConsumer failureConsumer) {
+        return transport.call("retrieveBatch", writer -> {
+            startRequest(writer, "retrieveBatchRequest");
+            writeElement(writer, "batchIdentifier", batchIdentifier);
+            writer.writeEndElement();
+        }, reader -> {
+            int entries = 0;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "success":
+                        readEntry(reader, "value", successConsumer);
+                        entries++;
+                        break;
+                    case "failed":
+                        readEntry(reader, "errorMessage", failureConsumer);
+                        entries++;
+                        break;
+                    default:
+                        SoapTransport.skipElement(reader);
+                }
+            }
+            return entries;
+        });
+    }
+
+    @Override
+    public ReplaceStampseudonymResponse replaceStampseudonym(ReplaceStampseudonymRequest request) {
+        return transport.call("replaceStampseudonym", writer -> {
+            startRequest(writer, "replaceStampseudonymRequest");
+            writeElement(writer, "hpgnOld", request.getHpgnOld() == null ? null : request.getHpgnOld().getValue());
+            writeElement(writer, "hpgnNew", request.getHpgnNew() == null ? null : request.getHpgnNew().getValue());
+            writeElement(writer, "effectiveDate",
+                request.getEffectiveDate() == null ? null : request.getEffectiveDate().toXMLFormat());
+            writer.writeEndElement();
+        }, reader -> {
+            Stampseudonym stampseudonym = new Stampseudonym();
+            stampseudonym.setValue(readValue(reader, "stampseudonym"));
+            ReplaceStampseudonymResponse response = new ReplaceStampseudonymResponse();
+            response.setStampseudonym(stampseudonym);
+            return response;
+        });
+    }
+
+    @Override
+    public RetrieveChainsResponse retrieveChains(RetrieveChainsRequest request) {
+        return transport.call("retrieveChains", writer -> writeEmptyRequest(writer, "retrieveChainsRequest"),
+            reader -> {
+                RetrieveChainsResponse response = new RetrieveChainsResponse();
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if ("chain".equals(reader.getLocalName())) {
+                        Chain chain = new Chain();
+                        readDescription(reader, chain::setId, chain::setName, chain::setDescription,
+                            chain::setLastEdited);
+                        response.getChain().add(chain);
+                    } else {
+                        SoapTransport.skipElement(reader);
+                    }
+                }
+                return response;
+            });
+    }
+
+    @Override
+    public RetrieveSectorsResponse retrieveSectors(RetrieveSectorsRequest request) {
+        return transport.call("retrieveSectors", writer -> writeEmptyRequest(writer, "retrieveSectorsRequest"),
+            reader -> {
+                RetrieveSectorsResponse response = new RetrieveSectorsResponse();
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if ("sector".equals(reader.getLocalName())) {
+                        Sector sector = new Sector();
+                        readDescription(reader, sector::setId, sector::setName, sector::setDescription,
+                            sector::setLastEdited);
+                        response.getSector().add(sector);
+                    } else {
+                        SoapTransport.skipElement(reader);
+                    }
+                }
+                return response;
+            });
+    }
+
+    private static SubmitBatchResponse readSubmitBatchResponse(XMLStreamReader reader) throws XMLStreamException {
+        BatchIdentifier batchIdentifier = new BatchIdentifier();
+        batchIdentifier.setValue(readValue(reader, "batchIdentifier"));
+        SubmitBatchResponse response = new SubmitBatchResponse();
+        response.setBatchIdentifier(batchIdentifier);
+        return response;
+    }
+
+    /**
+     * Reads a response with a single value.
+     *
+     * @param reader the reader, positioned at the start of the response element.
+     * @param name   the name of the element with the value.
+     * @return the value.
+     */
+    private static String readValue(XMLStreamReader reader, String name) throws XMLStreamException {
+        String value = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (name.equals(reader.getLocalName())) {
+                value = reader.getElementText();
+            } else {
+                SoapTransport.skipElement(reader);
+            }
+        }
+        if (value == null) {
+            throw new WebServiceException("The response has no " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the id, name, description and last edit of a chain or sector.
+     */
+    private static void readDescription(XMLStreamReader reader, Consumer<String> id, Consumer<String> name,
+                                        Consumer<String> description, Consumer<XMLGregorianCalendar> lastEdited)
+        throws XMLStreamException {
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "id":
+                    id.accept(reader.getElementText());
+                    break;
+                case "name":
+                    name.accept(reader.getElementText());
+                    break;
+                case "description":
+                    description.accept(reader.getElementText());
+                    break;
+                case "lastEdited":
+                    lastEdited.accept(parseDateTime(reader.getElementText()));
+                    break;
+                default:
+                    SoapTransport.skipElement(reader);
+            }
+        }
+    }
+
+    /**
+     * Reads a listed entry, of which the elements may come in any order, and passes it to the consumer.
+     */
+    private static void readEntry(XMLStreamReader reader, String valueName,
+                                  EckIDServiceBatch.EntryConsumer consumer) throws XMLStreamException {
+        String index = null;
+        String value = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("index".equals(reader.getLocalName())) {
+                index = reader.getElementText();
+            } else if (valueName.equals(reader.getLocalName())) {
+                value = reader.getElementText();
+            } else {
+                SoapTransport.skipElement(reader);
+            }
+        }
+        if (index == null || value == null) {
+            throw new WebServiceException("Incomplete batch entry in the response");
+        }
+        int parsedIndex;
+        try {
+            parsedIndex = Integer.parseInt(index.trim());
+        } catch (NumberFormatException e) {
+            throw new WebServiceException("Invalid batch entry index " + index, e);
+        }
+        consumer.accept(parsedIndex, value);
+    }
+
+    private static void startRequest(XMLStreamWriter writer, String name) throws XMLStreamException {
+        writer.writeStartElement("", name, SERVICE_NS);
+        writer.writeDefaultNamespace(SERVICE_NS);
+    }
+
+    private static void writeEmptyRequest(XMLStreamWriter writer, String name) throws XMLStreamException {
+        writer.writeEmptyElement("", name, SERVICE_NS);
+        writer.writeDefaultNamespace(SERVICE_NS);
+    }
+
+    /**
+     * Writes an element with text content, or nothing if the value is null, like JAXB does for a missing value.
+     */
+    private static void writeElement(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        if (value != null) {
+            writer.writeStartElement("", name, SERVICE_NS);
+            writer.writeCharacters(value);
+            writer.writeEndElement();
+        }
+    }
+
+    private static XMLGregorianCalendar parseDateTime(String value) {
+        try {
+            return DATATYPE_FACTORY.newXMLGregorianCalendar(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new WebServiceException("Invalid date and time " + value, e);
+        }
+    }
+
+    private static DatatypeFactory createDatatypeFactory() {
+        try {
+            return DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException("No DatatypeFactory available", e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.transport;
+
+import javax.net.ssl.SSLContext;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends the requests with a shared java.net.http.HttpClient. The client keeps its connections open between requests,
+ * and sends the requests of all threads as streams of one connection when the service supports HTTP/2; over HTTP/1.1
+ * every request in progress has a connection of its own. The number of requests in progress is bounded, so a burst of
+ * operations does not open more connections than the service expects from one client.
+ */
+public class HttpClientTransport implements HttpTransport {
+
+    /**
+     * The system property with the time in seconds that idle connections are kept open. It is read by the JDK for the
+     * whole JVM, so the application sets it, for example with -Djdk.httpclient.keepalive.timeout=300 on the command
+     * line, before any HttpClient is created.
+     */
+    public static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    private final URI endpoint;
+
+    private final HttpClient httpClient;
+
+    private final Duration requestTimeout;
+
+    private final Semaphore requests;
+
+    /**
+     * Creates a transport.
+     *
+     * @param endpointAddress       the address of the service.
+     * @param httpClient            the client that sends the requests; it can be shared with other transports.
+     * @param maxConcurrentRequests the maximum number of requests in progress at the same time.
+     * @param requestTimeout        the time to wait for the response, or null to wait without a limit.
+     */
+    public HttpClientTransport(String endpointAddress, HttpClient httpClient, int maxConcurrentRequests,
+                               Duration requestTimeout) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("The maximum number of requests should be at least 1.");
+        }
+        try {
+            this.endpoint = new URI(endpointAddress);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid endpoint address " + endpointAddress, e);
+        }
+        this.httpClient = httpClient;
+        this.requestTimeout = requestTimeout;
+        this.requests = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    /**
+     * Creates a client for the transports. The keep-alive time of the connections is not a setting of the client but
+     * of the JDK; see {@link #KEEP_ALIVE_PROPERTY}.
+     *
+     * @param version        the preferred HTTP version; HTTP/2 falls back to HTTP/1.1.
+     * @param connectTimeout the time to wait for a connection, or null to wait without a limit.
+     * @param sslContext     the SSL context of https connections, or null to use the default context.
+     * @return the client.
+     */
+    public static HttpClient createClient(HttpClient.Version version, Duration connectTimeout, SSLContext sslContext) {
+        HttpClient.Builder builder = HttpClient.newBuilder().version(version);
+        if (connectTimeout != null) {
+            builder.connectTimeout(connectTimeout);
+        }
+        if (sslContext != null) {
+            builder.sslContext(sslContext);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String getEndpointAddress() {
+        return endpoint.toString();
+    }
+
+    @Override
+    public Response post(String soapAction, byte[] request, int length) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(endpoint)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(request, 0, length))
+            .header("Content-Type", "text/xml; charset=utf-8")
+            .header("Accept", "text/xml")
+            .header("SOAPAction", soapAction);
+        if (requestTimeout != null) {
+            builder.timeout(requestTimeout);
+        }
+
+        try {
+            requests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send the request");
+        }
+        try {
+            HttpResponse<InputStream> response = httpClient.send(builder.build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+            // The request is in progress until its body has been read
+            return new Response(response.statusCode(), response.headers().firstValue("Content-Type").orElse(null),
+                new ReleasingInputStream(response.body()));
+        } catch (InterruptedException e) {
+            requests.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (IOException | RuntimeException e) {
+            requests.release();
+            throw e;
+        }
+    }
+
+    /**
+     * The body of a response, which ends the request when it is closed.
+     */
+    private final class ReleasingInputStream extends FilterInputStream {
+
+        private boolean closed;
+
+        private ReleasingInputStream(InputStream body) {
+            super(body);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                requests.release();
+            }
+        }
+    }
+}
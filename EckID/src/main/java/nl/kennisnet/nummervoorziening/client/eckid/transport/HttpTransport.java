@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sends the HTTP requests of a {@link SoapTransport} to the service. An implementation can be shared by threads.
+ */
+public interface HttpTransport {
+
+    /**
+     * Gets the address of the service.
+     *
+     * @return the endpoint address.
+     */
+    String getEndpointAddress();
+
+    /**
+     * Posts a SOAP request to the service.
+     *
+     * @param soapAction the value of the SOAPAction header.
+     * @param request    the array with the envelope.
+     * @param length     the length of the envelope in the array.
+     * @return the response, which the caller closes after reading it.
+     * @throws IOException if the service can not be reached, or does not answer in time.
+     */
+    Response post(String soapAction, byte[] request, int length) throws IOException;
+
+    /**
+     * The status, content type and body of a response.
+     */
+    final class Response implements Closeable {
+
+        private final int status;
+
+        private final String contentType;
+
+        private final InputStream body;
+
+        /**
+         * Creates a response.
+         *
+         * @param status      the HTTP status code.
+         * @param contentType the content type, or null if it is unknown.
+         * @param body        the body, or null if the response has none.
+         */
+        public Response(int status, String contentType, InputStream body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Closes the body, which releases the connection.
+         */
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.transport;
+
+import nl.kennisnet.nummervoorziening.client.eckid.OinFromHeader;
+import jakarta.xml.soap.SOAPConstants;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPFactory;
+import jakarta.xml.soap.SOAPFault;
+import jakarta.xml.ws.WebServiceException;
+import jakarta.xml.ws.soap.SOAPFaultException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends SOAP 1.1 requests to the Nummervoorziening service over HTTP, without the JAX-WS runtime. The envelope with
+ * the WS-Addressing headers and the From header with the Instance OIN comes from templates that are prepared once per
+ * operation, the content of the body is written with a streaming writer, and the response is handed to a reader that
+ * parses it incrementally, so a response is never held in memory as a whole.
+ *
+ * The requests are sent by a {@link HttpTransport}, by default with HttpURLConnection. A transport can be shared by
+ * threads.
+ */
+public class SoapTransport {
+
+    /** The namespace of the messages of the Nummervoorziening service. */
+    public static final String SERVICE_NS = "http://ketenid.nl/eck/schemas/v1_0";
+
+    private static final String ENVELOPE_NS = SOAPConstants.URI_NS_SOAP_1_1_ENVELOPE;
+
+    // The Namespace of the WS-Addressing version
+    private static final String ADDRESSING_NS = "http://www.w3.org/2005/08/addressing";
+
+    private static final String ANONYMOUS = ADDRESSING_NS + "/anonymous";
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final byte[] ENVELOPE_TAIL = "</S:Body></S:Envelope>".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpTransport httpTransport;
+
+    /** The templates of the envelope up to the message id, by action. */
+    private final Map<String, byte[]> envelopeHeads = new ConcurrentHashMap<>();
+
+    private final byte[] envelopeMiddle;
+
+    /**
+     * Writes the content of the Body of a request.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+
+        /**
+         * Writes the request element.
+         *
+         * @param writer the writer, positioned inside the Body element.
+         * @throws XMLStreamException if the request can not be written.
+         */
+        void write(XMLStreamWriter writer) throws XMLStreamException;
+    }
+
+    /**
+     * Reads the content of the Body of a response.
+     *
+     * @param <T> the result type.
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+
+        /**
+         * Reads the response element.
+         *
+         * @param reader the reader, positioned at the start of the response element.
+         * @return the result of the operation.
+         * @throws XMLStreamException if the response can not be read.
+         */
+        T read(XMLStreamReader reader) throws XMLStreamException;
+    }
+
+    /**
+     * Creates a transport that sends the requests with HttpURLConnection.
+     *
+     * @param endpointAddress the address of the service.
+     * @param oin             the Instance OIN, sent in the From header.
+     */
+    public SoapTransport(String endpointAddress, String oin) {
+        this(new UrlConnectionTransport(endpointAddress), oin);
+    }
+
+    /**
+     * Creates a transport.
+     *
+     * @param httpTransport sends the requests to the service.
+     * @param oin           the Instance OIN, sent in the From header.
+     */
+    public SoapTransport(HttpTransport httpTransport, String oin) {
+        this.httpTransport = httpTransport;
+        this.envelopeMiddle = createEnvelopeMiddle(OinFromHeader.getAddress(oin));
+    }
+
+    /**
+     * Executes an operation of the service.
+     *
+     * @param operation the name of the operation, like retrieveBatch.
+     * @param body      writes the request element.
+     * @param response  reads the response element.
+     * @param <T>       the result type.
+     * @return the result of the response reader.
+     * @throws SOAPFaultException  if the service answers with a fault.
+     * @throws WebServiceException if the service can not be reached, or the response can not be read.
+     */
+    public <T> T call(String operation, BodyWriter body, ResponseReader<T> response) {
+        String action = SERVICE_NS + '/' + operation;
+        RequestBuffer request = writeRequest(action, body);
+        try (HttpTransport.Response httpResponse = httpTransport.post('"' + action + '"', request.array(),
+            request.size())) {
+            InputStream in = httpResponse.getBody();
+            String contentType = httpResponse.getContentType();
+            if (in == null || contentType == null || !contentType.contains("xml")) {
+                throw new WebServiceException("HTTP status code " + httpResponse.getStatus() + " from "
+                    + httpTransport.getEndpointAddress());
+            }
+            T result = readResponse(in, response);
+            // Read up to the end, so the connection can be kept alive
+            byte[] rest = new byte[512];
+            while (in.read(rest) >= 0) {
+                // discard the closing tags
+            }
+            return result;
+        } catch (IOException e) {
+            throw new WebServiceException(e);
+        }
+    }
+
+    /**
+     * Writes a request: the envelope up to the message id and from the message id up to the body come from the
+     * templates, only the message id and the content of the body are written per request.
+     */
+    private RequestBuffer writeRequest(String action, BodyWriter body) {
+        RequestBuffer out = new RequestBuffer();
+        out.writeBytes(envelopeHeads.computeIfAbsent(action, this::createEnvelopeHead));
+        out.writeBytes(("uuid:" + UUID.randomUUID()).getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(envelopeMiddle);
+        try {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            body.write(writer);
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new WebServiceException("Could not write the request", e);
+        }
+        out.writeBytes(ENVELOPE_TAIL);
+        return out;
+    }
+
+    /**
+     * Creates the template of an envelope up to the content of the MessageID header.
+     */
+    private byte[] createEnvelopeHead(String action) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<S:Envelope xmlns:S=\"" + ENVELOPE_NS + "\"><S:Header>"
+            + "<To xmlns=\"" + ADDRESSING_NS + "\">" + escape(httpTransport.getEndpointAddress()) + "</To>"
+            + "<Action xmlns=\"" + ADDRESSING_NS + "\" S:mustUnderstand=\"1\">" + escape(action) + "</Action>"
+            + "<ReplyTo xmlns=\"" + ADDRESSING_NS + "\"><Address>" + ANONYMOUS + "</Address></ReplyTo>"
+            + "<MessageID xmlns=\"" + ADDRESSING_NS + "\">").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates the template of an envelope from the end of the MessageID header up to the content of the Body.
+     */
+    private static byte[] createEnvelopeMiddle(String from) {
+        return ("</MessageID>"
+            + "<From xmlns=\"" + ADDRESSING_NS + "\"><Address>" + escape(from) + "</Address></From>"
+            + "</S:Header><S:Body>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Skips to the content of the Body, and reads it as a fault or with the response reader.
+     */
+    private static <T> T readResponse(InputStream in, ResponseReader<T> response) {
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (!(reader.isStartElement() && "Body".equals(reader.getLocalName())
+                    && ENVELOPE_NS.equals(reader.getNamespaceURI()))) {
+                    if (!reader.hasNext()) {
+                        throw new WebServiceException("The response has no SOAP Body");
+                    }
+                    reader.next();
+                }
+                reader.nextTag();
+                if ("Fault".equals(reader.getLocalName()) && ENVELOPE_NS.equals(reader.getNamespaceURI())) {
+                    throw readFault(reader);
+                }
+                return response.read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new WebServiceException("Could not read the response", e);
+        }
+    }
+
+    /**
+     * Reads a SOAP 1.1 fault into the exception the JAX-WS runtime would throw for it.
+     */
+    private static SOAPFaultException readFault(XMLStreamReader reader) throws XMLStreamException {
+        QName faultCode = new QName(ENVELOPE_NS, "Server");
+        String faultString = "";
+        String faultActor = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "faultcode":
+                    String code = reader.getElementText().trim();
+                    int colon = code.indexOf(':');
+                    String namespace = colon < 0 ? null : reader.getNamespaceURI(code.substring(0, colon));
+                    faultCode = new QName(namespace == null ? ENVELOPE_NS : namespace, code.substring(colon + 1));
+                    break;
+                case "faultstring":
+                    faultString = reader.getElementText();
+                    break;
+                case "faultactor":
+                    faultActor = reader.getElementText();
+                    break;
+                default:
+                    skipElement(reader);
+            }
+        }
+        try {
+            SOAPFault fault = SOAPFactory.newInstance().createFault(faultString, faultCode);
+            if (faultActor != null) {
+                fault.setFaultActor(faultActor);
+            }
+            return new SOAPFaultException(fault);
+        } catch (SOAPException e) {
+            throw new WebServiceException("Could not create SOAP fault", e);
+        }
+    }
+
+    /**
+     * Skips the current element with its content, leaving the reader at its end.
+     *
+     * @param reader the reader, positioned at the start of the element.
+     * @throws XMLStreamException if the element can not be read.
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Responses have no use for a DTD, and resolving one would allow XML external entity attacks
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Buffer of a request, of which the array is sent without copying it.
+     */
+    private static final class RequestBuffer extends ByteArrayOutputStream {
+
+        private RequestBuffer() {
+            super(1024);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.transport;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Sends the requests with HttpURLConnection, which keeps idle connections open for the next requests of the JVM. A
+ * https endpoint uses the SSL socket factory of the transport, or else the default of HttpsURLConnection.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private final URL endpoint;
+
+    private final int connectTimeoutMillis;
+
+    private final int requestTimeoutMillis;
+
+    private final SSLSocketFactory sslSocketFactory;
+
+    private final HostnameVerifier hostnameVerifier;
+
+    /**
+     * Creates a transport that waits without a limit.
+     *
+     * @param endpointAddress the address of the service.
+     */
+    public UrlConnectionTransport(String endpointAddress) {
+        this(endpointAddress, 0, 0, null, null);
+    }
+
+    /**
+     * Creates a transport.
+     *
+     * @param endpointAddress      the address of the service.
+     * @param connectTimeoutMillis the time to wait for a connection, or 0 to wait without a limit.
+     * @param requestTimeoutMillis the time to wait for the response, or 0 to wait without a limit.
+     * @param sslSocketFactory     the socket factory of https connections, or null to use the default.
+     * @param hostnameVerifier     the host name verifier of https connections, or null to use the default.
+     */
+    public UrlConnectionTransport(String endpointAddress, int connectTimeoutMillis, int requestTimeoutMillis,
+                                  SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+        try {
+            this.endpoint = new URL(endpointAddress);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid endpoint address " + endpointAddress, e);
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.sslSocketFactory = sslSocketFactory;
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    @Override
+    public String getEndpointAddress() {
+        return endpoint.toString();
+    }
+
+    @Override
+    public Response post(String soapAction, byte[] request, int length) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            if (sslSocketFactory != null) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            }
+            if (hostnameVerifier != null) {
+                ((HttpsURLConnection) connection).setHostnameVerifier(hostnameVerifier);
+            }
+        }
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(requestTimeoutMillis);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(length);
+        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+        connection.setRequestProperty("Accept", "text/xml");
+        connection.setRequestProperty("SOAPAction", soapAction);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(request, 0, length);
+        }
+
+        int status = connection.getResponseCode();
+        InputStream body = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream()
+            : connection.getErrorStream();
+        return new Response(status, connection.getContentType(), body);
+    }
+}
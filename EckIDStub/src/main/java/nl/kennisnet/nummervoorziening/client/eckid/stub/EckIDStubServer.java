@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.stub;
+
+import com.sun.net.httpserver.HttpServer;
+import jakarta.xml.ws.Endpoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Publishes an {@link EckIDStubService} over plain HTTP on the loopback interface, using the HTTP server of the JDK.
+ *
+ * Point the client at {@link #getEndpointAddress()} instead of the Nummervoorziening service; no certificate is
+ * needed for an http address.
+ */
+public class EckIDStubServer implements Closeable {
+
+    /** The default number of requests that are handled at the same time. */
+    public static final int DEFAULT_THREADS = 16;
+
+    private static final String PATH = "/eck/ws/201703";
+
+    static {
+        // Without TCP_NODELAY, the delayed acknowledgements of the client add about 40 ms to every response
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final EckIDStubService service;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Endpoint endpoint;
+
+    /**
+     * Starts a stub with the default settings on a free port.
+     *
+     * @throws IOException if the server can not be started.
+     */
+    public EckIDStubServer() throws IOException {
+        this(new EckIDStubService(), 0, DEFAULT_THREADS);
+    }
+
+    /**
+     * Starts a stub.
+     *
+     * @param service the stub service to publish.
+     * @param port    the port to listen on, or 0 for a free port.
+     * @param threads the number of requests that are handled at the same time.
+     * @throws IOException if the server can not be started.
+     */
+    public EckIDStubServer(EckIDStubService service, int port, int threads) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "eckid-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        this.endpoint = Endpoint.create(service);
+        endpoint.publish(server.createContext(PATH));
+        server.start();
+    }
+
+    /**
+     * Gets the published stub service, to change its settings.
+     *
+     * @return the stub service.
+     */
+    public EckIDStubService getService() {
+        return service;
+    }
+
+    /**
+     * Gets the address to use as endpoint.address.
+     *
+     * @return the endpoint address of the stub.
+     */
+    public String getEndpointAddress() {
+        return "http://localhost:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Stops the stub.
+     */
+    @Override
+    public void close() {
+        endpoint.stop();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a stub until the process is stopped, for testing a client in another process.
+     *
+     * @param args optionally the port (default 8080) and the latency in milliseconds of every operation.
+     * @throws IOException if the server can not be started.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        EckIDStubService service = new EckIDStubService();
+        if (args.length > 1) {
+            service.setLatency(LatencyDistribution.fixed(Double.parseDouble(args[1])));
+        }
+        EckIDStubServer server = new EckIDStubServer(service, port, DEFAULT_THREADS);
+        System.out.println("Stub Nummervoorziening service listening on " + server.getEndpointAddress());
+    }
+}
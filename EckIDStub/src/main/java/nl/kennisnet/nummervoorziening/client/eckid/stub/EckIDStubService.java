@@ -0,0 +1,584 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.stub;
+
+import nl.ketenid.eck.schemas.v1_0.*;
+
+import com.sun.xml.ws.api.addressing.AddressingVersion;
+import com.sun.xml.ws.api.message.Header;
+import com.sun.xml.ws.api.message.MessageHeaders;
+import com.sun.xml.ws.developer.JAXWSProperties;
+import jakarta.annotation.Resource;
+import jakarta.jws.WebService;
+import jakarta.xml.soap.SOAPConstants;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPFactory;
+import jakarta.xml.soap.SOAPFault;
+import jakarta.xml.ws.WebServiceContext;
+import jakarta.xml.ws.soap.Addressing;
+import jakarta.xml.ws.soap.SOAPFaultException;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the Nummervoorziening service, for testing the client without network access and without
+ * using the daily batch quota. Publish it with {@link EckIDStubServer}.
+ *
+ * Stampseudonyms and EckIDs are derived from the input with SHA-512, so the same input always gives the same fake
+ * value; they are not the values of the real service. Substitutions are followed the same way as by the service.
+ * Latency, the processing time of batches and the TemporaryBlockedException and
+ * LimitDailyBatchSubmissionsExceededException faults can be configured, also while the stub is running.
+ *
+ * Faults are SOAP faults of which the fault actor names the exception, like those of the real service. Invalid input
+ * is reported with the fault actor {@value #VALIDATION_FAULT}, as is a message without the From header with the OIN
+ * of the client.
+ */
+@WebService(serviceName = "EckIDService", portName = "EckIDSoap10", targetNamespace = "http://ketenid.nl/eck/schemas/v1_0",
+    endpointInterface = "nl.ketenid.eck.schemas.v1_0.EckIDPort")
+@Addressing(required = true)
+public class EckIDStubService implements EckIDPort {
+
+    /** The application version the stub reports on ping. */
+    public static final String APPLICATION_VERSION = "stub";
+
+    /** The chain the stub knows by default. */
+    public static final String DEFAULT_CHAIN_ID =
+        "http://purl.edustandaard.nl/begrippenkader/e7ec7d3c-c235-4513-bfb6-e54e66854795";
+
+    /** The sector the stub knows by default. */
+    public static final String DEFAULT_SECTOR_ID =
+        "http://purl.edustandaard.nl/begrippenkader/512e4729-03a4-43a2-95ba-758071d1b725";
+
+    static final String VALIDATION_FAULT = "ValidationException";
+
+    static final String NOT_FINISHED_FAULT = "NotFinishedException";
+
+    static final String TEMPORARY_BLOCKED_FAULT = "TemporaryBlockedException";
+
+    static final String DAILY_LIMIT_FAULT = "LimitDailyBatchSubmissionsExceededException";
+
+    static final String ALREADY_RETRIEVED_FAULT = "ContentAlreadyRetrievedException";
+
+    static final String REMOVED_FAULT = "ContentRemovedException";
+
+    private static final String STAMPSEUDONYM_PREFIX = "https://ketenid.nl/stub/sp/";
+
+    private static final String ECK_ID_PREFIX = "https://ketenid.nl/stub/";
+
+    private static final String FROM_OIN_PREFIX = "?oin=";
+
+    /** The number of retrieved batch identifiers that are remembered; older ones are reported as unknown. */
+    private static final int MAX_RETRIEVED_BATCHES = 10_000;
+
+    private static final Pattern HPGN_PATTERN = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private static final DatatypeFactory DATATYPE_FACTORY;
+
+    static {
+        try {
+            DATATYPE_FACTORY = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The context of the current request; injected when the stub is published. */
+    @Resource
+    private WebServiceContext context;
+
+    private volatile String lastClientOin;
+
+    private final Map<String, Chain> chains = new ConcurrentHashMap<>();
+
+    private final Map<String, Sector> sectors = new ConcurrentHashMap<>();
+
+    /** Substitutions by new HPgn. */
+    private final Map<String, Substitution> substitutions = new ConcurrentHashMap<>();
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    /** The identifiers of the most recently retrieved batches, to report a second retrieval. */
+    private final Set<String> retrievedBatches = Collections.synchronizedSet(Collections.newSetFromMap(
+        new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_RETRIEVED_BATCHES;
+            }
+        }));
+
+    private volatile LatencyDistribution latency = LatencyDistribution.none();
+
+    private volatile long batchProcessingMillis;
+
+    private volatile long batchItemProcessingMicros;
+
+    private volatile double temporaryBlockedProbability;
+
+    private volatile int dailyBatchSubmissionLimit = Integer.MAX_VALUE;
+
+    private LocalDate submissionDate = LocalDate.now();
+
+    private int submissionCount;
+
+    /**
+     * Creates a stub which knows the default chain and sector, answers without delay and finishes batches
+     * immediately.
+     */
+    public EckIDStubService() {
+        addChain(DEFAULT_CHAIN_ID, "Stub chain");
+        addSector(DEFAULT_SECTOR_ID, "Stub sector");
+    }
+
+    /**
+     * Adds a chain, which can be used in EckID operations from then on.
+     *
+     * @param id   the chain id.
+     * @param name the chain name.
+     */
+    public void addChain(String id, String name) {
+        Chain chain = new Chain();
+        chain.setId(id);
+        chain.setName(name);
+        chain.setDescription(name);
+        chain.setLastEdited(now());
+        chains.put(id, chain);
+    }
+
+    /**
+     * Adds a sector, which can be used in EckID operations from then on.
+     *
+     * @param id   the sector id.
+     * @param name the sector name.
+     */
+    public void addSector(String id, String name) {
+        Sector sector = new Sector();
+        sector.setId(id);
+        sector.setName(name);
+        sector.setDescription(name);
+        sector.setLastEdited(now());
+        sectors.put(id, sector);
+    }
+
+    /**
+     * Sets the time each operation takes, on top of the time needed to transfer and process the messages.
+     *
+     * @param latency the latency distribution.
+     */
+    public void setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets how long a batch is processed; until then retrieving it fails with a NotFinishedException.
+     *
+     * @param millis             the processing time of every batch, in milliseconds.
+     * @param microsPerListEntry the additional processing time per entry of the batch, in microseconds.
+     */
+    public void setBatchProcessingTime(long millis, long microsPerListEntry) {
+        this.batchProcessingMillis = millis;
+        this.batchItemProcessingMicros = microsPerListEntry;
+    }
+
+    /**
+     * Sets the chance that an operation other than ping fails with a TemporaryBlockedException.
+     *
+     * @param probability the chance, from 0 (never) to 1 (always).
+     */
+    public void setTemporaryBlockedProbability(double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("The probability should be between 0 and 1.");
+        }
+        this.temporaryBlockedProbability = probability;
+    }
+
+    /**
+     * Sets the number of batches that can be submitted per day; more submissions fail with a
+     * LimitDailyBatchSubmissionsExceededException.
+     *
+     * @param limit the number of batches per day.
+     */
+    public synchronized void setDailyBatchSubmissionLimit(int limit) {
+        this.dailyBatchSubmissionLimit = limit;
+    }
+
+    /**
+     * Forgets the batches submitted today, as happens at midnight.
+     */
+    public synchronized void resetDailyBatchSubmissions() {
+        submissionCount = 0;
+    }
+
+    /**
+     * Gets the OIN in the From header of the last request.
+     *
+     * @return the OIN of the last client, or null if no request has been received.
+     */
+    public String getLastClientOin() {
+        return lastClientOin;
+    }
+
+    @Override
+    public PingResponse ping(PingRequest pingRequest) {
+        checkClientOin();
+        delay();
+        PingResponse response = new PingResponse();
+        response.setAvailable(true);
+        response.setApplicationVersion(APPLICATION_VERSION);
+        response.setSystemTime(now());
+        return response;
+    }
+
+    @Override
+    public RetrieveStampseudonymResponse retrieveStampseudonym(RetrieveStampseudonymRequest request) {
+        checkAvailable();
+        String hpgn = request.getHpgn() == null ? null : request.getHpgn().getValue();
+        if (!isValidHpgn(hpgn)) {
+            throw fault(VALIDATION_FAULT, "Invalid HPgn");
+        }
+        RetrieveStampseudonymResponse response = new RetrieveStampseudonymResponse();
+        response.setStampseudonym(toStampseudonym(stampseudonym(hpgn)));
+        return response;
+    }
+
+    @Override
+    public RetrieveEckIdResponse retrieveEckId(RetrieveEckIdRequest request) {
+        checkAvailable();
+        checkChainAndSector(request.getChainId(), request.getSectorId());
+        String stampseudonym = request.getStampseudonym() == null ? null : request.getStampseudonym().getValue();
+        if (!isValidStampseudonym(stampseudonym)) {
+            throw fault(VALIDATION_FAULT, "Invalid stampseudonym");
+        }
+        EckId eckId = new EckId();
+        eckId.setValue(eckId(stampseudonym, request.getChainId(), request.getSectorId()));
+        RetrieveEckIdResponse response = new RetrieveEckIdResponse();
+        response.setEckId(eckId);
+        return response;
+    }
+
+    @Override
+    public SubmitBatchResponse submitEckIdBatch(SubmitEckIdBatchRequest request) {
+        checkAvailable();
+        checkChainAndSector(request.getChainId(), request.getSectorId());
+        List<ListedStampseudonym> list = request.getStampseudonymList();
+        if (list.isEmpty()) {
+            throw fault(VALIDATION_FAULT, "Empty stampseudonym list");
+        }
+        countSubmission();
+
+        RetrieveBatchResponse result = new RetrieveBatchResponse();
+        for (ListedStampseudonym entry : list) {
+            String stampseudonym = entry.getStampseudonym() == null ? null : entry.getStampseudonym().getValue();
+            if (isValidStampseudonym(stampseudonym)) {
+                result.getSuccess().add(success(entry.getIndex(),
+                    eckId(stampseudonym, request.getChainId(), request.getSectorId())));
+            } else {
+                result.getFailed().add(failure(entry.getIndex(), "Invalid stampseudonym"));
+            }
+        }
+        return submit(result, list.size());
+    }
+
+    @Override
+    public SubmitBatchResponse submitStampseudonymBatch(SubmitStampseudonymBatchRequest request) {
+        checkAvailable();
+        List<ListedHpgn> list = request.getHpgnList();
+        if (list.isEmpty()) {
+            throw fault(VALIDATION_FAULT, "Empty HPgn list");
+        }
+        countSubmission();
+
+        RetrieveBatchResponse result = new RetrieveBatchResponse();
+        for (ListedHpgn entry : list) {
+            String hpgn = entry.getHPgn() == null ? null : entry.getHPgn().getValue();
+            if (isValidHpgn(hpgn)) {
+                result.getSuccess().add(success(entry.getIndex(), stampseudonym(hpgn)));
+            } else {
+                result.getFailed().add(failure(entry.getIndex(), "Invalid HPgn"));
+            }
+        }
+        return submit(result, list.size());
+    }
+
+    @Override
+    public RetrieveBatchResponse retrieveBatch(RetrieveBatchRequest request) {
+        checkAvailable();
+        String batchIdentifier = request.getBatchIdentifier() == null ? null : request.getBatchIdentifier().getValue();
+        if (batchIdentifier == null) {
+            throw fault(VALIDATION_FAULT, "Missing batch identifier");
+        }
+        if (retrievedBatches.contains(batchIdentifier)) {
+            throw fault(ALREADY_RETRIEVED_FAULT, "The batch has already been retrieved");
+        }
+        Batch batch = batches.get(batchIdentifier);
+        if (batch == null) {
+            throw fault(REMOVED_FAULT, "Unknown batch identifier");
+        }
+        if (System.nanoTime() - batch.readyAt < 0) {
+            throw fault(NOT_FINISHED_FAULT, "The batch is still being processed");
+        }
+        if (!retrievedBatches.add(batchIdentifier)) {
+            throw fault(ALREADY_RETRIEVED_FAULT, "The batch has already been retrieved");
+        }
+        batches.remove(batchIdentifier);
+        return batch.result;
+    }
+
+    @Override
+    public ReplaceStampseudonymResponse replaceStampseudonym(ReplaceStampseudonymRequest request) {
+        checkAvailable();
+        String newHpgn = request.getHpgnNew() == null ? null : request.getHpgnNew().getValue();
+        String oldHpgn = request.getHpgnOld() == null ? null : request.getHpgnOld().getValue();
+        if (!isValidHpgn(newHpgn) || !isValidHpgn(oldHpgn)) {
+            throw fault(VALIDATION_FAULT, "Invalid HPgn");
+        }
+        if (newHpgn.equalsIgnoreCase(oldHpgn)) {
+            throw fault(VALIDATION_FAULT, "The new and old HPgn are the same");
+        }
+        XMLGregorianCalendar effectiveDate = request.getEffectiveDate();
+        long effectiveAt = effectiveDate == null ? System.currentTimeMillis()
+            : effectiveDate.toGregorianCalendar().getTimeInMillis();
+        substitutions.put(newHpgn.toLowerCase(), new Substitution(oldHpgn.toLowerCase(), effectiveAt));
+
+        ReplaceStampseudonymResponse response = new ReplaceStampseudonymResponse();
+        response.setStampseudonym(toStampseudonym(stampseudonym(newHpgn)));
+        return response;
+    }
+
+    @Override
+    public RetrieveChainsResponse retrieveChains(RetrieveChainsRequest request) {
+        checkAvailable();
+        RetrieveChainsResponse response = new RetrieveChainsResponse();
+        response.getChain().addAll(chains.values());
+        return response;
+    }
+
+    @Override
+    public RetrieveSectorsResponse retrieveSectors(RetrieveSectorsRequest request) {
+        checkAvailable();
+        RetrieveSectorsResponse response = new RetrieveSectorsResponse();
+        response.getSector().addAll(sectors.values());
+        return response;
+    }
+
+    /**
+     * Derives the stampseudonym of a HPgn, after following the substitutions that are in effect.
+     */
+    String stampseudonym(String hpgn) {
+        String current = hpgn.toLowerCase();
+        long now = System.currentTimeMillis();
+        // A substitution chain can not loop back, but guard against it anyway
+        for (int i = 0; i <= substitutions.size(); i++) {
+            Substitution substitution = substitutions.get(current);
+            if (substitution == null || substitution.effectiveAt > now) {
+                break;
+            }
+            current = substitution.oldHpgn;
+        }
+        return STAMPSEUDONYM_PREFIX + sha512Hex("stampseudonym:" + current);
+    }
+
+    /**
+     * Derives the EckID of a stampseudonym in a chain and sector.
+     */
+    static String eckId(String stampseudonym, String chainId, String sectorId) {
+        return ECK_ID_PREFIX + sha512Hex("eckid:" + chainId + '|' + sectorId + '|' + stampseudonym);
+    }
+
+    private SubmitBatchResponse submit(RetrieveBatchResponse result, int size) {
+        String batchIdentifier = UUID.randomUUID().toString();
+        long processingNanos = TimeUnit.MILLISECONDS.toNanos(batchProcessingMillis)
+            + TimeUnit.MICROSECONDS.toNanos(batchItemProcessingMicros * size);
+        batches.put(batchIdentifier, new Batch(result, System.nanoTime() + processingNanos));
+
+        BatchIdentifier identifier = new BatchIdentifier();
+        identifier.setValue(batchIdentifier);
+        SubmitBatchResponse response = new SubmitBatchResponse();
+        response.setBatchIdentifier(identifier);
+        return response;
+    }
+
+    private synchronized void countSubmission() {
+        LocalDate today = LocalDate.now();
+        if (!today.equals(submissionDate)) {
+            submissionDate = today;
+            submissionCount = 0;
+        }
+        if (submissionCount >= dailyBatchSubmissionLimit) {
+            throw fault(DAILY_LIMIT_FAULT, "The daily limit of " + dailyBatchSubmissionLimit + " batches is reached");
+        }
+        submissionCount++;
+    }
+
+    private void checkChainAndSector(String chainId, String sectorId) {
+        if (chainId == null || !chains.containsKey(chainId)) {
+            throw fault(VALIDATION_FAULT, "Unknown chain");
+        }
+        if (sectorId == null || !sectors.containsKey(sectorId)) {
+            throw fault(VALIDATION_FAULT, "Unknown sector");
+        }
+    }
+
+    /**
+     * Waits for the configured latency and fails the operation with the configured chance of being blocked.
+     */
+    private void checkAvailable() {
+        checkClientOin();
+        delay();
+        double probability = temporaryBlockedProbability;
+        if (probability > 0 && ThreadLocalRandom.current().nextDouble() < probability) {
+            throw fault(TEMPORARY_BLOCKED_FAULT, "The client is temporarily blocked");
+        }
+    }
+
+    /**
+     * Checks that the request has the From header with the OIN of the client, like the Nummervoorziening service
+     * requires.
+     */
+    private void checkClientOin() {
+        if (context == null) {
+            return;
+        }
+        MessageHeaders headers = (MessageHeaders) context.getMessageContext()
+            .get(JAXWSProperties.INBOUND_HEADER_LIST_PROPERTY);
+        Header from = headers == null ? null : headers.get(AddressingVersion.W3C.nsUri, "From", true);
+        String address;
+        try {
+            address = from == null ? null : from.readAsEPR(AddressingVersion.W3C).getAddress();
+        } catch (XMLStreamException e) {
+            throw fault(VALIDATION_FAULT, "Invalid From header");
+        }
+        int oinStart = address == null ? -1 : address.indexOf(FROM_OIN_PREFIX);
+        if (oinStart < 0) {
+            throw fault(VALIDATION_FAULT, "Missing From header with the OIN of the client");
+        }
+        lastClientOin = address.substring(oinStart + FROM_OIN_PREFIX.length());
+    }
+
+    private void delay() {
+        long micros = latency.nextDelayMicros();
+        if (micros > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(micros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static boolean isValidHpgn(String hpgn) {
+        return hpgn != null && HPGN_PATTERN.matcher(hpgn).matches();
+    }
+
+    private static boolean isValidStampseudonym(String stampseudonym) {
+        return stampseudonym != null && !stampseudonym.isBlank();
+    }
+
+    private static Stampseudonym toStampseudonym(String value) {
+        Stampseudonym stampseudonym = new Stampseudonym();
+        stampseudonym.setValue(value);
+        return stampseudonym;
+    }
+
+    private static ListedEntitySuccess success(int index, String value) {
+        ListedEntitySuccess success = new ListedEntitySuccess();
+        success.setIndex(index);
+        success.setValue(value);
+        return success;
+    }
+
+    private static ListedEntityFailure failure(int index, String errorMessage) {
+        ListedEntityFailure failure = new ListedEntityFailure();
+        failure.setIndex(index);
+        failure.setErrorMessage(errorMessage);
+        return failure;
+    }
+
+    private static SOAPFaultException fault(String faultActor, String message) {
+        try {
+            SOAPFault fault = SOAPFactory.newInstance().createFault(message,
+                new QName(SOAPConstants.URI_NS_SOAP_1_1_ENVELOPE, "Server"));
+            fault.setFaultActor(faultActor);
+            return new SOAPFaultException(fault);
+        } catch (SOAPException e) {
+            throw new IllegalStateException("Could not create SOAP fault", e);
+        }
+    }
+
+    private static XMLGregorianCalendar now() {
+        return DATATYPE_FACTORY.newXMLGregorianCalendar(new GregorianCalendar());
+    }
+
+    private static String sha512Hex(String input) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-512").digest(input.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM doesn't support SHA-512?", e);
+        }
+    }
+
+    /**
+     * A substitution of a new HPgn by an old HPgn, from a moment in time.
+     */
+    private static final class Substitution {
+
+        private final String oldHpgn;
+
+        private final long effectiveAt;
+
+        private Substitution(String oldHpgn, long effectiveAt) {
+            this.oldHpgn = oldHpgn;
+            this.effectiveAt = effectiveAt;
+        }
+    }
+
+    /**
+     * A submitted batch, with its result and the moment (in {@link System#nanoTime()}) it is finished.
+     */
+    private static final class Batch {
+
+        private final RetrieveBatchResponse result;
+
+        private final long readyAt;
+
+        private Batch(RetrieveBatchResponse result, long readyAt) {
+            this.result = result;
+            this.readyAt = readyAt;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client.eckid.stub;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribution of the processing time the stub service adds to each operation, in microseconds.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * Draws the delay for the next operation.
+     *
+     * @return the delay in microseconds, zero or more.
+     */
+    long nextDelayMicros();
+
+    /**
+     * Operations are answered without delay.
+     *
+     * @return a distribution without delay.
+     */
+    static LatencyDistribution none() {
+        return () -> 0;
+    }
+
+    /**
+     * Every operation takes the same time.
+     *
+     * @param millis the delay in milliseconds.
+     * @return a fixed distribution.
+     */
+    static LatencyDistribution fixed(double millis) {
+        long micros = toMicros(millis);
+        return () -> micros;
+    }
+
+    /**
+     * The delay is uniformly distributed between a minimum and a maximum.
+     *
+     * @param minMillis the minimum delay in milliseconds.
+     * @param maxMillis the maximum delay in milliseconds.
+     * @return a uniform distribution.
+     */
+    static LatencyDistribution uniform(double minMillis, double maxMillis) {
+        long min = toMicros(minMillis);
+        long max = toMicros(maxMillis);
+        if (max < min) {
+            throw new IllegalArgumentException("The maximum delay should not be less than the minimum delay.");
+        }
+        return () -> min + ThreadLocalRandom.current().nextLong(max - min + 1);
+    }
+
+    /**
+     * A minimum delay plus an exponentially distributed part, which gives the long tail of a loaded service.
+     *
+     * @param minMillis  the minimum delay in milliseconds.
+     * @param meanMillis the mean of the exponential part in milliseconds.
+     * @return a shifted exponential distribution.
+     */
+    static LatencyDistribution exponential(double minMillis, double meanMillis) {
+        long min = toMicros(minMillis);
+        double mean = toMicros(meanMillis);
+        return () -> min + (long) (-mean * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private static long toMicros(double millis) {
+        if (millis < 0 || Double.isNaN(millis)) {
+            throw new IllegalArgumentException("A delay should be zero or more milliseconds.");
+        }
+        return Math.round(millis * 1000);
+    }
+}
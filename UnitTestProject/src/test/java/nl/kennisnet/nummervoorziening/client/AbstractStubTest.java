@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubServer;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Abstract unit test that starts the embedded stub of the Nummervoorziening service and connects a client to it
+ * before each test, so the tests do not need the Nummervoorziening service.
+ */
+public abstract class AbstractStubTest {
+
+    /** The Instance OIN of the clients of the stub. */
+    protected static final String CLIENT_OIN = "00000001234567890000";
+
+    protected EckIDStubServer stubServer;
+
+    protected EckIDStubService stub;
+
+    protected EckIDServiceUtil eckIdServiceUtil;
+
+    /**
+     * Starts the stub and connects a client to it.
+     */
+    @BeforeEach
+    public void setup() throws IOException, GeneralSecurityException {
+        stubServer = new EckIDStubServer();
+        stub = stubServer.getService();
+        eckIdServiceUtil = createClient(Configuration.SOAP_ENGINE_JAXWS);
+    }
+
+    /**
+     * Connects another client to the stub.
+     *
+     * @param soapEngine the engine that sends the operations of the client.
+     * @return the client.
+     */
+    protected EckIDServiceUtil createClient(String soapEngine) throws GeneralSecurityException {
+        return new EckIDServiceUtil(new StubConfiguration(stubServer.getEndpointAddress(), getResultCacheSize(),
+            soapEngine));
+    }
+
+    /**
+     * Gets the size of the result cache of the client.
+     *
+     * @return the size of the result cache, by default 0 so results are not cached.
+     */
+    protected int getResultCacheSize() {
+        return 0;
+    }
+
+    /**
+     * Stops the stub.
+     */
+    @AfterEach
+    public void tearDown() {
+        stubServer.close();
+    }
+
+    /**
+     * Configuration for a client of the stub, which needs no certificate. Tests can override the other options.
+     */
+    protected static class StubConfiguration implements Configuration {
+
+        private final String endpointAddress;
+
+        private final int resultCacheSize;
+
+        private final String soapEngine;
+
+        protected StubConfiguration(String endpointAddress, int resultCacheSize, String soapEngine) {
+            this.endpointAddress = endpointAddress;
+            this.resultCacheSize = resultCacheSize;
+            this.soapEngine = soapEngine;
+        }
+
+        @Override
+        public String getEndpointAddress() {
+            return endpointAddress;
+        }
+
+        @Override
+        public String getClientInstanceOin() {
+            return CLIENT_OIN;
+        }
+
+        @Override
+        public String getCertificateKeyStorePath() {
+            return null;
+        }
+
+        @Override
+        public String getCertificateKeyStorePassword() {
+            return null;
+        }
+
+        @Override
+        public String getCertificatePassword() {
+            return null;
+        }
+
+        @Override
+        public String getFirstLevelSalt() {
+            return "c3R1YiB0ZXN0IHNhbHQ=";
+        }
+
+        @Override
+        public String getFirstLevelScryptEngine() {
+            return "pooled-java";
+        }
+
+        @Override
+        public int getResultCacheSize() {
+            return resultCacheSize;
+        }
+
+        @Override
+        public String getSoapEngine() {
+            return soapEngine;
+        }
+    }
+}
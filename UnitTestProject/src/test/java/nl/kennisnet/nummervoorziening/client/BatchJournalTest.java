@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchJournal;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates usage of the journal from which bulk runs resume. These tests do not need the Nummervoorziening
+ * service.
+ */
+public class BatchJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Tests that the records survive reopening the journal, and that a partly written record is discarded.
+     * A chunk with other input than the journaled one is refused.
+     */
+    @Test
+    public void testRecordsSurviveReopening() throws IOException {
+        Path journalFile = tempDir.resolve("bulk.journal");
+        try (BatchJournal journal = new BatchJournal(journalFile)) {
+            journal.startRun("run");
+            journal.startChunk(0, new String[] {"pgn0", "pgn1"});
+            journal.recordHashes(0, new String[] {"abc", null});
+            journal.recordSubmitted(0, BatchJournal.Stage.STAMPSEUDONYM, "batch\t1");
+        }
+        Files.write(journalFile, "RETRIEVED\t0\tSTAMPSEUDONYM\t+0:stamp".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+
+        try (BatchJournal journal = new BatchJournal(journalFile)) {
+            journal.startRun("run");
+            journal.startChunk(0, new String[] {"pgn0", "pgn1"});
+            assertThrows(IllegalStateException.class, () -> journal.startChunk(0, new String[] {"pgn0", "pgn2"}));
+            assertArrayEquals(new String[] {"abc", ""}, journal.getHashes(0));
+            assertNull(journal.getHashes(1));
+            assertEquals("batch\t1", journal.getBatchIdentifier(0, BatchJournal.Stage.STAMPSEUDONYM));
+            assertNull(journal.getBatchIdentifier(0, BatchJournal.Stage.ECKID));
+            assertNull(journal.getRetrieved(0, BatchJournal.Stage.STAMPSEUDONYM));
+            assertThrows(IllegalStateException.class, () -> journal.startRun("other run"));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates waiting for many batches at once with a BatchTracker, against the embedded stub of the
+ * Nummervoorziening service.
+ */
+public class BatchTrackerTest extends AbstractStubTest {
+
+    /**
+     * Tests that many batches are waited for at the same time, and retrieved soon after they are finished.
+     */
+    @Test
+    public void testManyBatches() throws InterruptedException, ExecutionException {
+        stub.setBatchProcessingTime(300, 0);
+        List<String> hpgns = new ArrayList<>();
+        List<CompletableFuture<EckIDServiceBatch>> batches = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 1_000, 10_000)) {
+            for (int i = 0; i < 20; i++) {
+                String hpgn = String.format("%064x", i + 1);
+                hpgns.add(hpgn);
+                batches.add(batchTracker.track(
+                    eckIdServiceUtil.submitStampseudonymBatch(Collections.singletonMap(0, hpgn)), 1));
+            }
+            for (int i = 0; i < batches.size(); i++) {
+                assertEquals(eckIdServiceUtil.generateStampseudonym(hpgns.get(i)),
+                    batches.get(i).get().getSuccess().get(0));
+            }
+            assertEquals(0, batchTracker.getTrackedBatches());
+        }
+        // The previous fixed sleep of 21 seconds per attempt is not needed
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    /**
+     * Tests that other faults than NotFinishedException complete the future exceptionally.
+     */
+    @Test
+    public void testFault() {
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 1_000, 10_000)) {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                () -> batchTracker.track("unknown_batch_identifier", 1).get());
+            assertInstanceOf(SOAPFaultException.class, e.getCause());
+        }
+    }
+
+    /**
+     * Tests that a batch which is not finished in time is given up.
+     */
+    @Test
+    public void testTimeout() {
+        stub.setBatchProcessingTime(60_000, 0);
+        String batchIdentifier = eckIdServiceUtil.submitStampseudonymBatch(
+            Collections.singletonMap(0, AbstractUnitTest.VALID_STUDENT_HPGN));
+
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 100, 500)) {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                () -> batchTracker.track(batchIdentifier, 1).get());
+            assertInstanceOf(TimeoutException.class, e.getCause());
+        }
+    }
+
+    /**
+     * Tests that a batch completes exceptionally, instead of never, when the client is closed while it is tracked.
+     */
+    @Test
+    public void testClientClosedWhileTracking() throws GeneralSecurityException, IOException {
+        stub.setBatchProcessingTime(60_000, 0);
+        EckIDServiceUtil client = createClient(Configuration.SOAP_ENGINE_STREAMING);
+        String batchIdentifier = client.submitStampseudonymBatch(
+            Collections.singletonMap(0, AbstractUnitTest.VALID_STUDENT_HPGN));
+
+        try (BatchTracker batchTracker = new BatchTracker(client, 50, 100, 60_000)) {
+            CompletableFuture<EckIDServiceBatch> batch = batchTracker.track(batchIdentifier, 1);
+            client.close();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> batch.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchJournal;
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.BulkProcessor;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates processing a file of PGNs as a pipeline, against the embedded stub of the Nummervoorziening service.
+ * These tests do not need the Nummervoorziening service.
+ */
+public class BulkProcessorTest extends AbstractStubTest {
+
+    private static final String[] PGNS = {"063138219", "", "\"20DP teacher@school.com\"", "123456782;extra column"};
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Tests that all lines are written in input order, with the EckIDs of the valid PGNs and an error message for
+     * the invalid one.
+     */
+    @Test
+    public void testLinesAreWrittenInOrder() throws IOException, InterruptedException {
+        stub.setBatchProcessingTime(100, 0);
+        StringBuilder input = new StringBuilder("pgn\n");
+        for (String pgn : PGNS) {
+            input.append(pgn).append('\n');
+        }
+
+        StringWriter output = new StringWriter();
+        BulkProcessor.Summary summary;
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            summary = new BulkProcessor(eckIdServiceUtil, batchTracker, 2, 2).process(
+                new BufferedReader(new StringReader(input.toString())), output, EckIDStubService.DEFAULT_CHAIN_ID,
+                EckIDStubService.DEFAULT_SECTOR_ID);
+        }
+
+        assertEquals(PGNS.length, summary.getLines());
+        assertEquals(1, summary.getFailedLines());
+
+        String[] lines = output.toString().split("\n");
+        assertEquals("index,stampseudonym,eckid,error", lines[0]);
+        assertEquals(PGNS.length + 1, lines.length);
+        for (int i = 0; i < PGNS.length; i++) {
+            String[] columns = lines[i + 1].split(",", -1);
+            assertEquals(String.valueOf(i), columns[0]);
+            if (PGNS[i].isEmpty()) {
+                assertEquals("", columns[1]);
+                assertFalse(columns[3].isEmpty());
+                continue;
+            }
+            String pgn = PGNS[i].replace("\"", "").split(";")[0];
+            String stampseudonym = eckIdServiceUtil.generateStampseudonym(
+                eckIdServiceUtil.getScryptUtil().generateHexHash(pgn));
+            assertEquals(stampseudonym, columns[1]);
+            assertEquals(eckIdServiceUtil.generateEckID(stampseudonym, EckIDStubService.DEFAULT_CHAIN_ID,
+                EckIDStubService.DEFAULT_SECTOR_ID), columns[2]);
+            assertEquals("", columns[3]);
+        }
+    }
+
+    /**
+     * Tests that only stampseudonyms are written without a chain and sector, and that a chunk without valid PGNs is
+     * not submitted.
+     */
+    @Test
+    public void testStampseudonymsOnly() throws IOException, InterruptedException {
+        stub.setDailyBatchSubmissionLimit(0);
+        StringWriter output = new StringWriter();
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            new BulkProcessor(eckIdServiceUtil, batchTracker).process(new BufferedReader(new StringReader("\n")),
+                output, null, null);
+        }
+
+        assertEquals("index,stampseudonym,error\n0,,The supplied input doesn't contain at least one character.\n",
+            output.toString());
+    }
+
+    /**
+     * Tests that a restarted run resumes from the journal: a submitted batch is retrieved instead of submitted again,
+     * and retrieved results are not retrieved again. A run with other input is refused.
+     */
+    @Test
+    public void testRunResumesFromJournal() throws IOException, InterruptedException {
+        String hpgn = eckIdServiceUtil.getScryptUtil().generateHexHash(PGNS[0]);
+        String stampseudonym = eckIdServiceUtil.generateStampseudonym(hpgn);
+        String expected = "index,stampseudonym,error\n0," + stampseudonym + ",\n";
+        Path journalFile = tempDir.resolve("bulk.journal");
+
+        // The first run was interrupted after submitting its only batch
+        try (BatchJournal journal = new BatchJournal(journalFile)) {
+            journal.startRun("chunkSize=1,chain=,sector=");
+            journal.startChunk(0, new String[] {PGNS[0]});
+            journal.recordHashes(0, new String[] {hpgn});
+            journal.recordSubmitted(0, BatchJournal.Stage.STAMPSEUDONYM,
+                eckIdServiceUtil.submitStampseudonymBatch(Collections.singletonMap(0, hpgn)));
+        }
+        stub.setDailyBatchSubmissionLimit(0);
+
+        for (int run = 0; run < 2; run++) {
+            StringWriter output = new StringWriter();
+            try (BatchJournal journal = new BatchJournal(journalFile);
+                 BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+                BulkProcessor bulkProcessor = new BulkProcessor(eckIdServiceUtil, batchTracker, 1, 1);
+                bulkProcessor.setJournal(journal);
+                bulkProcessor.process(new BufferedReader(new StringReader(PGNS[0] + "\n")), output, null, null);
+            }
+            assertEquals(expected, output.toString());
+        }
+
+        try (BatchJournal journal = new BatchJournal(journalFile);
+             BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            BulkProcessor bulkProcessor = new BulkProcessor(eckIdServiceUtil, batchTracker, 1, 1);
+            bulkProcessor.setJournal(journal);
+            assertThrows(IllegalStateException.class, () -> bulkProcessor.process(
+                new BufferedReader(new StringReader(PGNS[3] + "\n")), new StringWriter(), null, null));
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.ChainSectorCache;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import jakarta.xml.ws.soap.SOAPFaultException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates looking up chains and sectors in the ChainSectorCache, against the embedded stub of the
+ * Nummervoorziening service.
+ */
+public class ChainSectorCacheTest extends AbstractStubTest {
+
+    private static final String NEW_CHAIN_ID = "http://purl.edustandaard.nl/begrippenkader/new-chain";
+
+    /**
+     * Tests the lookup of chains and sectors by id and by name.
+     */
+    @Test
+    public void testLookup() {
+        ChainSectorCache cache = eckIdServiceUtil.getChainSectorCache();
+
+        assertEquals(1, cache.getChains().size());
+        assertEquals("Stub chain", cache.getChainById(EckIDStubService.DEFAULT_CHAIN_ID).getName());
+        assertEquals(EckIDStubService.DEFAULT_CHAIN_ID, cache.getChainByName("Stub chain").getId());
+        assertEquals("Stub sector", cache.getSectorById(EckIDStubService.DEFAULT_SECTOR_ID).getName());
+        assertEquals(EckIDStubService.DEFAULT_SECTOR_ID, cache.getSectorByName("Stub sector").getId());
+        assertNull(cache.getChainById(AbstractUnitTest.INVALID_CHAIN_GUID));
+        assertSame(cache, eckIdServiceUtil.getChainSectorCache());
+    }
+
+    /**
+     * Tests that the cached lists are only replaced when a chain or sector changed.
+     */
+    @Test
+    public void testRefreshDetectsChanges() {
+        try (ChainSectorCache cache = new ChainSectorCache(eckIdServiceUtil, 60_000)) {
+            List<?> chains = cache.getChains();
+            List<?> sectors = cache.getSectors();
+
+            cache.refresh();
+            assertSame(chains, cache.getChains());
+
+            stub.addChain(NEW_CHAIN_ID, "New chain");
+            cache.refresh();
+            assertNotSame(chains, cache.getChains());
+            assertEquals(NEW_CHAIN_ID, cache.getChainByName("New chain").getId());
+            assertSame(sectors, cache.getSectors());
+        }
+    }
+
+    /**
+     * Tests that the cache is refreshed in the background.
+     */
+    @Test
+    public void testBackgroundRefresh() throws InterruptedException {
+        try (ChainSectorCache cache = new ChainSectorCache(eckIdServiceUtil, 100)) {
+            assertNull(cache.getChainById(NEW_CHAIN_ID));
+
+            stub.addChain(NEW_CHAIN_ID, "New chain");
+            for (int i = 0; i < 50 && cache.getChainById(NEW_CHAIN_ID) == null; i++) {
+                Thread.sleep(100);
+            }
+            assertNotNull(cache.getChainById(NEW_CHAIN_ID));
+            assertNull(cache.getLastRefreshError());
+        }
+    }
+
+    /**
+     * Tests that a failed background refresh keeps the cached lists and reports the error.
+     */
+    @Test
+    public void testFailedBackgroundRefresh() throws InterruptedException {
+        try (ChainSectorCache cache = new ChainSectorCache(eckIdServiceUtil, 100)) {
+            List<?> chains = cache.getChains();
+
+            stub.setTemporaryBlockedProbability(1);
+            for (int i = 0; i < 50 && cache.getLastRefreshError() == null; i++) {
+                Thread.sleep(100);
+            }
+            assertInstanceOf(SOAPFaultException.class, cache.getLastRefreshError());
+            assertSame(chains, cache.getChains());
+
+            stub.setTemporaryBlockedProbability(0);
+            for (int i = 0; i < 50 && cache.getLastRefreshError() != null; i++) {
+                Thread.sleep(100);
+            }
+            assertNull(cache.getLastRefreshError());
+        }
+    }
+}
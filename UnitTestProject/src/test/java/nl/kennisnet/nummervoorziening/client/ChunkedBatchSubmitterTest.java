@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.ChunkedBatchSubmitter;
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubServer;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates processing large numbers of entries as a pipeline of smaller batches, against the embedded stub of the
+ * Nummervoorziening service.
+ */
+public class ChunkedBatchSubmitterTest extends AbstractStubTest {
+
+    private static final int ENTRIES = 25;
+
+    /**
+     * Tests that the results of all chunks are merged on the indexes of the input.
+     */
+    @Test
+    public void testStampseudonymsAreMergedByIndex() throws InterruptedException {
+        stub.setBatchProcessingTime(100, 0);
+        Map<Integer, String> listedHpgnMap = createHpgnMap();
+
+        EckIDServiceBatch batch;
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            batch = new ChunkedBatchSubmitter(eckIdServiceUtil, batchTracker, 10, 2)
+                .processStampseudonymBatch(listedHpgnMap);
+        }
+
+        assertEquals(ENTRIES - 1, batch.getSuccess().size());
+        assertEquals(1, batch.getFailed().size());
+        assertNotNull(batch.getFailed().get(ENTRIES - 1));
+        for (int i = 0; i < ENTRIES - 1; i++) {
+            assertEquals(eckIdServiceUtil.generateStampseudonym(listedHpgnMap.get(i)), batch.getSuccess().get(i));
+        }
+    }
+
+    /**
+     * Tests that the entries of a chunk which can not be submitted are reported as failed, without losing the
+     * results of the other chunks.
+     */
+    @Test
+    public void testRejectedChunkFails() throws InterruptedException {
+        stub.setDailyBatchSubmissionLimit(2);
+        Map<Integer, String> listedStampseudonymMap = new HashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            listedStampseudonymMap.put(i, "stampseudonym" + i);
+        }
+
+        EckIDServiceBatch batch;
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            batch = new ChunkedBatchSubmitter(eckIdServiceUtil, batchTracker, 10, 4)
+                .processEckIdBatch(listedStampseudonymMap, EckIDStubService.DEFAULT_CHAIN_ID,
+                    EckIDStubService.DEFAULT_SECTOR_ID);
+        }
+
+        assertEquals(20, batch.getSuccess().size());
+        assertEquals(5, batch.getFailed().size());
+        for (String errorMessage : batch.getFailed().values()) {
+            assertTrue(errorMessage.startsWith("LimitDailyBatchSubmissionsExceededException"));
+        }
+    }
+
+    /**
+     * Tests that the entries are reported as failed if the service can not be reached.
+     */
+    @Test
+    public void testUnreachableServiceFails() throws IOException, GeneralSecurityException, InterruptedException {
+        EckIDStubServer stoppedStubServer = new EckIDStubServer();
+        stoppedStubServer.close();
+        EckIDServiceUtil unreachableClient = new EckIDServiceUtil(new StubConfiguration(
+            stoppedStubServer.getEndpointAddress(), 0, Configuration.SOAP_ENGINE_JAXWS));
+
+        EckIDServiceBatch batch;
+        try (BatchTracker batchTracker = new BatchTracker(unreachableClient, 50, 500, 10_000)) {
+            batch = new ChunkedBatchSubmitter(unreachableClient, batchTracker, 10, 2)
+                .processStampseudonymBatch(createHpgnMap());
+        }
+
+        assertTrue(batch.getSuccess().isEmpty());
+        assertEquals(ENTRIES, batch.getFailed().size());
+    }
+
+    private static Map<Integer, String> createHpgnMap() {
+        Map<Integer, String> listedHpgnMap = new HashMap<>();
+        for (int i = 0; i < ENTRIES - 1; i++) {
+            listedHpgnMap.put(i, String.format("%064x", i + 1));
+        }
+        listedHpgnMap.put(ENTRIES - 1, AbstractUnitTest.INVALID_HPGN);
+        return listedHpgnMap;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDRouter;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.LatencyDistribution;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates letting the EckIDRouter choose between single calls and batches, against the embedded stub of the
+ * Nummervoorziening service.
+ */
+public class EckIDRouterTest extends AbstractStubTest {
+
+    /**
+     * Tests that a few requests are sent as single calls.
+     */
+    @Test
+    public void testFewRequestsUseSingleCalls() {
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            EckIDRouter router = new EckIDRouter(eckIdServiceUtil, batchTracker);
+            List<CompletableFuture<String>> eckIds = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                eckIds.add(router.generateEckID("stampseudonym" + i, EckIDStubService.DEFAULT_CHAIN_ID,
+                    EckIDStubService.DEFAULT_SECTOR_ID));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(eckIdServiceUtil.generateEckID("stampseudonym" + i, EckIDStubService.DEFAULT_CHAIN_ID,
+                    EckIDStubService.DEFAULT_SECTOR_ID), eckIds.get(i).join());
+            }
+            assertEquals(5, router.getSingleCalls());
+            assertEquals(0, router.getBatchedRequests());
+        }
+    }
+
+    /**
+     * Tests that a backlog of requests is sent in batches, with the same results as single calls.
+     */
+    @Test
+    public void testBacklogUsesBatches() {
+        stub.setLatency(LatencyDistribution.fixed(20));
+        stub.setBatchProcessingTime(100, 0);
+        int requests = 300;
+
+        List<CompletableFuture<String>> stampseudonyms = new ArrayList<>();
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            EckIDRouter router = new EckIDRouter(eckIdServiceUtil, batchTracker, 100, 200);
+            for (int i = 0; i < requests; i++) {
+                stampseudonyms.add(router.generateStampseudonym(String.format("%064x", i + 1)));
+            }
+            CompletableFuture<String> invalid = router.generateStampseudonym(AbstractUnitTest.INVALID_HPGN);
+            CompletableFuture.allOf(stampseudonyms.toArray(new CompletableFuture[0])).join();
+
+            assertTrue(router.getBatchedRequests() > 0);
+            assertEquals(requests + 1, router.getSingleCalls() + router.getBatchedRequests());
+            CompletionException e = assertThrows(CompletionException.class, invalid::join);
+            assertNotNull(e.getCause());
+        }
+
+        stub.setLatency(LatencyDistribution.none());
+        for (int i = 0; i < requests; i += 10) {
+            assertEquals(eckIdServiceUtil.generateStampseudonym(String.format("%064x", i + 1)),
+                stampseudonyms.get(i).join());
+        }
+    }
+
+    /**
+     * Tests that batches that are still being submitted count against the daily batch quota.
+     */
+    @Test
+    public void testSubmissionsInProgressCountAgainstQuota() throws GeneralSecurityException, IOException {
+        stub.setLatency(LatencyDistribution.fixed(50));
+        stub.setBatchProcessingTime(100, 0);
+        int requests = 100;
+
+        EckIDServiceUtil limitedClient = new EckIDServiceUtil(new StubConfiguration(stubServer.getEndpointAddress(),
+            0, Configuration.SOAP_ENGINE_JAXWS) {
+
+            @Override
+            public int getDailyBatchLimit() {
+                return 1;
+            }
+        });
+        List<CompletableFuture<String>> stampseudonyms = new ArrayList<>();
+        try (limitedClient; BatchTracker batchTracker = new BatchTracker(limitedClient, 50, 500, 10_000)) {
+            EckIDRouter router = new EckIDRouter(limitedClient, batchTracker, 10, 200);
+            for (int i = 0; i < requests; i++) {
+                stampseudonyms.add(router.generateStampseudonym(String.format("%064x", i + 1)));
+            }
+            CompletableFuture.allOf(stampseudonyms.toArray(new CompletableFuture[0])).join();
+
+            assertTrue(router.getBatchedRequests() > 0);
+            assertEquals(1, limitedClient.getBatchQuota().getUsed());
+        }
+    }
+}
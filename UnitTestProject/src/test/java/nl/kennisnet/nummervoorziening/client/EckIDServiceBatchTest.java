@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.ketenid.eck.schemas.v1_0.ListedEntityFailure;
+import nl.ketenid.eck.schemas.v1_0.ListedEntitySuccess;
+import nl.ketenid.eck.schemas.v1_0.RetrieveBatchResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates reading the results of a batch. These tests do not need the Nummervoorziening service.
+ */
+public class EckIDServiceBatchTest {
+
+    /**
+     * Tests that the map views and the primitive iteration give the entries of the response in index order.
+     */
+    @Test
+    public void testEntriesByIndex() {
+        RetrieveBatchResponse response = new RetrieveBatchResponse();
+        addSuccess(response, 0, "eckid0");
+        addSuccess(response, 2, "eckid2");
+        addFailure(response, 1, "Invalid stampseudonym");
+        addFailure(response, 3, "Invalid stampseudonym");
+
+        EckIDServiceBatch batch = EckIDServiceBatch.fromResponse(response);
+
+        assertEquals(Map.of(0, "eckid0", 2, "eckid2"), batch.getSuccess());
+        assertEquals(Map.of(1, "Invalid stampseudonym", 3, "Invalid stampseudonym"), batch.getFailed());
+        assertTrue(batch.getSuccess().containsKey(2));
+        assertFalse(batch.getSuccess().containsKey(1));
+        assertNull(batch.getFailed().get(4));
+        assertEquals("eckid2", batch.getValue(2));
+        assertNull(batch.getValue(3));
+        assertEquals("Invalid stampseudonym", batch.getErrorMessage(3));
+        assertSame(batch.getErrorMessage(1), batch.getErrorMessage(3));
+
+        List<String> entries = new ArrayList<>();
+        batch.forEachSuccess((index, value) -> entries.add(index + "=" + value));
+        batch.forEachFailure((index, errorMessage) -> entries.add(index + "!" + errorMessage));
+        assertEquals(List.of("0=eckid0", "2=eckid2", "1!Invalid stampseudonym", "3!Invalid stampseudonym"), entries);
+    }
+
+    /**
+     * Tests that entries with scattered indexes in any order are found.
+     */
+    @Test
+    public void testScatteredIndexes() {
+        RetrieveBatchResponse response = new RetrieveBatchResponse();
+        addSuccess(response, 1000, "eckid1000");
+        addSuccess(response, 7, "eckid7");
+        addFailure(response, 42, "Invalid stampseudonym");
+
+        EckIDServiceBatch batch = EckIDServiceBatch.fromResponse(response);
+
+        assertEquals(2, batch.getSuccessCount());
+        assertEquals(1, batch.getFailedCount());
+        assertEquals("eckid7", batch.getSuccess().get(7));
+        assertEquals("eckid1000", batch.getSuccess().get(1000));
+        assertEquals("Invalid stampseudonym", batch.getFailed().get(42));
+        assertNull(batch.getValue(8));
+
+        Map<Integer, String> ordered = new LinkedHashMap<>(batch.getSuccess());
+        assertEquals(List.of(7, 1000), new ArrayList<>(ordered.keySet()));
+    }
+
+    /**
+     * Tests that the maps of a batch can be modified like before, and that an empty batch can be created.
+     */
+    @Test
+    public void testMapsCanBeModified() {
+        RetrieveBatchResponse response = new RetrieveBatchResponse();
+        addSuccess(response, 0, "eckid0");
+        addFailure(response, 1, "Invalid stampseudonym");
+        EckIDServiceBatch batch = EckIDServiceBatch.fromResponse(response);
+
+        batch.getSuccess().remove(0);
+        batch.getFailed().put(2, "Not submitted");
+        assertEquals(Map.of(), batch.getSuccess());
+        assertEquals(Map.of(1, "Invalid stampseudonym", 2, "Not submitted"), batch.getFailed());
+        assertEquals("eckid0", batch.getValue(0));
+
+        EckIDServiceBatch empty = new EckIDServiceBatch();
+        assertTrue(empty.getSuccess().isEmpty());
+        empty.getSuccess().put(0, "eckid0");
+        assertEquals("eckid0", empty.getSuccess().get(0));
+        assertEquals(0, empty.getSuccessCount());
+    }
+
+    private static void addSuccess(RetrieveBatchResponse response, int index, String value) {
+        ListedEntitySuccess success = new ListedEntitySuccess();
+        success.setIndex(index);
+        success.setValue(value);
+        response.getSuccess().add(success);
+    }
+
+    private static void addFailure(RetrieveBatchResponse response, int index, String errorMessage) {
+        ListedEntityFailure failure = new ListedEntityFailure();
+        failure.setIndex(index);
+        // A new instance for every failure, like the ones of a parsed response
+        failure.setErrorMessage(new String(errorMessage));
+        response.getFailed().add(failure);
+    }
+}
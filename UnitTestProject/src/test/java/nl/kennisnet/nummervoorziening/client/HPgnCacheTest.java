@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.HPgnCache;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates usage of the persistent first level hash cache. These tests do not need the Nummervoorziening service.
+ */
+public class HPgnCacheTest {
+
+    private static final String SALT = "Y2FjaGUgdGVzdCBzYWx0";
+
+    private static final String OTHER_SALT = "b3RoZXIgdGVzdCBzYWx0";
+
+    private static final String PGN = "063138219";
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Tests that a cached hash is the same as a calculated hash and survives reopening the cache.
+     */
+    @Test
+    public void testCachedHashIsReused() throws IOException {
+        Path cacheFile = tempDir.resolve("hpgn.cache");
+        String expected = new ScryptUtil(SALT).generateHexHash(PGN);
+
+        try (HPgnCache cache = new HPgnCache(cacheFile, SALT, 1024)) {
+            assertEquals(expected, new ScryptUtil(SALT, cache).generateHexHash(PGN));
+            assertEquals(1, cache.size());
+        }
+
+        try (HPgnCache cache = new HPgnCache(cacheFile, SALT, 1024)) {
+            assertNotNull(cache.get(PGN));
+            assertNotNull(cache.get(PGN.toUpperCase()));
+            assertEquals(expected, new ScryptUtil(SALT, cache).generateHexHash(PGN));
+            assertEquals(1, cache.size());
+        }
+    }
+
+    /**
+     * Tests that the cache is cleared when it is opened with another salt.
+     */
+    @Test
+    public void testSaltChangeInvalidatesCache() throws IOException {
+        Path cacheFile = tempDir.resolve("hpgn.cache");
+        try (HPgnCache cache = new HPgnCache(cacheFile, SALT, 1024)) {
+            cache.put(PGN, new byte[32]);
+        }
+
+        try (HPgnCache cache = new HPgnCache(cacheFile, OTHER_SALT, 1024)) {
+            assertNull(cache.get(PGN));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    /**
+     * Tests that a cache file is not resized when it is opened with another capacity, as other processes may have it
+     * mapped.
+     */
+    @Test
+    public void testCapacityMismatchIsRejected() throws IOException {
+        Path cacheFile = tempDir.resolve("hpgn.cache");
+        try (HPgnCache cache = new HPgnCache(cacheFile, SALT, 1024)) {
+            cache.put(PGN, new byte[32]);
+        }
+        long size = Files.size(cacheFile);
+
+        assertThrows(IOException.class, () -> new HPgnCache(cacheFile, SALT, 2048));
+        assertEquals(size, Files.size(cacheFile));
+        try (HPgnCache cache = new HPgnCache(cacheFile, SALT, 1024)) {
+            assertNotNull(cache.get(PGN));
+        }
+    }
+
+    /**
+     * Tests that the slot key of a PGN can not be recalculated from the file: neither the salt nor a digest of the
+     * header fingerprint and the PGN are in it, only the HMAC keyed by the salt.
+     */
+    @Test
+    public void testSlotKeysCanNotBeRecalculatedFromFile() throws Exception {
+        Path cacheFile = tempDir.resolve("hpgn.cache");
+        try (HPgnCache cache = new HPgnCache(cacheFile, SALT, 1024)) {
+            cache.put(PGN, new byte[32]);
+        }
+        byte[] file = Files.readAllBytes(cacheFile);
+        byte[] fingerprint = Arrays.copyOfRange(file, 16, 48);
+        byte[] pgn = PGN.getBytes(StandardCharsets.UTF_8);
+        byte[] salt = Base64.getDecoder().decode(SALT);
+
+        assertFalse(contains(file, salt));
+        assertFalse(contains(file, SALT.getBytes(StandardCharsets.US_ASCII)));
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(fingerprint);
+        assertFalse(contains(file, Arrays.copyOf(digest.digest(pgn), 28)));
+        assertFalse(contains(file, Arrays.copyOf(hmac(fingerprint, pgn), 28)));
+        assertFalse(contains(file, Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(pgn), 28)));
+
+        assertTrue(contains(file, Arrays.copyOf(hmac(salt, pgn), 28)));
+    }
+
+    /**
+     * Tests that no more hashes are stored once the cache is full.
+     */
+    @Test
+    public void testFullCacheRejectsNewHashes() throws IOException {
+        try (HPgnCache cache = new HPgnCache(tempDir.resolve("hpgn.cache"), SALT, 4)) {
+            assertTrue(cache.put("pgn1", new byte[32]));
+            assertTrue(cache.put("pgn2", new byte[32]));
+            assertTrue(cache.put("pgn3", new byte[32]));
+            assertFalse(cache.put("pgn4", new byte[32]));
+            assertTrue(cache.put("pgn1", new byte[32]));
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] input) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(input);
+    }
+
+    private static boolean contains(byte[] data, byte[] part) {
+        for (int i = 0; i + part.length <= data.length; i++) {
+            if (Arrays.equals(data, i, i + part.length, part, 0, part.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.LatencyDistribution;
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.ws.WebServiceException;
+import java.net.http.HttpTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates the HttpClient transport of the streaming engine against the embedded stub of the Nummervoorziening
+ * service. The stub only speaks HTTP/1.1, so the client falls back from HTTP/2.
+ */
+public class HttpClientTransportTest extends AbstractStubTest {
+
+    /**
+     * Tests that concurrent operations over a bounded number of connections give the same results as the JAX-WS
+     * proxies.
+     */
+    @Test
+    public void testConcurrentOperations() throws Exception {
+        EckIDServiceUtil httpClient = createHttpClient(Configuration.SOAP_ENGINE_STREAMING, 2, 0);
+        assertTrue(httpClient.isNummervoorzieningServiceAvailable());
+
+        stub.setLatency(LatencyDistribution.fixed(20));
+        List<CompletableFuture<String>> stampseudonyms = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            stampseudonyms.add(httpClient.generateStampseudonymAsync(String.format("%064x", i + 1)));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(eckIdServiceUtil.generateStampseudonym(String.format("%064x", i + 1)),
+                stampseudonyms.get(i).get());
+        }
+    }
+
+    /**
+     * Tests that a request fails when the response does not arrive in time.
+     */
+    @Test
+    public void testRequestTimeout() throws GeneralSecurityException {
+        EckIDServiceUtil httpClient = createHttpClient(Configuration.SOAP_ENGINE_STREAMING, 0, 100);
+        stub.setLatency(LatencyDistribution.fixed(1000));
+
+        WebServiceException exception = assertThrows(WebServiceException.class,
+            httpClient::isNummervoorzieningServiceAvailable);
+        assertInstanceOf(HttpTimeoutException.class, exception.getCause());
+    }
+
+    /**
+     * Tests that the transport can not be combined with the JAX-WS proxies, which have a HTTP client of their own.
+     */
+    @Test
+    public void testNeedsStreamingEngine() {
+        assertThrows(IllegalArgumentException.class,
+            () -> createHttpClient(Configuration.SOAP_ENGINE_JAXWS, 0, 0));
+    }
+
+    private EckIDServiceUtil createHttpClient(String soapEngine, int maxConnections, int requestTimeout)
+        throws GeneralSecurityException {
+        return new EckIDServiceUtil(new StubConfiguration(stubServer.getEndpointAddress(), 0, soapEngine) {
+
+            @Override
+            public String getHttpTransport() {
+                return HTTP_TRANSPORT_HTTPCLIENT;
+            }
+
+            @Override
+            public int getHttpMaxConnections() {
+                return maxConnections;
+            }
+
+            @Override
+            public int getRequestTimeout() {
+                return requestTimeout;
+            }
+        });
+    }
+}
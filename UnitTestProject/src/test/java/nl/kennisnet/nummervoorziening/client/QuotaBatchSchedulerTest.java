@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchQuota;
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.kennisnet.nummervoorziening.client.eckid.QuotaBatchScheduler;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates processing entries within the daily batch quota, against the embedded stub of the Nummervoorziening
+ * service. These tests do not need the Nummervoorziening service.
+ */
+public class QuotaBatchSchedulerTest extends AbstractStubTest {
+
+    private static final int ENTRIES = 25;
+
+    /**
+     * Tests that the entries are packed in as few batches as possible.
+     */
+    @Test
+    public void testEntriesArePackedInFewBatches() throws InterruptedException {
+        EckIDServiceBatch batch;
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            batch = new QuotaBatchScheduler(eckIdServiceUtil, batchTracker, 10).processEckIdBatch(
+                createStampseudonymMap(), EckIDStubService.DEFAULT_CHAIN_ID, EckIDStubService.DEFAULT_SECTOR_ID);
+        }
+
+        assertEquals(ENTRIES, batch.getSuccess().size());
+        assertEquals(3, eckIdServiceUtil.getBatchQuota().getUsed());
+    }
+
+    /**
+     * Tests that the entries of refused batches are sent as single calls once the daily limit is reached.
+     */
+    @Test
+    public void testFallsBackToSingleCalls() throws InterruptedException {
+        stub.setDailyBatchSubmissionLimit(1);
+        Map<Integer, String> listedStampseudonymMap = createStampseudonymMap();
+
+        EckIDServiceBatch batch;
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            QuotaBatchScheduler scheduler = new QuotaBatchScheduler(eckIdServiceUtil, batchTracker, 10);
+            scheduler.setSingleCallRate(1000);
+            batch = scheduler.processEckIdBatch(listedStampseudonymMap, EckIDStubService.DEFAULT_CHAIN_ID,
+                EckIDStubService.DEFAULT_SECTOR_ID);
+        }
+
+        assertTrue(batch.getFailed().isEmpty());
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals(eckIdServiceUtil.generateEckID(listedStampseudonymMap.get(i),
+                EckIDStubService.DEFAULT_CHAIN_ID, EckIDStubService.DEFAULT_SECTOR_ID), batch.getSuccess().get(i));
+        }
+        assertEquals(1, eckIdServiceUtil.getBatchQuota().getUsed());
+        assertEquals(0, eckIdServiceUtil.getBatchQuota().getRemaining());
+    }
+
+    /**
+     * Tests that the quota is available again on the next day.
+     */
+    @Test
+    public void testQuotaResetsOnNextDay() {
+        MovableClock clock = new MovableClock(Instant.parse("2024-01-15T22:30:00Z"));
+        BatchQuota batchQuota = new BatchQuota(2, clock);
+        batchQuota.recordSubmission();
+        assertEquals(1, batchQuota.getRemaining());
+        batchQuota.recordLimitExceeded();
+        assertEquals(0, batchQuota.getRemaining());
+        assertEquals(Instant.parse("2024-01-15T23:00:00Z"), batchQuota.getNextWindow());
+
+        clock.instant = clock.instant.plus(Duration.ofMinutes(31));
+        assertEquals(2, batchQuota.getRemaining());
+        assertEquals(0, batchQuota.getUsed());
+    }
+
+    private static Map<Integer, String> createStampseudonymMap() {
+        Map<Integer, String> listedStampseudonymMap = new HashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            listedStampseudonymMap.put(i, "stampseudonym" + i);
+        }
+        return listedStampseudonymMap;
+    }
+
+    /**
+     * Clock in the time zone of the service that only moves when a test moves it.
+     */
+    private static final class MovableClock extends Clock {
+
+        private Instant instant;
+
+        private MovableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return BatchQuota.SERVICE_ZONE;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.ResultCache;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import java.util.GregorianCalendar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates the cache of stampseudonyms and EckIDs against the embedded stub of the Nummervoorziening service.
+ * These tests do not need the Nummervoorziening service.
+ */
+public class ResultCacheTest extends AbstractStubTest {
+
+    private static final String OTHER_STUDENT_HPGN = "c87be3a4bb0fe20e5ad8e9a4d15b0d57c1e0b3fbb0d5d54b1a5bfbdb0dc58c5e";
+
+    private static final String THIRD_STUDENT_HPGN = "5d1a0a3c0b1e3f6bde2e4a8f9c3a7b6d2e1f0a9b8c7d6e5f4a3b2c1d0e9f8a7b";
+
+    @Override
+    protected int getResultCacheSize() {
+        return 2;
+    }
+
+    /**
+     * Tests that repeated lookups are answered from the cache and counted.
+     */
+    @Test
+    public void testRepeatedLookupsHitCache() {
+        ResultCache cache = eckIdServiceUtil.getResultCache();
+        String stampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        assertEquals(stampseudonym,
+            eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN.toUpperCase()));
+
+        String eckId = eckIdServiceUtil.generateEckID(stampseudonym, EckIDStubService.DEFAULT_CHAIN_ID,
+            EckIDStubService.DEFAULT_SECTOR_ID);
+        assertEquals(eckId, eckIdServiceUtil.generateEckID(stampseudonym, EckIDStubService.DEFAULT_CHAIN_ID,
+            EckIDStubService.DEFAULT_SECTOR_ID));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Tests that the least recently used stampseudonym is evicted when the cache is full.
+     */
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ResultCache cache = eckIdServiceUtil.getResultCache();
+        eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN);
+        eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        eckIdServiceUtil.generateStampseudonym(THIRD_STUDENT_HPGN);
+        assertEquals(1, cache.getHitCount());
+
+        eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        assertEquals(2, cache.getHitCount());
+        eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    /**
+     * Tests that a substitution evicts the stampseudonym of the new hashed PGN.
+     */
+    @Test
+    public void testSubstitutionEvictsStampseudonym() {
+        String oldStampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        String newStampseudonym = eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN);
+        assertNotEquals(oldStampseudonym, newStampseudonym);
+
+        eckIdServiceUtil.replaceStampseudonym(OTHER_STUDENT_HPGN, AbstractUnitTest.VALID_STUDENT_HPGN, null);
+        assertEquals(oldStampseudonym, eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN));
+        assertEquals(oldStampseudonym, eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+    }
+
+    /**
+     * Tests that a substitution with an effective date in the future evicts the stampseudonyms at that date.
+     */
+    @Test
+    public void testScheduledSubstitutionEvictsAtEffectiveDate() throws DatatypeConfigurationException,
+        InterruptedException {
+        String oldStampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        String newStampseudonym = eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN);
+
+        GregorianCalendar effectiveDate = new GregorianCalendar();
+        effectiveDate.setTimeInMillis(System.currentTimeMillis() + 500);
+        eckIdServiceUtil.replaceStampseudonym(OTHER_STUDENT_HPGN, AbstractUnitTest.VALID_STUDENT_HPGN,
+            DatatypeFactory.newInstance().newXMLGregorianCalendar(effectiveDate));
+        assertEquals(newStampseudonym, eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN));
+
+        Thread.sleep(600);
+        assertEquals(oldStampseudonym, eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN));
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.BouncyCastleScryptEngine;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.LambdaworksJavaScryptEngine;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.PooledScrypt;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngine;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngines;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.VectorScryptEngine;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates the selection of the scrypt engine. These tests do not need the Nummervoorziening service.
+ */
+public class ScryptEngineTest {
+
+    /**
+     * Tests that the pure Java engines pass the test vectors; they are available on every platform.
+     */
+    @Test
+    public void testJavaEnginesAreCorrect() {
+        assertTrue(ScryptEngines.isCorrect(new LambdaworksJavaScryptEngine()));
+        assertTrue(ScryptEngines.isCorrect(new PooledScrypt(1)));
+        assertTrue(ScryptEngines.isCorrect(new BouncyCastleScryptEngine()));
+    }
+
+    /**
+     * Tests that an engine giving wrong output is never selected.
+     */
+    @Test
+    public void testIncorrectEngineIsNotSelected() {
+        ScryptEngine broken = new ScryptEngine() {
+            @Override
+            public String getName() {
+                return "broken";
+            }
+
+            @Override
+            public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) {
+                return new byte[dkLen];
+            }
+        };
+
+        assertFalse(ScryptEngines.isCorrect(broken));
+        assertNotSame(broken, ScryptEngines.select(Arrays.asList(broken, new PooledScrypt(1))));
+        assertThrows(IllegalStateException.class, () -> ScryptEngines.select(Arrays.asList(broken)));
+    }
+
+    /**
+     * Tests that the default engine is reported and derives the same key as the pooled Java engine.
+     */
+    @Test
+    public void testDefaultEngine() {
+        ScryptEngine engine = ScryptEngines.getDefault();
+        assertTrue(ScryptEngines.getSelectionReport().startsWith(engine.getName()));
+
+        byte[] passwd = "063138219".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(new PooledScrypt(1).scrypt(passwd, salt, 1024, 8, 4, 32),
+            engine.scrypt(passwd, salt, 1024, 8, 4, 32));
+    }
+
+    /**
+     * Tests that an engine can be chosen by name.
+     */
+    @Test
+    public void testEngineByName() {
+        assertEquals("pooled-java", ScryptEngines.byName("pooled-java").getName());
+        assertThrows(IllegalArgumentException.class, () -> ScryptEngines.byName("unknown"));
+    }
+
+    /**
+     * Tests that an engine stays usable after releasing its pooled scratch memory.
+     */
+    @Test
+    public void testReleaseMemory() {
+        PooledScrypt engine = new PooledScrypt(2);
+        byte[] passwd = "063138219".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        byte[] expected = engine.scrypt(passwd, salt, 1024, 8, 1, 32);
+        engine.releaseMemory();
+        assertArrayEquals(expected, engine.scrypt(passwd, salt, 1024, 8, 1, 32));
+    }
+
+    /**
+     * Tests that running the lanes of a hash in parallel derives the same key as running them one after another.
+     */
+    @Test
+    public void testParallelLanes() {
+        PooledScrypt engine = new PooledScrypt(4);
+        byte[] passwd = "20dp teacher@school.com".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        ExecutorService laneExecutor = Executors.newFixedThreadPool(3);
+        try {
+            assertTrue(engine.supportsParallelLanes());
+            assertArrayEquals(engine.scrypt(passwd, salt, 1024, 8, 4, 32),
+                engine.scrypt(passwd, salt, 1024, 8, 4, 32, laneExecutor));
+        } finally {
+            laneExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that low latency hashes with a reused and released lane engine give the same hash as bulk hashing, also
+     * with an engine that does not run lanes in parallel itself.
+     */
+    @Test
+    public void testLowLatencyLaneEngine() {
+        ScryptUtil scryptUtil = new ScryptUtil("c2NyeXB0IHRlc3Qgc2FsdA==", null, new LambdaworksJavaScryptEngine());
+        String expected = scryptUtil.generateHexHash("063138219");
+        assertEquals(expected, scryptUtil.generateHexHash("063138219", ScryptUtil.Mode.LOW_LATENCY));
+        assertEquals(expected, scryptUtil.generateHexHash("063138219", ScryptUtil.Mode.LOW_LATENCY));
+        scryptUtil.releaseMemory();
+        assertEquals(expected, scryptUtil.generateHexHash("063138219", ScryptUtil.Mode.LOW_LATENCY));
+    }
+
+    /**
+     * Tests that the Vector API engine derives the same keys as the scalar pooled engine. The tests run with the
+     * incubating Vector API module added.
+     */
+    @Test
+    public void testVectorEngine() {
+        VectorScryptEngine engine = new VectorScryptEngine(4);
+        PooledScrypt scalar = new PooledScrypt(1);
+        assertTrue(ScryptEngines.isCorrect(engine));
+
+        byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        ExecutorService laneExecutor = Executors.newFixedThreadPool(3);
+        try {
+            for (int r = 1; r <= 8; r++) {
+                byte[] passwd = ("pgn" + r).getBytes(StandardCharsets.UTF_8);
+                assertArrayEquals(scalar.scrypt(passwd, salt, 256, r, 4, 64), engine.scrypt(passwd, salt, 256, r, 4, 64));
+                assertArrayEquals(scalar.scrypt(passwd, salt, 256, r, 4, 64),
+                    engine.scrypt(passwd, salt, 256, r, 4, 64, laneExecutor));
+            }
+        } finally {
+            laneExecutor.shutdown();
+        }
+    }
+
+}
@@ -15,9 +15,18 @@
  */
 package nl.kennisnet.nummervoorziening.client;
 
+import nl.kennisnet.nummervoorziening.client.eckid.impl.ConfigurationImpl;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngine;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptEngines;
+import nl.kennisnet.nummervoorziening.client.eckid.scrypter.ScryptUtil;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Demonstrates correct usage of the ScryptUtil class.
@@ -42,6 +51,15 @@ public class ScryptUtilTest extends AbstractUnitTest {
         assertEquals(expectedValue, eckIdServiceUtil.getScryptUtil().generateHexHash(VALID_TEACHER_PGN));
     }
 
+    /**
+     * Tests that the low latency mode generates the same hash.
+     */
+    @Test
+    public void testLowLatencyHexHashGenerating() {
+        assertEquals(VALID_STUDENT_HPGN,
+            eckIdServiceUtil.getScryptUtil().generateHexHash(VALID_STUDENT_PGN, ScryptUtil.Mode.LOW_LATENCY));
+    }
+
     /**
      * Tests if input is lower-cased internally.
      */
@@ -50,4 +68,38 @@ public class ScryptUtilTest extends AbstractUnitTest {
         assertEquals(eckIdServiceUtil.getScryptUtil().generateHexHash("INPUT"), eckIdServiceUtil.getScryptUtil().generateHexHash("input"));
     }
 
+    /**
+     * Tests that bulk hashing returns the same hashes as single hashing, in input order.
+     */
+    @Test
+    public void testBulkHexHashGenerating() throws InterruptedException {
+        List<String> hashes = eckIdServiceUtil.getScryptUtil().generateHexHashes(
+            Arrays.asList(VALID_STUDENT_PGN, VALID_TEACHER_PGN, VALID_STUDENT_PGN));
+        assertEquals(Arrays.asList(VALID_STUDENT_HPGN, VALID_TEACHER_HPGN, VALID_STUDENT_HPGN), hashes);
+    }
+
+    /**
+     * Tests that bulk hashing rejects invalid input before any hash is calculated.
+     */
+    @Test
+    public void testBulkHexHashGeneratingWithInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () ->
+            eckIdServiceUtil.getScryptUtil().generateHexHashes(Arrays.asList(VALID_STUDENT_PGN, "")));
+    }
+
+    /**
+     * Tests that every scrypt engine which passes the test vectors generates the same hashes.
+     */
+    @Test
+    public void testHexHashGeneratingWithEachEngine() throws IOException {
+        String salt = new ConfigurationImpl(System.getProperty("user.dir")).getFirstLevelSalt();
+        for (ScryptEngine engine : ScryptEngines.getCandidates()) {
+            if (ScryptEngines.isCorrect(engine)) {
+                ScryptUtil scryptUtil = new ScryptUtil(salt, null, engine);
+                assertEquals(VALID_STUDENT_HPGN, scryptUtil.generateHexHash(VALID_STUDENT_PGN), engine.getName());
+                assertEquals(VALID_TEACHER_HPGN, scryptUtil.generateHexHash(VALID_TEACHER_PGN), engine.getName());
+            }
+        }
+    }
+
 }
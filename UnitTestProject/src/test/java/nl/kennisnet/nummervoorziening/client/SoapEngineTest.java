@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import nl.ketenid.eck.schemas.v1_0.Chain;
+import nl.ketenid.eck.schemas.v1_0.Sector;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates the streaming SOAP engine, by comparing every operation with the JAX-WS proxies against the embedded
+ * stub of the Nummervoorziening service. The stub runs on the JAX-WS runtime, so it also shows that the runtime
+ * accepts the messages of the streaming engine.
+ */
+public class SoapEngineTest extends AbstractStubTest {
+
+    private static final String CHAIN_ID = EckIDStubService.DEFAULT_CHAIN_ID;
+
+    private static final String SECTOR_ID = EckIDStubService.DEFAULT_SECTOR_ID;
+
+    private EckIDServiceUtil streamingClient;
+
+    @BeforeEach
+    public void createStreamingClient() throws GeneralSecurityException {
+        streamingClient = createClient(Configuration.SOAP_ENGINE_STREAMING);
+    }
+
+    /**
+     * Tests that the single operations give the same results with both engines.
+     */
+    @Test
+    public void testSingleOperations() throws Exception {
+        assertTrue(streamingClient.isNummervoorzieningServiceAvailable());
+        assertEquals(eckIdServiceUtil.getApplicationVersion(), streamingClient.getApplicationVersion());
+        assertNotNull(streamingClient.getSystemTime());
+
+        assertDescriptions(eckIdServiceUtil.getChains(), streamingClient.getChains(), Chain::getId, Chain::getName,
+            Chain::getDescription, Chain::getLastEdited);
+        assertDescriptions(eckIdServiceUtil.getSectors(), streamingClient.getSectors(), Sector::getId,
+            Sector::getName, Sector::getDescription, Sector::getLastEdited);
+
+        String stampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        assertEquals(stampseudonym, streamingClient.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+        assertEquals(eckIdServiceUtil.generateEckID(stampseudonym, CHAIN_ID, SECTOR_ID),
+            streamingClient.generateEckID(stampseudonym, CHAIN_ID, SECTOR_ID));
+
+        // A substitution in the future leaves the stampseudonym of the new HPgn as it is, until it becomes active
+        String teacherStampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_TEACHER_HPGN);
+        XMLGregorianCalendar effectiveDate = DatatypeFactory.newInstance().newXMLGregorianCalendar(
+            "2030-01-01T00:00:00+01:00");
+        streamingClient.replaceStampseudonym(AbstractUnitTest.VALID_TEACHER_HPGN, AbstractUnitTest.VALID_STUDENT_HPGN,
+            effectiveDate);
+        assertEquals(teacherStampseudonym, eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_TEACHER_HPGN));
+
+        assertEquals(stampseudonym, streamingClient.replaceStampseudonym(AbstractUnitTest.VALID_TEACHER_HPGN,
+            AbstractUnitTest.VALID_STUDENT_HPGN, null));
+        assertEquals(stampseudonym, eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_TEACHER_HPGN));
+    }
+
+    /**
+     * Tests that batches submitted by one engine can be retrieved by the other, with the same entries.
+     */
+    @Test
+    public void testBatchOperations() throws InterruptedException {
+        String[] hpgns = {AbstractUnitTest.VALID_STUDENT_HPGN, AbstractUnitTest.INVALID_HPGN,
+            AbstractUnitTest.VALID_TEACHER_HPGN};
+        String[] stampseudonyms = {"stampseudonym0", "stampseudonym1", ""};
+        String streamedStampseudonyms = streamingClient.submitStampseudonymBatch(hpgns);
+        String streamedEckIds = streamingClient.submitEckIdBatch(stampseudonyms, CHAIN_ID, SECTOR_ID);
+        String proxiedEckIds = eckIdServiceUtil.submitEckIdBatch(stampseudonyms, CHAIN_ID, SECTOR_ID);
+        Thread.sleep(100);
+
+        EckIDServiceBatch stampseudonymBatch = eckIdServiceUtil.retrieveEckIDBatch(streamedStampseudonyms);
+        assertEquals(streamingClient.generateStampseudonym(hpgns[0]), stampseudonymBatch.getValue(0));
+        assertNotNull(stampseudonymBatch.getErrorMessage(1));
+        assertEquals(streamingClient.generateStampseudonym(hpgns[2]), stampseudonymBatch.getValue(2));
+
+        EckIDServiceBatch streamed = streamingClient.retrieveEckIDBatch(streamedEckIds);
+        EckIDServiceBatch proxied = streamingClient.retrieveEckIDBatch(proxiedEckIds);
+        assertEquals(proxied.getSuccess(), streamed.getSuccess());
+        assertEquals(proxied.getFailed(), streamed.getFailed());
+        assertEquals(2, streamed.getSuccessCount());
+    }
+
+    /**
+     * Tests that faults give the same SOAPFaultException with both engines.
+     */
+    @Test
+    public void testFaults() {
+        SOAPFaultException proxied = assertThrows(SOAPFaultException.class,
+            () -> eckIdServiceUtil.generateEckID("stampseudonym", AbstractUnitTest.INVALID_CHAIN_GUID, SECTOR_ID));
+        SOAPFaultException streamed = assertThrows(SOAPFaultException.class,
+            () -> streamingClient.generateEckID("stampseudonym", AbstractUnitTest.INVALID_CHAIN_GUID, SECTOR_ID));
+        assertEquals(proxied.getFault().getFaultActor(), streamed.getFault().getFaultActor());
+        assertEquals(proxied.getFault().getFaultString(), streamed.getFault().getFaultString());
+        assertEquals(proxied.getFault().getFaultCodeAsQName(), streamed.getFault().getFaultCodeAsQName());
+
+        stub.setTemporaryBlockedProbability(1);
+        streamed = assertThrows(SOAPFaultException.class,
+            () -> streamingClient.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+        assertEquals("TemporaryBlockedException", streamed.getFault().getFaultActor());
+    }
+
+    @SafeVarargs
+    private static <T> void assertDescriptions(List<T> expected, List<T> actual, Function<T, Object>... properties) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (Function<T, Object> property : properties) {
+                assertEquals(property.apply(expected.get(i)), property.apply(actual.get(i)));
+            }
+        }
+    }
+}
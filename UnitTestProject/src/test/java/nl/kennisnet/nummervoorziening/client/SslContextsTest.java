@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.SslContexts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.KeyStore;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the SSL context of the clients is created once per keystore, and is used instead of the defaults of
+ * HttpsURLConnection. No connections are made, so the tests need neither the service nor the stub.
+ */
+public class SslContextsTest {
+
+    private static final String PASSWORD = "changeit";
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Tests that clients of the same keystore and session options share the context, with the configured session
+     * cache.
+     */
+    @Test
+    public void testContextIsSharedPerKeyStore() throws Exception {
+        String keyStorePath = createKeyStore("client.jks");
+
+        SSLContext context = SslContexts.forConfiguration(createConfiguration(keyStorePath,
+            Configuration.SOAP_ENGINE_JAXWS));
+        assertSame(context, SslContexts.forConfiguration(createConfiguration(keyStorePath,
+            Configuration.SOAP_ENGINE_STREAMING)));
+        assertNotSame(context, SslContexts.forConfiguration(createConfiguration(createKeyStore("other.jks"),
+            Configuration.SOAP_ENGINE_JAXWS)));
+
+        SSLContext otherSessions = SslContexts.forConfiguration(createConfiguration(keyStorePath,
+            Configuration.SOAP_ENGINE_JAXWS, 32));
+        assertNotSame(context, otherSessions);
+        assertEquals(32, otherSessions.getClientSessionContext().getSessionCacheSize());
+
+        assertEquals(64, context.getClientSessionContext().getSessionCacheSize());
+        assertEquals(600, context.getClientSessionContext().getSessionTimeout());
+    }
+
+    /**
+     * Tests that creating clients for a https endpoint leaves the JVM-wide defaults of HttpsURLConnection alone.
+     */
+    @Test
+    public void testDefaultsAreLeftAlone() throws Exception {
+        String keyStorePath = createKeyStore("client.jks");
+        SSLSocketFactory defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HostnameVerifier defaultHostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+
+        new EckIDServiceUtil(createConfiguration(keyStorePath, Configuration.SOAP_ENGINE_JAXWS));
+        new EckIDServiceUtil(createConfiguration(keyStorePath, Configuration.SOAP_ENGINE_STREAMING));
+
+        assertSame(defaultSocketFactory, HttpsURLConnection.getDefaultSSLSocketFactory());
+        assertSame(defaultHostnameVerifier, HttpsURLConnection.getDefaultHostnameVerifier());
+    }
+
+    private String createKeyStore(String name) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        Path path = tempDir.resolve(name);
+        try (OutputStream out = new FileOutputStream(path.toFile())) {
+            keyStore.store(out, PASSWORD.toCharArray());
+        }
+        return path.toString();
+    }
+
+    private static Configuration createConfiguration(String keyStorePath, String soapEngine) {
+        return createConfiguration(keyStorePath, soapEngine, 64);
+    }
+
+    private static Configuration createConfiguration(String keyStorePath, String soapEngine, int tlsSessionCacheSize) {
+        return new AbstractStubTest.StubConfiguration("https://localhost:8443/eck/ws", 0, soapEngine) {
+
+            @Override
+            public String getCertificateKeyStorePath() {
+                return keyStorePath;
+            }
+
+            @Override
+            public String getCertificateKeyStorePassword() {
+                return PASSWORD;
+            }
+
+            @Override
+            public String getCertificatePassword() {
+                return PASSWORD;
+            }
+
+            @Override
+            public int getTlsSessionCacheSize() {
+                return tlsSessionCacheSize;
+            }
+
+            @Override
+            public int getTlsSessionTimeout() {
+                return 600;
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates retrieving the result of a batch entry by entry, against the embedded stub of the Nummervoorziening
+ * service.
+ */
+public class StreamingRetrieveBatchTest extends AbstractStubTest {
+
+    private static final String[] STAMPSEUDONYMS = {"stampseudonym0", "", "stampseudonym2", " ", "stampseudonym4"};
+
+    /**
+     * Tests that the streamed entries are the entries of the same batch retrieved as a whole.
+     */
+    @Test
+    public void testStreamedEntriesMatchBatch() throws GeneralSecurityException, IOException, InterruptedException {
+        try (EckIDServiceUtil streamingClient = createClient(Configuration.SOAP_ENGINE_STREAMING)) {
+            assertEntriesMatchBatch(streamingClient);
+        }
+    }
+
+    /**
+     * Tests that a client with the JAX-WS SOAP engine passes on the same entries, after retrieving the batch as a
+     * whole.
+     */
+    @Test
+    public void testJaxWsEntriesMatchBatch() throws InterruptedException {
+        assertEntriesMatchBatch(eckIdServiceUtil);
+    }
+
+    private void assertEntriesMatchBatch(EckIDServiceUtil client) throws InterruptedException {
+        String chainId = EckIDStubService.DEFAULT_CHAIN_ID;
+        String sectorId = EckIDStubService.DEFAULT_SECTOR_ID;
+        String streamedBatch = client.submitEckIdBatch(STAMPSEUDONYMS, chainId, sectorId);
+        String wholeBatch = client.submitEckIdBatch(STAMPSEUDONYMS, chainId, sectorId);
+        Thread.sleep(100);
+
+        Map<Integer, String> success = new HashMap<>();
+        Map<Integer, String> failed = new HashMap<>();
+        int entries = client.retrieveEckIDBatch(streamedBatch, success::put, failed::put);
+
+        EckIDServiceBatch batch = client.retrieveEckIDBatch(wholeBatch);
+        assertEquals(STAMPSEUDONYMS.length, entries);
+        assertEquals(batch.getSuccess(), success);
+        assertEquals(batch.getFailed(), failed);
+        assertEquals(client.generateEckID(STAMPSEUDONYMS[4], chainId, sectorId), success.get(4));
+        assertEquals(2, failed.size());
+    }
+
+    /**
+     * Tests that faults are thrown as SOAPFaultException with the fault actor, like for the other operations, and
+     * that no entries are passed on for them.
+     */
+    @Test
+    public void testFaults() throws GeneralSecurityException, IOException, InterruptedException {
+        stub.setBatchProcessingTime(300, 0);
+        try (EckIDServiceUtil streamingClient = createClient(Configuration.SOAP_ENGINE_STREAMING)) {
+            String batchIdentifier = streamingClient.submitEckIdBatch(STAMPSEUDONYMS,
+                EckIDStubService.DEFAULT_CHAIN_ID, EckIDStubService.DEFAULT_SECTOR_ID);
+            EckIDServiceBatch.EntryConsumer unexpected = (index, value) -> fail("Unexpected entry " + index);
+
+            assertFaultActor("NotFinishedException",
+                () -> streamingClient.retrieveEckIDBatch(batchIdentifier, unexpected, unexpected));
+
+            Thread.sleep(400);
+            streamingClient.retrieveEckIDBatch(batchIdentifier, (index, value) -> { }, (index, value) -> { });
+            assertFaultActor("ContentAlreadyRetrievedException",
+                () -> streamingClient.retrieveEckIDBatch(batchIdentifier, unexpected, unexpected));
+        }
+    }
+
+    private static void assertFaultActor(String faultActor, Runnable operation) {
+        SOAPFaultException e = assertThrows(SOAPFaultException.class, operation::run);
+        assertEquals(faultActor, e.getFault().getFaultActor());
+    }
+}
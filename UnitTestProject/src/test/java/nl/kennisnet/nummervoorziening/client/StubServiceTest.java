@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016, Stichting Kennisnet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.kennisnet.nummervoorziening.client;
+
+import nl.kennisnet.nummervoorziening.client.eckid.BatchTracker;
+import nl.kennisnet.nummervoorziening.client.eckid.Configuration;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceBatch;
+import nl.kennisnet.nummervoorziening.client.eckid.EckIDServiceUtil;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubServer;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.EckIDStubService;
+import nl.kennisnet.nummervoorziening.client.eckid.stub.LatencyDistribution;
+
+import jakarta.xml.ws.soap.SOAPFaultException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Demonstrates testing a client against the embedded stub of the Nummervoorziening service. These tests do not need
+ * the Nummervoorziening service.
+ */
+public class StubServiceTest extends AbstractStubTest {
+
+    private static final String OTHER_STUDENT_HPGN = "c87be3a4bb0fe20e5ad8e9a4d15b0d57c1e0b3fbb0d5d54b1a5bfbdb0dc58c5e";
+
+    /**
+     * Tests that the stub gives the same fake values for the same input.
+     */
+    @Test
+    public void testDeterministicValues() {
+        assertTrue(eckIdServiceUtil.isNummervoorzieningServiceAvailable());
+
+        String stampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        assertEquals(stampseudonym, eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+        assertNotEquals(stampseudonym, eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN));
+
+        String eckId = eckIdServiceUtil.generateEckID(stampseudonym, EckIDStubService.DEFAULT_CHAIN_ID,
+            EckIDStubService.DEFAULT_SECTOR_ID);
+        assertEquals(eckId, eckIdServiceUtil.generateEckID(stampseudonym, EckIDStubService.DEFAULT_CHAIN_ID,
+            EckIDStubService.DEFAULT_SECTOR_ID));
+
+        assertThrows(SOAPFaultException.class, () -> eckIdServiceUtil.generateStampseudonym(""));
+        assertThrows(SOAPFaultException.class, () -> eckIdServiceUtil.generateEckID(stampseudonym,
+            AbstractUnitTest.INVALID_CHAIN_GUID, EckIDStubService.DEFAULT_SECTOR_ID));
+    }
+
+    /**
+     * Tests that the stub follows substitutions like the Nummervoorziening service.
+     */
+    @Test
+    public void testReplaceStampseudonym() {
+        String oldStampseudonym = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+
+        assertEquals(oldStampseudonym, eckIdServiceUtil.replaceStampseudonym(OTHER_STUDENT_HPGN,
+            AbstractUnitTest.VALID_STUDENT_HPGN, null));
+        assertEquals(oldStampseudonym, eckIdServiceUtil.generateStampseudonym(OTHER_STUDENT_HPGN));
+    }
+
+    /**
+     * Tests that a batch can only be retrieved once after it is processed.
+     */
+    @Test
+    public void testBatchProcessingTime() throws InterruptedException {
+        stub.setBatchProcessingTime(300, 0);
+
+        Map<Integer, String> listedHpgnMap = new HashMap<>();
+        listedHpgnMap.put(0, AbstractUnitTest.VALID_STUDENT_HPGN);
+        listedHpgnMap.put(1, AbstractUnitTest.INVALID_HPGN);
+        String batchIdentifier = eckIdServiceUtil.submitStampseudonymBatch(listedHpgnMap);
+
+        assertFaultActor("NotFinishedException", () -> eckIdServiceUtil.retrieveEckIDBatch(batchIdentifier));
+
+        Thread.sleep(400);
+        EckIDServiceBatch batch = eckIdServiceUtil.retrieveEckIDBatch(batchIdentifier);
+        assertEquals(eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN),
+            batch.getSuccess().get(0));
+        assertNotNull(batch.getFailed().get(1));
+
+        assertFaultActor("ContentAlreadyRetrievedException",
+            () -> eckIdServiceUtil.retrieveEckIDBatch(batchIdentifier));
+    }
+
+    /**
+     * Tests that batches submitted as list, array or function, directly or asynchronously, get the position of every
+     * value as its index.
+     */
+    @Test
+    public void testBatchOverloads() throws InterruptedException, ExecutionException {
+        String[] stampseudonyms = {"stampseudonym0", "", "stampseudonym2"};
+        String chainId = EckIDStubService.DEFAULT_CHAIN_ID;
+        String sectorId = EckIDStubService.DEFAULT_SECTOR_ID;
+
+        try (BatchTracker batchTracker = new BatchTracker(eckIdServiceUtil, 50, 500, 10_000)) {
+            for (String batchIdentifier : List.of(
+                eckIdServiceUtil.submitEckIdBatch(List.of(stampseudonyms), chainId, sectorId),
+                eckIdServiceUtil.submitEckIdBatch(stampseudonyms, chainId, sectorId),
+                eckIdServiceUtil.submitEckIdBatch(stampseudonyms.length, i -> stampseudonyms[i], chainId, sectorId),
+                eckIdServiceUtil.submitEckIdBatchAsync(List.of(stampseudonyms), chainId, sectorId).join(),
+                eckIdServiceUtil.submitEckIdBatchAsync(stampseudonyms, chainId, sectorId).join(),
+                eckIdServiceUtil.submitEckIdBatchAsync(stampseudonyms.length, i -> stampseudonyms[i], chainId,
+                    sectorId).join())) {
+
+                EckIDServiceBatch batch = batchTracker.track(batchIdentifier, stampseudonyms.length).get();
+                assertEquals(eckIdServiceUtil.generateEckID(stampseudonyms[0], chainId, sectorId), batch.getValue(0));
+                assertNotNull(batch.getErrorMessage(1));
+                assertEquals(eckIdServiceUtil.generateEckID(stampseudonyms[2], chainId, sectorId), batch.getValue(2));
+            }
+        }
+    }
+
+    /**
+     * Tests that both SOAP engines send the From header with the configured OIN, which the stub requires.
+     */
+    @Test
+    public void testFromHeader() throws GeneralSecurityException {
+        assertTrue(eckIdServiceUtil.isNummervoorzieningServiceAvailable());
+        assertEquals(CLIENT_OIN, stub.getLastClientOin());
+
+        EckIDServiceUtil streamingClient = createClient(Configuration.SOAP_ENGINE_STREAMING);
+        assertNotNull(streamingClient.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+        assertEquals(CLIENT_OIN, stub.getLastClientOin());
+    }
+
+    /**
+     * Tests that clients with different configurations keep their own endpoint and OIN, also for the ports they
+     * create after another client was created.
+     */
+    @Test
+    public void testClientsWithDifferentConfigurations() throws IOException, GeneralSecurityException {
+        String otherOin = "00000009876543210000";
+        try (EckIDStubServer otherStubServer = new EckIDStubServer()) {
+            EckIDServiceUtil otherClient = new EckIDServiceUtil(new StubConfiguration(
+                otherStubServer.getEndpointAddress(), 0, Configuration.SOAP_ENGINE_JAXWS) {
+                @Override
+                public String getClientInstanceOin() {
+                    return otherOin;
+                }
+            });
+
+            // The first client creates its first port only now
+            assertTrue(eckIdServiceUtil.isNummervoorzieningServiceAvailable());
+            assertEquals(CLIENT_OIN, stub.getLastClientOin());
+            assertNull(otherStubServer.getService().getLastClientOin());
+
+            assertTrue(otherClient.isNummervoorzieningServiceAvailable());
+            assertEquals(otherOin, otherStubServer.getService().getLastClientOin());
+            assertEquals(CLIENT_OIN, stub.getLastClientOin());
+        }
+    }
+
+    /**
+     * Tests the injected faults.
+     */
+    @Test
+    public void testInjectedFaults() {
+        stub.setDailyBatchSubmissionLimit(1);
+        Map<Integer, String> listedHpgnMap = Map.of(0, AbstractUnitTest.VALID_STUDENT_HPGN);
+        assertNotNull(eckIdServiceUtil.submitStampseudonymBatch(listedHpgnMap));
+        assertFaultActor("LimitDailyBatchSubmissionsExceededException",
+            () -> eckIdServiceUtil.submitStampseudonymBatch(listedHpgnMap));
+
+        stub.setTemporaryBlockedProbability(1);
+        assertFaultActor("TemporaryBlockedException",
+            () -> eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+    }
+
+    /**
+     * Tests that the configured latency is added to each operation.
+     */
+    @Test
+    public void testLatency() {
+        stub.setLatency(LatencyDistribution.fixed(50));
+
+        long start = System.nanoTime();
+        eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    /**
+     * Tests that operations of concurrent threads are executed at the same time, each with a port of the pool.
+     */
+    @Test
+    public void testConcurrentCalls() throws InterruptedException, ExecutionException {
+        int threads = 8;
+        int callsPerThread = 3;
+        stub.setLatency(LatencyDistribution.fixed(100));
+        String expected = eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<String>> calls = new ArrayList<>();
+            for (int i = 0; i < threads * callsPerThread; i++) {
+                calls.add(() -> eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN));
+            }
+            long start = System.nanoTime();
+            for (Future<String> result : executor.invokeAll(calls)) {
+                assertEquals(expected, result.get());
+            }
+            // Sequential execution would take 2.4 seconds
+            assertTrue(System.nanoTime() - start < 1_500_000_000L);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests composing asynchronous operations, and that a fault completes the future exceptionally.
+     */
+    @Test
+    public void testAsyncOperations() {
+        stub.setLatency(LatencyDistribution.fixed(100));
+        String expected = eckIdServiceUtil.generateEckID(
+            eckIdServiceUtil.generateStampseudonym(AbstractUnitTest.VALID_STUDENT_HPGN),
+            EckIDStubService.DEFAULT_CHAIN_ID, EckIDStubService.DEFAULT_SECTOR_ID);
+
+        List<CompletableFuture<String>> eckIds = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 16; i++) {
+            eckIds.add(eckIdServiceUtil.generateStampseudonymAsync(AbstractUnitTest.VALID_STUDENT_HPGN)
+                .thenCompose(stampseudonym -> eckIdServiceUtil.generateEckIDAsync(stampseudonym,
+                    EckIDStubService.DEFAULT_CHAIN_ID, EckIDStubService.DEFAULT_SECTOR_ID)));
+        }
+        for (CompletableFuture<String> eckId : eckIds) {
+            assertEquals(expected, eckId.join());
+        }
+        // Sequential execution would take 3.2 seconds
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+
+        CompletionException e = assertThrows(CompletionException.class,
+            () -> eckIdServiceUtil.generateStampseudonymAsync(AbstractUnitTest.INVALID_HPGN).join());
+        assertInstanceOf(SOAPFaultException.class, e.getCause());
+    }
+
+    /**
+     * Tests that closing a client stops the threads of the asynchronous operations it created.
+     */
+    @Test
+    public void testCloseStopsAsyncOperations() throws GeneralSecurityException, IOException {
+        EckIDServiceUtil client = createClient(Configuration.SOAP_ENGINE_STREAMING);
+        assertNotNull(client.generateStampseudonymAsync(AbstractUnitTest.VALID_STUDENT_HPGN).join());
+
+        client.close();
+        assertThrows(RejectedExecutionException.class,
+            () -> client.generateStampseudonymAsync(AbstractUnitTest.VALID_STUDENT_HPGN));
+    }
+
+    private static void assertFaultActor(String faultActor, Runnable operation) {
+        SOAPFaultException e = assertThrows(SOAPFaultException.class, operation::run);
+        assertEquals(faultActor, e.getFault().getFaultActor());
+    }
+}